@@ -24,7 +24,6 @@ import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.hadoop.yarn.api.records.ApplicationReport;
 import org.apache.hadoop.yarn.api.records.FinalApplicationStatus;
-import org.apache.hadoop.yarn.api.records.YarnApplicationState;
 
 import com.cloudera.kitten.client.params.lua.LuaYarnClientParameters;
 import com.cloudera.kitten.client.service.YarnClientServiceImpl;
@@ -75,23 +74,8 @@ public class KittenClient extends Configured implements Tool {
       return 1;
     }
     
-    String trackingUrl = null;
-    while (service.isRunning()) {
-      if (trackingUrl == null) {
-        Thread.sleep(1000);
-        ApplicationReport report = service.getApplicationReport();
-        YarnApplicationState yarnAppState = report.getYarnApplicationState();
-        if (yarnAppState == YarnApplicationState.RUNNING) {
-          trackingUrl = report.getTrackingUrl();
-          if (trackingUrl == null || trackingUrl.isEmpty()) {
-            LOG.info("Application is running, but did not specify a tracking URL");
-            trackingUrl = "";
-          } else {
-            LOG.info("Master Tracking URL = " + trackingUrl);
-          }
-        }
-      }
-    }
+    // The service logs the tracking URL once the application is running.
+    service.awaitCompletion();
     
     LOG.info("Checking final app report");
     ApplicationReport report = service.getFinalReport();
@@ -14,9 +14,13 @@
  */
 package com.cloudera.kitten.client;
 
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.hadoop.yarn.api.records.ApplicationId;
 import org.apache.hadoop.yarn.api.records.ApplicationReport;
 
+import com.cloudera.kitten.MasterProtocol;
 import com.google.common.util.concurrent.Service;
 
 /**
@@ -52,4 +56,22 @@ public interface YarnClientService extends Service {
    * Returns the final application report for this job.
    */
   ApplicationReport getFinalReport();
+
+  /**
+   * Connects to the application master, which must be running, e.g., to resize its container
+   * groups. The caller closes the connection with {@code RPC.stopProxy}.
+   */
+  MasterProtocol getMasterProtocol() throws IOException;
+
+  /**
+   * Blocks until the service has stopped, which happens once the application has
+   * finished or timed out.
+   */
+  void awaitCompletion() throws InterruptedException;
+
+  /**
+   * Blocks until the service has stopped or the given amount of time has passed. Returns
+   * true if the service stopped.
+   */
+  boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException;
 }
@@ -14,6 +14,7 @@
  */
 package com.cloudera.kitten.client.params.lua;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Iterator;
@@ -30,6 +31,7 @@ import com.cloudera.kitten.lua.LuaContainerLaunchParameters;
 import com.cloudera.kitten.lua.LuaFields;
 import com.cloudera.kitten.lua.LuaPair;
 import com.cloudera.kitten.lua.LuaWrapper;
+import com.cloudera.kitten.util.EnvironmentCodec;
 import com.cloudera.kitten.util.Extras;
 import com.cloudera.kitten.util.LocalDataHelper;
 import com.google.common.collect.ImmutableMap;
@@ -41,6 +43,7 @@ public class LuaYarnClientParameters implements YarnClientParameters {
   private final LuaWrapper env;
   private final Configuration conf;
   private final Extras extras;
+  private final byte[] encodedExtraLuaValues;
   
   public LuaYarnClientParameters(String script, String jobName, Configuration conf) {
     this(script, jobName, conf, ImmutableMap.<String, Object>of());
@@ -53,15 +56,17 @@ public class LuaYarnClientParameters implements YarnClientParameters {
   
   public LuaYarnClientParameters(String script, String jobName, Configuration conf,
       Map<String, Object> extraLuaValues, Map<String, String> resources) {
-    this.env = new LuaWrapper(script, extraLuaValues).getTable(jobName);
+    this.env = new LuaWrapper(script, extraLuaValues, conf).getTable(jobName);
     this.conf = initConf(env, conf);
     this.extras = new Extras();
     this.extras.putEnv(LuaFields.KITTEN_JOB_NAME, jobName);
     this.extras.putResource(LuaFields.KITTEN_LUA_CONFIG_FILE, script);
     this.extras.putAllResources(resources);
     if (extraLuaValues != null && !extraLuaValues.isEmpty()) {
-      this.extras.putEnv(LuaFields.KITTEN_EXTRA_LUA_VALUES,
-          LocalDataHelper.serialize(extraLuaValues));
+      // Encoded now so that values of unsupported types are rejected right away.
+      this.encodedExtraLuaValues = EnvironmentCodec.encodeValues(extraLuaValues);
+    } else {
+      this.encodedExtraLuaValues = null;
     }
   }
   
@@ -105,13 +110,45 @@ public class LuaYarnClientParameters implements YarnClientParameters {
 
   @Override
   public ContainerLaunchParameters getApplicationMasterParameters(ApplicationId applicationId) {
-    Map<String, URI> localToUris = mapLocalFiles(applicationId);
-    extras.putEnv(LuaFields.KITTEN_LOCAL_FILE_TO_URI, LocalDataHelper.serialize(localToUris));
-    return new LuaContainerLaunchParameters(env.getTable(LuaFields.MASTER), conf, localToUris, extras);
+    // The master's own extras are built for each call, so that the shared ones stay as they
+    // were and every submission stages its files afresh.
+    Extras masterExtras = new Extras()
+        .putAllEnv(extras.getEnv())
+        .putAllResources(extras.getResources());
+    LocalDataHelper lfh = new LocalDataHelper(applicationId, conf);
+    mapLocalFiles(lfh);
+    if (encodedExtraLuaValues != null) {
+      putEncoded(LuaFields.KITTEN_EXTRA_LUA_VALUES, LuaFields.KITTEN_EXTRA_LUA_VALUES_FILE,
+          encodedExtraLuaValues, lfh, masterExtras);
+    }
+    // The file mapping is encoded last, so that it covers every other file.
+    putEncoded(LuaFields.KITTEN_LOCAL_FILE_TO_URI, LuaFields.KITTEN_LOCAL_FILE_TO_URI_FILE,
+        EnvironmentCodec.encodeUris(lfh.getFileMapping()), lfh, masterExtras);
+    return new LuaContainerLaunchParameters(env.getTable(LuaFields.MASTER), conf,
+        lfh.getFileMapping(), masterExtras);
   }
 
-  private Map<String, URI> mapLocalFiles(ApplicationId applicationId) {
-    LocalDataHelper lfh = new LocalDataHelper(applicationId, conf);
+  // Passes the data to the application master in an environment variable, or in a file
+  // that is localized with it if the data is too large for the environment.
+  private void putEncoded(String envName, String fileName, byte[] data, LocalDataHelper lfh,
+      Extras masterExtras) {
+    String value = EnvironmentCodec.toEnv(data, conf.getInt(EnvironmentCodec.MAX_ENV_LENGTH,
+        EnvironmentCodec.DEFAULT_MAX_ENV_LENGTH));
+    if (value == null) {
+      try {
+        File tmpFile = File.createTempFile("kitten", ".bin");
+        tmpFile.deleteOnExit();
+        value = EnvironmentCodec.toFile(data, tmpFile, fileName);
+        lfh.copyToAppDirectory(fileName, tmpFile.getAbsolutePath());
+        masterExtras.putResource(fileName, fileName);
+      } catch (IOException e) {
+        throw new RuntimeException("Error copying " + fileName + " to hdfs", e);
+      }
+    }
+    masterExtras.putEnv(envName, value);
+  }
+
+  private void mapLocalFiles(LocalDataHelper lfh) {
     
     // Map the configuration object as an XML file.
     try {
@@ -141,7 +178,6 @@ public class LuaYarnClientParameters implements YarnClientParameters {
     } else if (!env.isNil(LuaFields.CONTAINER)) {
       mapLocalFiles(env.getTable(LuaFields.CONTAINER), lfh);
     }
-    return lfh.getFileMapping();
   }
   
   private void mapLocalFiles(LuaWrapper entity, LocalDataHelper localFileHelper) {
@@ -15,9 +15,11 @@
 package com.cloudera.kitten.client.service;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.EnumSet;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
@@ -25,6 +27,8 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.security.Credentials;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.token.Token;
@@ -43,6 +47,8 @@ import org.apache.hadoop.yarn.exceptions.YarnException;
 import com.cloudera.kitten.ContainerLaunchContextFactory;
 import com.cloudera.kitten.ContainerLaunchParameters;
 import com.cloudera.kitten.MasterConnectionFactory;
+import com.cloudera.kitten.MasterProtocol;
+import com.cloudera.kitten.MasterTokens;
 import com.cloudera.kitten.client.YarnClientParameters;
 import com.cloudera.kitten.client.YarnClientService;
 import com.google.common.base.Preconditions;
@@ -61,14 +67,31 @@ public class YarnClientServiceImpl extends AbstractScheduledService
   
   private static final Log LOG = LogFactory.getLog(YarnClientServiceImpl.class);
   
+  // The bounds on how often the client polls the RM for an application report. The client
+  // polls at the minimum interval until the application is running, and then backs off
+  // exponentially to the maximum interval for as long as the application stays running. The
+  // maximum is the one-second interval that the client always polled at, so that the end of a
+  // long job is not noticed any later than it was.
+  public static final String POLL_MIN_MS = "kitten.client.poll.min.ms";
+  public static final long DEFAULT_POLL_MIN_MS = 100L;
+  public static final String POLL_MAX_MS = "kitten.client.poll.max.ms";
+  public static final long DEFAULT_POLL_MAX_MS = 1000L;
+  
   private final YarnClientParameters parameters;
   private final MasterConnectionFactory<YarnClient> yarnClientFactory;
   private final Stopwatch stopwatch;
+  private final long minPollMillis;
+  private final long maxPollMillis;
+  private final CountDownLatch terminated = new CountDownLatch(1);
+  // Handed to the master, which only answers callers that hold a token signed with it.
+  private final byte[] masterKey = MasterTokens.newKey();
   
   private YarnClient yarnClient;
   private ApplicationId applicationId;
   private ApplicationReport finalReport;
   private boolean timeout = false;
+  private YarnApplicationState lastState;
+  private volatile long pollMillis = 0L;
   
   public YarnClientServiceImpl(YarnClientParameters params) {
     this(params, new YarnClientFactory(params.getConfiguration()),
@@ -81,15 +104,29 @@ public class YarnClientServiceImpl extends AbstractScheduledService
     this.parameters = Preconditions.checkNotNull(parameters);
     this.yarnClientFactory = yarnClientFactory;
     this.stopwatch = stopwatch;
+    Configuration conf = parameters.getConfiguration();
+    this.minPollMillis = conf.getLong(POLL_MIN_MS, DEFAULT_POLL_MIN_MS);
+    this.maxPollMillis = Math.max(minPollMillis, conf.getLong(POLL_MAX_MS, DEFAULT_POLL_MAX_MS));
   }
   
   @Override
   protected void startUp() throws IOException {
-    ByteBuffer serializedTokens = null;
+    try {
+      submit();
+    } catch (IOException e) {
+      terminated.countDown();
+      throw e;
+    } catch (RuntimeException e) {
+      terminated.countDown();
+      throw e;
+    }
+  }
+
+  private void submit() throws IOException {
+    Credentials credentials = new Credentials();
     if (UserGroupInformation.isSecurityEnabled()) {
       Configuration conf = this.yarnClientFactory.getConfig();
       FileSystem fs = FileSystem.get(conf);
-      Credentials credentials = new Credentials();
       String tokenRenewer = this.yarnClientFactory.getConfig().get(YarnConfiguration.RM_PRINCIPAL);
       if (tokenRenewer == null || tokenRenewer.length() == 0) {
         throw new IOException("Can't get Master Kerberos principal for the RM to use as renewer");
@@ -98,13 +135,14 @@ public class YarnClientServiceImpl extends AbstractScheduledService
       final Token<?> tokens[] = fs.addDelegationTokens(tokenRenewer, credentials);
       if (tokens != null) {
         for (Token<?> token : tokens) {
-          LOG.info("Got delegation token for " + fs.getUri() + "; " + token);
+          LOG.info("Got " + token.getKind() + " delegation token for " + fs.getUri());
         }
       }
-      DataOutputBuffer dob = new DataOutputBuffer();
-      credentials.writeTokenStorageToStream(dob);
-      serializedTokens = ByteBuffer.wrap(dob.getData(), 0, dob.getLength());
     }
+    credentials.addSecretKey(MasterTokens.KEY_ALIAS, masterKey);
+    DataOutputBuffer dob = new DataOutputBuffer();
+    credentials.writeTokenStorageToStream(dob);
+    ByteBuffer serializedTokens = ByteBuffer.wrap(dob.getData(), 0, dob.getLength());
 
     this.yarnClient = yarnClientFactory.connect();
     YarnClientApplication clientApp = getNewApplication();
@@ -168,6 +206,14 @@ public class YarnClientServiceImpl extends AbstractScheduledService
   
   @Override
   protected void shutDown() {
+    try {
+      finish();
+    } finally {
+      terminated.countDown();
+    }
+  }
+
+  private void finish() {
     if (finalReport != null) {
       YarnApplicationState state = finalReport.getYarnApplicationState();
       FinalApplicationStatus status = finalReport.getFinalApplicationStatus();
@@ -228,6 +274,39 @@ public class YarnClientServiceImpl extends AbstractScheduledService
     return finalReport;
   }
   
+  @Override
+  public MasterProtocol getMasterProtocol() throws IOException {
+    ApplicationReport report = getApplicationReport();
+    if (report == null || report.getYarnApplicationState() != YarnApplicationState.RUNNING ||
+        report.getRpcPort() <= 0) {
+      throw new IOException("The application master is not running");
+    }
+    // The master may register its host as "hostname/ip".
+    String host = report.getHost();
+    int slash = host.indexOf('/');
+    if (slash > 0) {
+      host = host.substring(0, slash);
+    }
+    InetSocketAddress address = NetUtils.createSocketAddr(host, report.getRpcPort());
+    Configuration conf = yarnClientFactory.getConfig();
+    String user = UserGroupInformation.getCurrentUser().getShortUserName();
+    UserGroupInformation ugi = UserGroupInformation.createRemoteUser(user);
+    ugi.addToken(MasterTokens.newToken(masterKey, report.getCurrentApplicationAttemptId(), user,
+        address));
+    return RPC.getProxy(MasterProtocol.class, MasterProtocol.versionID, address, ugi, conf,
+        NetUtils.getDefaultSocketFactory(conf));
+  }
+
+  @Override
+  public void awaitCompletion() throws InterruptedException {
+    terminated.await();
+  }
+
+  @Override
+  public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+    return terminated.await(timeout, unit);
+  }
+
   @Override
   public ApplicationReport getApplicationReport() {
     try {
@@ -255,6 +334,8 @@ public class YarnClientServiceImpl extends AbstractScheduledService
         report.getFinalApplicationStatus() != FinalApplicationStatus.UNDEFINED) {
       finalReport = report;
       stop();
+    } else {
+      updatePollInterval(report);
     }
     
     // Ensure that we haven't been running for all that long.
@@ -266,10 +347,42 @@ public class YarnClientServiceImpl extends AbstractScheduledService
     }
   }
 
+  private void updatePollInterval(ApplicationReport report) {
+    YarnApplicationState state = report.getYarnApplicationState();
+    if (state == YarnApplicationState.RUNNING && lastState != YarnApplicationState.RUNNING) {
+      String trackingUrl = report.getTrackingUrl();
+      if (trackingUrl == null || trackingUrl.isEmpty()) {
+        LOG.info("Application is running, but did not specify a tracking URL");
+      } else {
+        LOG.info("Master Tracking URL = " + trackingUrl);
+      }
+    }
+    if (state == YarnApplicationState.RUNNING && state == lastState) {
+      pollMillis = Math.min(2 * pollMillis, maxPollMillis);
+    } else {
+      pollMillis = minPollMillis;
+    }
+    lastState = state;
+  }
+
+  private long nextPollMillis() {
+    long delay = pollMillis;
+    long timeoutMillis = parameters.getClientTimeoutMillis();
+    if (timeoutMillis > 0 && stopwatch.isRunning()) {
+      // Don't sleep past the point where the application should be timed out.
+      delay = Math.min(delay, Math.max(0L, timeoutMillis - stopwatch.elapsedMillis()));
+    }
+    return delay;
+  }
+
   @Override
   protected Scheduler scheduler() {
-    // TODO: make this configurable
-    return Scheduler.newFixedRateSchedule(0, 1, TimeUnit.SECONDS);
+    return new CustomScheduler() {
+      @Override
+      protected Schedule getNextSchedule() {
+        return new Schedule(nextPollMillis(), TimeUnit.MILLISECONDS);
+      }
+    };
   }
 
 }
@@ -15,22 +15,45 @@
 package com.cloudera.kitten;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ApplicationReport;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.FinalApplicationStatus;
+import org.apache.hadoop.yarn.api.records.LocalResource;
 import org.apache.hadoop.yarn.server.MiniYARNCluster;
+import org.apache.hadoop.yarn.util.ConverterUtils;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.cloudera.kitten.client.KittenClient;
+import com.cloudera.kitten.client.YarnClientParameters;
+import com.cloudera.kitten.client.YarnClientService;
+import com.cloudera.kitten.client.params.lua.LuaYarnClientParameters;
+import com.cloudera.kitten.client.service.YarnClientServiceImpl;
+import com.cloudera.kitten.lua.LuaFields;
+import com.cloudera.kitten.task.TaskProtocol;
+import com.cloudera.kitten.util.EnvironmentCodec;
 import com.cloudera.kitten.util.LocalDataHelper;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.io.Files;
 
 public class TestKittenDistributedShell {
@@ -88,4 +111,157 @@ public class TestKittenDistributedShell {
     assertEquals(0, client.run(new String[]{config, "distshell"}));
     assertEquals(12, Files.readLines(tmpFile, Charsets.UTF_8).size()); 
   }
+
+  @Test
+  public void testKittenShellWithEnvironmentFiles() throws Exception {
+    File tmpFile = new File("/tmp/distshell-files.out");
+    if (tmpFile.exists()) {
+      tmpFile.delete();
+    }
+    Map<String, Object> extras = ImmutableMap.<String, Object>of(
+        "TEST_FILE", tmpFile.getAbsolutePath(),
+        "PWD", (new File(".")).getAbsolutePath());
+
+    // Too small for either encoded map, so both are handed to the master in files.
+    Configuration fileConf = new Configuration(conf);
+    fileConf.set(LocalDataHelper.APP_BASE_DIR, "file:///tmp/");
+    fileConf.setInt(EnvironmentCodec.MAX_ENV_LENGTH, 1);
+    LuaYarnClientParameters params = new LuaYarnClientParameters("/lua/distshell.lua",
+        "distshell", fileConf, extras);
+    ContainerLaunchParameters master = params.getApplicationMasterParameters(
+        ApplicationId.newInstance(0L, 1000));
+    assertEquals("@" + LuaFields.KITTEN_LOCAL_FILE_TO_URI_FILE,
+        master.getEnvironment().get(LuaFields.KITTEN_LOCAL_FILE_TO_URI));
+    assertEquals("@" + LuaFields.KITTEN_EXTRA_LUA_VALUES_FILE,
+        master.getEnvironment().get(LuaFields.KITTEN_EXTRA_LUA_VALUES));
+    LocalResource uriFile = master.getLocalResources().get(LuaFields.KITTEN_LOCAL_FILE_TO_URI_FILE);
+    LocalResource valuesFile =
+        master.getLocalResources().get(LuaFields.KITTEN_EXTRA_LUA_VALUES_FILE);
+    assertNotNull(uriFile);
+    assertNotNull(valuesFile);
+
+    // The file mapping that the master decodes covers the other file.
+    Map<String, URI> uris = EnvironmentCodec.decodeUris(Files.toByteArray(
+        new File(ConverterUtils.getPathFromYarnURL(uriFile.getResource()).toUri().getPath())));
+    assertTrue(uris.containsKey(LuaFields.KITTEN_EXTRA_LUA_VALUES_FILE));
+
+    // Submitting again stages the files again, rather than reusing the first submission's.
+    ContainerLaunchParameters again = params.getApplicationMasterParameters(
+        ApplicationId.newInstance(0L, 1001));
+    assertFalse(valuesFile.getResource().equals(
+        again.getLocalResources().get(LuaFields.KITTEN_EXTRA_LUA_VALUES_FILE).getResource()));
+
+    // The master reads both back: it needs TEST_FILE to build the container command.
+    KittenClient client = new KittenClient(extras);
+    client.setConf(fileConf);
+    assertEquals(0, client.run(new String[]{"/lua/distshell.lua", "distshell"}));
+    assertEquals(12, Files.readLines(tmpFile, Charsets.UTF_8).size());
+  }
+
+  @Test
+  public void testKittenTaskShell() throws Exception {
+    File tmpFile = new File("/tmp/taskshell.out");
+    if (tmpFile.exists()) {
+      tmpFile.delete();
+    }
+
+    KittenClient client = new KittenClient(
+        ImmutableMap.<String, Object>of(
+            "TEST_FILE", tmpFile.getAbsolutePath(),
+            "PWD", (new File(".")).getAbsolutePath()));
+    conf.set(LocalDataHelper.APP_BASE_DIR, "file:///tmp/");
+    client.setConf(conf);
+    assertEquals(0, client.run(new String[]{"/lua/distshell.lua", "taskshell"}));
+    assertEquals(20, Files.readLines(tmpFile, Charsets.UTF_8).size());
+  }
+
+  @Test
+  public void testKittenTaskShellSourceError() throws Exception {
+    KittenClient client = new KittenClient(
+        ImmutableMap.<String, Object>of(
+            "TEST_FILE", "/dev/null",
+            "PWD", (new File(".")).getAbsolutePath()));
+    conf.set(LocalDataHelper.APP_BASE_DIR, "file:///tmp/");
+    client.setConf(conf);
+    // The tasks that were never generated must not let the job succeed.
+    assertEquals(1, client.run(new String[]{"/lua/distshell.lua", "brokentaskshell"}));
+  }
+
+  @Test
+  public void testKittenGangShell() throws Exception {
+    File tmpFile = new File("/tmp/gangshell.out");
+    if (tmpFile.exists()) {
+      tmpFile.delete();
+    }
+
+    KittenClient client = new KittenClient(
+        ImmutableMap.<String, Object>of(
+            "TEST_FILE", tmpFile.getAbsolutePath(),
+            "PWD", (new File(".")).getAbsolutePath()));
+    conf.set(LocalDataHelper.APP_BASE_DIR, "file:///tmp/");
+    client.setConf(conf);
+    assertEquals(0, client.run(new String[]{"/lua/distshell.lua", "gangshell"}));
+    assertEquals(ImmutableSet.of("instance 0", "instance 1"),
+        ImmutableSet.copyOf(Files.readLines(tmpFile, Charsets.UTF_8)));
+  }
+
+  @Test
+  public void testResize() throws Exception {
+    conf.set(LocalDataHelper.APP_BASE_DIR, "file:///tmp/");
+    YarnClientParameters params = new LuaYarnClientParameters("/lua/distshell.lua", "sleepshell",
+        conf, ImmutableMap.<String, Object>of(
+            "TEST_FILE", "/dev/null",
+            "PWD", (new File(".")).getAbsolutePath()),
+        ImmutableMap.<String, String>of());
+    YarnClientService service = new YarnClientServiceImpl(params);
+    service.startAndWait();
+
+    // Wait for the master to register its RPC port.
+    MasterProtocol master = null;
+    for (int i = 0; i < 150 && master == null; i++) {
+      try {
+        master = service.getMasterProtocol();
+      } catch (IOException e) {
+        Thread.sleep(200);
+      }
+    }
+    assertNotNull(master);
+
+    // Neither protocol answers callers without a token for this application.
+    ApplicationReport report = service.getApplicationReport();
+    InetSocketAddress address = NetUtils.createSocketAddr(report.getHost().split("/")[0],
+        report.getRpcPort());
+    MasterProtocol unauthenticated = RPC.getProxy(MasterProtocol.class, MasterProtocol.versionID,
+        address, conf);
+    try {
+      unauthenticated.setDesiredInstances("container", 0);
+      fail("Expected the master protocol to reject a caller without a token");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("token"));
+    } finally {
+      RPC.stopProxy(unauthenticated);
+    }
+    TaskProtocol tasks = RPC.getProxy(TaskProtocol.class, TaskProtocol.versionID, address, conf);
+    try {
+      tasks.nextTask(ContainerId.newInstance(report.getCurrentApplicationAttemptId(), 2).toString(),
+          TaskProtocol.NO_TASK, 0);
+      fail("Expected the task protocol to reject a caller without a token");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("token"));
+    } finally {
+      RPC.stopProxy(tasks);
+    }
+
+    try {
+      assertEquals(1, master.getDesiredInstances("container"));
+      // Stopping the only container lets the application finish.
+      master.setDesiredInstances("container", 0);
+      assertEquals(0, master.getDesiredInstances("container"));
+    } finally {
+      RPC.stopProxy(master);
+    }
+    service.awaitCompletion();
+    assertEquals(FinalApplicationStatus.SUCCEEDED,
+        service.getFinalReport().getFinalApplicationStatus());
+  }
 }
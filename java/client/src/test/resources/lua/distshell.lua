@@ -1,6 +1,7 @@
 
 SHELL_COMMAND = "ls -ltr >>"
 CONTAINER_INSTANCES = 2
+TASKS = 20
 
 base_env = {
   -- PWD is specified by the test case.
@@ -8,14 +9,11 @@ base_env = {
   
 }
 
-distshell = yarn {
-  name = "Distributed Shell",
-  timeout = 60000,
-  memory = 256,
-  cores = 1,
-
-  master = {
+-- A function, so that each application gets its own copy of the table.
+master_config = function()
+  return {
     env = base_env,
+    fast_heartbeat = 100,
     command = {
       base = "java -Xmx128m com.cloudera.kitten.appmaster.ApplicationMaster",
       args = { "-conf job.xml", "1> <LOG_DIR>/stdout 2> <LOG_DIR>/stderr" }, -- job.xml contains the client configuration info.
@@ -23,7 +21,16 @@ distshell = yarn {
     resources = {
       ["log4j.properties"] = {file = PWD .. "/src/test/resources/log4j.properties"}
     }
-  },
+  }
+end
+
+distshell = yarn {
+  name = "Distributed Shell",
+  timeout = 60000,
+  memory = 256,
+  cores = 1,
+
+  master = master_config,
 
   container = {
     instances = CONTAINER_INSTANCES,
@@ -31,3 +38,86 @@ distshell = yarn {
     command = SHELL_COMMAND .. TEST_FILE -- specified externally by the test case.
   }
 }
+
+-- The same shell, but with many short tasks that are run by two long-lived containers.
+local remaining = TASKS
+taskshell = yarn {
+  name = "Task Shell",
+  timeout = 60000,
+  memory = 256,
+  cores = 1,
+
+  master = master_config,
+
+  container = {
+    instances = CONTAINER_INSTANCES,
+    env = base_env,
+    tasks = function()
+      if remaining > 0 then
+        remaining = remaining - 1
+        return "echo task ${KITTEN_TASK_ID} >> " .. TEST_FILE
+      end
+    end,
+    -- Add a third container once the first two are running.
+    autoscale = function(status)
+      if status.running >= 2 and status.instances < 3 then
+        return 3
+      end
+    end
+  }
+}
+
+-- A container that runs until the test stops it by shrinking its group.
+sleepshell = yarn {
+  name = "Sleep Shell",
+  timeout = 60000,
+  memory = 256,
+  cores = 1,
+
+  master = master_config,
+
+  container = {
+    env = base_env,
+    command = "sleep 600"
+  }
+}
+
+-- Containers that are only started once both of them have been allocated.
+gangshell = yarn {
+  name = "Gang Shell",
+  timeout = 60000,
+  memory = 256,
+  cores = 1,
+
+  master = master_config,
+
+  container = {
+    instances = CONTAINER_INSTANCES,
+    gang = true,
+    env = base_env,
+    command = "echo instance ${instance} >> " .. TEST_FILE
+  }
+}
+
+-- Like taskshell, but the task generator fails after handing out a few tasks.
+local handed_out = 0
+brokentaskshell = yarn {
+  name = "Broken Task Shell",
+  timeout = 60000,
+  memory = 256,
+  cores = 1,
+
+  master = master_config,
+
+  container = {
+    instances = CONTAINER_INSTANCES,
+    env = base_env,
+    tasks = function()
+      handed_out = handed_out + 1
+      if handed_out > 3 then
+        error("out of tasks")
+      end
+      return "echo task ${KITTEN_TASK_ID} >> " .. TEST_FILE
+    end
+  }
+}
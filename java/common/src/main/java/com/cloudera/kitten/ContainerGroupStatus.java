@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten;
+
+/**
+ * A snapshot of the state of a container group, for a {@link ScalingPolicy}.
+ */
+public class ContainerGroupStatus {
+
+  private final String group;
+  private final int desired;
+  private final int running;
+  private final int pending;
+  private final int completed;
+  private final int failed;
+  private final int queuedTasks;
+
+  public ContainerGroupStatus(String group, int desired, int running, int pending,
+      int completed, int failed, int queuedTasks) {
+    this.group = group;
+    this.desired = desired;
+    this.running = running;
+    this.pending = pending;
+    this.completed = completed;
+    this.failed = failed;
+    this.queuedTasks = queuedTasks;
+  }
+
+  public String getGroup() {
+    return group;
+  }
+
+  /** The number of containers that the group is meant to have. */
+  public int getDesired() {
+    return desired;
+  }
+
+  /** The number of containers that have been launched and have not completed. */
+  public int getRunning() {
+    return running;
+  }
+
+  /** The number of containers that have been requested but not allocated. */
+  public int getPending() {
+    return pending;
+  }
+
+  public int getCompleted() {
+    return completed;
+  }
+
+  public int getFailed() {
+    return failed;
+  }
+
+  /**
+   * The number of tasks that have not been handed out yet, for a group in task-queue mode.
+   * Returns -1 if the group has no tasks or their number is not known.
+   */
+  public int getQueuedTasks() {
+    return queuedTasks;
+  }
+}
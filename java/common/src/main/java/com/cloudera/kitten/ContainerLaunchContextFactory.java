@@ -46,6 +46,13 @@ public class ContainerLaunchContextFactory {
     return clc;
   }
   
+  /**
+   * Returns a launch context that is built once and shared by many containers.
+   */
+  public FrozenLaunchContext createFrozen(ContainerLaunchParameters parameters) {
+    return new FrozenLaunchContext(create(parameters));
+  }
+  
   public Resource createResource(ContainerLaunchParameters parameters) {
     return parameters.getContainerResource(clusterMax);
   }
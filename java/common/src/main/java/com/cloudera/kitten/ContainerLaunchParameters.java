@@ -20,6 +20,8 @@ import java.util.Map;
 import org.apache.hadoop.yarn.api.records.LocalResource;
 import org.apache.hadoop.yarn.api.records.Resource;
 
+import com.cloudera.kitten.task.TaskSource;
+
 /**
  * The parameters that are common to launching both application masters and node tasks via
  * a {@code ContainerLaunchContext} instance.
@@ -30,6 +32,12 @@ public interface ContainerLaunchParameters {
    */
   Resource getContainerResource(Resource clusterMax);
   
+  /**
+   * The name of this group of containers, which is passed to each of them in the
+   * environment. Returns null if the group has no name.
+   */
+  String getGroup();
+
   /**
    * The requested priority for the container.
    */
@@ -39,6 +47,30 @@ public interface ContainerLaunchParameters {
    * The number of instances of this container to launch.
    */
   int getNumInstances();
+
+  /**
+   * The number of times a container of this type that is preempted or otherwise aborted by
+   * the framework will be re-requested before it is counted as a failure.
+   */
+  int getRetries();
+
+  /**
+   * A glob of HDFS paths that the containers will read from, used to request containers on
+   * the nodes that hold the most data. Returns null if there is no locality preference.
+   */
+  String getLocalityGlob();
+
+  /**
+   * Whether the containers of this group are started together, once all of them have been
+   * allocated, rather than each one as soon as it is allocated.
+   */
+  boolean isGang();
+
+  /**
+   * How long a gang-scheduled group holds the containers it has been allocated while it
+   * waits for the rest, before it gives them back and requests them again.
+   */
+  long getGangTimeoutMillis();
   
   /**
    * The local resources for the application in the container.
@@ -54,4 +86,16 @@ public interface ContainerLaunchParameters {
    * The commands to execute that start the application within the container.
    */
   List<String> getCommands();
+
+  /**
+   * The tasks for the containers to pull from the application master and run one after
+   * another, or null if each container just runs its commands once.
+   */
+  TaskSource getTaskSource();
+
+  /**
+   * The policy that resizes this group of containers while the application runs, or null if
+   * it is only resized on request.
+   */
+  ScalingPolicy getScalingPolicy();
 }
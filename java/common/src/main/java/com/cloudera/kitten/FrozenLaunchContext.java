@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.yarn.api.records.ContainerLaunchContext;
+import org.apache.hadoop.yarn.api.records.impl.pb.ContainerLaunchContextPBImpl;
+import org.apache.hadoop.yarn.proto.YarnProtos.ContainerLaunchContextProto;
+import org.apache.hadoop.yarn.proto.YarnProtos.StringStringMapProto;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+/**
+ * A {@code ContainerLaunchContext} that is converted to its protocol buffer form once and
+ * then shared by every container in a group.
+ *
+ * <p>Each call to {@link #create()} wraps the same immutable message, so the tokens,
+ * environment, commands, and local resources are not converted again for each container,
+ * and the records it returns can be handed to different threads. Per-container changes are
+ * appended to a copy of the message, which shares everything else with the original.
+ *
+ * <p>{@link #create(String, int, int)} tells each container which instance of its group it
+ * is, both in the environment and by expanding {@code ${instance}}, {@code ${instances}},
+ * and {@code ${group}} in the commands and in the values of the environment variables.
+ * Other {@code ${...}} references are left for the shell.
+ */
+public class FrozenLaunchContext {
+
+  // The environment variables that identify each instance of a container group.
+  public static final String INSTANCE_INDEX = "KITTEN_INSTANCE_INDEX";
+  public static final String NUM_INSTANCES = "KITTEN_NUM_INSTANCES";
+  public static final String CONTAINER_GROUP = "KITTEN_CONTAINER_GROUP";
+
+  // The template variables for the same values.
+  public static final String INSTANCE_VAR = "instance";
+  public static final String NUM_INSTANCES_VAR = "instances";
+  public static final String GROUP_VAR = "group";
+
+  private final ContainerLaunchContextProto proto;
+  // Whether any of the commands or environment values refer to a variable.
+  private final boolean templated;
+
+  public FrozenLaunchContext(ContainerLaunchContext clc) {
+    this.proto = ((ContainerLaunchContextPBImpl) clc).getProto();
+    boolean templated = false;
+    for (String cmd : proto.getCommandList()) {
+      templated |= cmd.contains("${");
+    }
+    for (StringStringMapProto e : proto.getEnvironmentList()) {
+      templated |= e.getValue().contains("${");
+    }
+    this.templated = templated;
+  }
+
+  /**
+   * Returns a new launch context with the frozen values.
+   */
+  public ContainerLaunchContext create() {
+    return new ContainerLaunchContextPBImpl(proto);
+  }
+
+  /**
+   * Returns a new launch context with the frozen values and the given environment variables,
+   * which replace any frozen variables that have the same names.
+   */
+  public ContainerLaunchContext create(Map<String, String> env) {
+    if (env.isEmpty()) {
+      return create();
+    }
+    // Later entries win when the NodeManager turns the list into a map.
+    ContainerLaunchContextProto.Builder b = proto.toBuilder();
+    for (Map.Entry<String, String> e : env.entrySet()) {
+      b.addEnvironment(StringStringMapProto.newBuilder()
+          .setKey(e.getKey())
+          .setValue(e.getValue()));
+    }
+    return new ContainerLaunchContextPBImpl(b.build());
+  }
+
+  /**
+   * Returns a frozen copy of this context with the given environment variables added.
+   */
+  public FrozenLaunchContext withEnvironment(Map<String, String> env) {
+    return new FrozenLaunchContext(create(env));
+  }
+
+  /**
+   * Returns a new launch context for the given instance of a container group.
+   */
+  public ContainerLaunchContext create(String group, int index, int numInstances) {
+    Map<String, String> vars = ImmutableMap.of(
+        INSTANCE_VAR, String.valueOf(index),
+        NUM_INSTANCES_VAR, String.valueOf(numInstances),
+        GROUP_VAR, group);
+    ContainerLaunchContextProto.Builder b = proto.toBuilder();
+    if (templated) {
+      List<String> cmds = Lists.newArrayListWithCapacity(proto.getCommandCount());
+      for (String cmd : proto.getCommandList()) {
+        cmds.add(expand(cmd, vars));
+      }
+      b.clearCommand().addAllCommand(cmds);
+      for (StringStringMapProto e : proto.getEnvironmentList()) {
+        String value = expand(e.getValue(), vars);
+        if (value != e.getValue()) {
+          b.addEnvironment(StringStringMapProto.newBuilder()
+              .setKey(e.getKey())
+              .setValue(value));
+        }
+      }
+    }
+    b.addEnvironment(StringStringMapProto.newBuilder()
+        .setKey(INSTANCE_INDEX)
+        .setValue(vars.get(INSTANCE_VAR)));
+    b.addEnvironment(StringStringMapProto.newBuilder()
+        .setKey(NUM_INSTANCES)
+        .setValue(vars.get(NUM_INSTANCES_VAR)));
+    b.addEnvironment(StringStringMapProto.newBuilder()
+        .setKey(CONTAINER_GROUP)
+        .setValue(group));
+    return new ContainerLaunchContextPBImpl(b.build());
+  }
+
+  /**
+   * Replaces each {@code ${name}} in the given string that names one of the given variables
+   * with its value. Returns the same string if there are none.
+   */
+  static String expand(String s, Map<String, String> vars) {
+    int start = s.indexOf("${");
+    if (start < 0) {
+      return s;
+    }
+    StringBuilder sb = null;
+    int done = 0;
+    while (start >= 0) {
+      int end = s.indexOf('}', start + 2);
+      if (end < 0) {
+        break;
+      }
+      String value = vars.get(s.substring(start + 2, end));
+      if (value != null) {
+        if (sb == null) {
+          sb = new StringBuilder(s.length() + 16);
+        }
+        sb.append(s, done, start).append(value);
+        done = end + 1;
+      }
+      start = s.indexOf("${", end + 1);
+    }
+    if (sb == null) {
+      return s;
+    }
+    return sb.append(s, done, s.length()).toString();
+  }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.yarn.api.records.LocalResource;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.api.records.impl.pb.LocalResourcePBImpl;
+import org.apache.hadoop.yarn.proto.YarnProtos.LocalResourceProto;
+
+import com.cloudera.kitten.task.TaskSource;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * A copy of a {@code ContainerLaunchParameters} that is evaluated once, when it is created,
+ * and never changes afterwards, so that it can be shared between threads without locking.
+ *
+ * <p>YARN records are mutable and not thread-safe, so the local resources are held as their
+ * protocol buffer messages, which are immutable, and every call to
+ * {@link #getLocalResources()} or {@link #getContainerResource(Resource)} returns new records.
+ */
+public class ImmutableContainerLaunchParameters implements ContainerLaunchParameters {
+
+  // Large enough that copying a resource request does not clamp it.
+  private static final Resource UNBOUNDED = Resource.newInstance(
+      Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+  private final int memory;
+  private final int cores;
+  private final String group;
+  private final int priority;
+  private final int numInstances;
+  private final int retries;
+  private final String localityGlob;
+  private final boolean gang;
+  private final long gangTimeoutMillis;
+  private final ImmutableMap<String, LocalResourceProto> localResources;
+  private final ImmutableMap<String, String> environment;
+  private final ImmutableList<String> commands;
+  // Not a copy, since tasks may be generated as they are needed.
+  private final TaskSource taskSource;
+  private final ScalingPolicy scalingPolicy;
+
+  /**
+   * Returns an immutable copy of the given parameters. Each of their methods is called
+   * exactly once.
+   */
+  public static ImmutableContainerLaunchParameters copyOf(ContainerLaunchParameters params) {
+    if (params instanceof ImmutableContainerLaunchParameters) {
+      return (ImmutableContainerLaunchParameters) params;
+    }
+    return new ImmutableContainerLaunchParameters(params);
+  }
+
+  private ImmutableContainerLaunchParameters(ContainerLaunchParameters params) {
+    Resource rsrc = params.getContainerResource(UNBOUNDED);
+    this.memory = rsrc.getMemory();
+    this.cores = rsrc.getVirtualCores();
+    this.group = params.getGroup();
+    this.priority = params.getPriority();
+    this.numInstances = params.getNumInstances();
+    this.retries = params.getRetries();
+    this.localityGlob = params.getLocalityGlob();
+    this.gang = params.isGang();
+    this.gangTimeoutMillis = params.getGangTimeoutMillis();
+    ImmutableMap.Builder<String, LocalResourceProto> lr = ImmutableMap.builder();
+    for (Map.Entry<String, LocalResource> e : params.getLocalResources().entrySet()) {
+      lr.put(e.getKey(), ((LocalResourcePBImpl) e.getValue()).getProto());
+    }
+    this.localResources = lr.build();
+    this.environment = ImmutableMap.copyOf(params.getEnvironment());
+    this.commands = ImmutableList.copyOf(params.getCommands());
+    this.taskSource = params.getTaskSource();
+    this.scalingPolicy = params.getScalingPolicy();
+  }
+
+  @Override
+  public Resource getContainerResource(Resource clusterMax) {
+    return Resource.newInstance(Math.min(clusterMax.getMemory(), memory),
+        Math.min(clusterMax.getVirtualCores(), cores));
+  }
+
+  @Override
+  public String getGroup() {
+    return group;
+  }
+
+  @Override
+  public int getPriority() {
+    return priority;
+  }
+
+  @Override
+  public int getNumInstances() {
+    return numInstances;
+  }
+
+  @Override
+  public int getRetries() {
+    return retries;
+  }
+
+  @Override
+  public String getLocalityGlob() {
+    return localityGlob;
+  }
+
+  @Override
+  public boolean isGang() {
+    return gang;
+  }
+
+  @Override
+  public long getGangTimeoutMillis() {
+    return gangTimeoutMillis;
+  }
+
+  @Override
+  public Map<String, LocalResource> getLocalResources() {
+    Map<String, LocalResource> copy = Maps.newHashMapWithExpectedSize(localResources.size());
+    for (Map.Entry<String, LocalResourceProto> e : localResources.entrySet()) {
+      copy.put(e.getKey(), new LocalResourcePBImpl(e.getValue()));
+    }
+    return copy;
+  }
+
+  @Override
+  public Map<String, String> getEnvironment() {
+    return environment;
+  }
+
+  @Override
+  public List<String> getCommands() {
+    return commands;
+  }
+
+  @Override
+  public TaskSource getTaskSource() {
+    return taskSource;
+  }
+
+  @Override
+  public ScalingPolicy getScalingPolicy() {
+    return scalingPolicy;
+  }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten;
+
+import java.io.IOException;
+
+import org.apache.hadoop.ipc.VersionedProtocol;
+import org.apache.hadoop.security.token.TokenInfo;
+import org.apache.hadoop.yarn.security.client.ClientToAMTokenSelector;
+
+/**
+ * The protocol that clients use to talk to a running application master, at the host and
+ * RPC port in its application report. Callers authenticate with a token from
+ * {@link MasterTokens}.
+ */
+@TokenInfo(ClientToAMTokenSelector.class)
+public interface MasterProtocol extends VersionedProtocol {
+
+  long versionID = 1L;
+
+  /**
+   * Returns the number of containers that the given container group is meant to have.
+   */
+  int getDesiredInstances(String group) throws IOException;
+
+  /**
+   * Grows or shrinks the given container group to the given number of containers, by
+   * requesting new ones or by cancelling requests and stopping running ones.
+   */
+  void setDesiredInstances(String group, int instances) throws IOException;
+}
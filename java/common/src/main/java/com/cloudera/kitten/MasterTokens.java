@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten;
+
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.security.SecurityUtil;
+import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.security.client.ClientToAMTokenIdentifier;
+import org.apache.hadoop.yarn.security.client.ClientToAMTokenSecretManager;
+
+/**
+ * Creates the tokens that callers of the application master's RPC server authenticate with.
+ * The client makes up the master's secret key and hands it to the master in its credentials,
+ * under {@link #KEY_ALIAS}, so that both of them can create tokens without asking the RM.
+ */
+public class MasterTokens {
+
+  /** The alias of the master's secret key in its credentials. */
+  public static final Text KEY_ALIAS = new Text("kitten.master.key");
+
+  private static final int KEY_LENGTH = 32;
+
+  public static byte[] newKey() {
+    byte[] key = new byte[KEY_LENGTH];
+    new SecureRandom().nextBytes(key);
+    return key;
+  }
+
+  /**
+   * Returns a token for the given user to call the master at the given address.
+   */
+  public static Token<ClientToAMTokenIdentifier> newToken(byte[] key,
+      ApplicationAttemptId attemptId, String user, InetSocketAddress server) {
+    return newToken(new ClientToAMTokenSecretManager(attemptId, key), attemptId, user, server);
+  }
+
+  public static Token<ClientToAMTokenIdentifier> newToken(
+      ClientToAMTokenSecretManager secretManager, ApplicationAttemptId attemptId, String user,
+      InetSocketAddress server) {
+    Token<ClientToAMTokenIdentifier> token = new Token<ClientToAMTokenIdentifier>(
+        new ClientToAMTokenIdentifier(attemptId, user), secretManager);
+    SecurityUtil.setTokenService(token, server);
+    return token;
+  }
+
+  // Not instantiated.
+  private MasterTokens() {}
+}
@@ -0,0 +1,26 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten;
+
+/**
+ * Decides how many containers a container group should have while the application runs.
+ */
+public interface ScalingPolicy {
+
+  /**
+   * Returns the number of containers that the group should have, given its current state.
+   */
+  int getDesiredInstances(ContainerGroupStatus status);
+}
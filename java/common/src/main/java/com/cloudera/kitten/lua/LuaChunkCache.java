@@ -0,0 +1,321 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.lua;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.UUID;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsAction;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.luaj.vm2.LuaClosure;
+import org.luaj.vm2.LuaFunction;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaThread;
+import org.luaj.vm2.Prototype;
+import org.luaj.vm2.compiler.LuaC;
+import org.luaj.vm2.lib.jse.JsePlatform;
+import org.luaj.vm2.luajc.JavaGen;
+
+import com.cloudera.kitten.util.LocalDataHelper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+/**
+ * A process-wide cache of compiled Lua chunks, so that creating a {@link LuaWrapper} does
+ * not re-parse kitten.lua or an unchanged script. Each environment still gets its own
+ * standard libraries, since their tables and closures (like {@code require} and
+ * {@code package.loaded}) are not safe to share between scripts.
+ *
+ * <p>If {@link #LUAJC} is set, chunks are compiled to JVM bytecode with luaj's LuaJC
+ * instead of being interpreted, and the generated classes are saved in a jar per chunk
+ * under {@link #LUAJC_CACHE_DIR} so that later submissions of the same script can load
+ * them without compiling again. Each user gets their own subdirectory of the cache with
+ * 0700 permissions, and a jar is only loaded if both it and that directory are owned by
+ * the current user and nobody else can write to them; otherwise the script is compiled
+ * in process, since anyone who could replace a jar could run code as this user.
+ */
+public class LuaChunkCache {
+
+  private static final Log LOG = LogFactory.getLog(LuaChunkCache.class);
+
+  /** Whether to compile Lua scripts to JVM bytecode. Defaults to false. */
+  public static final String LUAJC = "kitten.lua.luajc";
+
+  /**
+   * The directory to keep compiled scripts in. Defaults to a luajc directory under
+   * the {@link LocalDataHelper#APP_BASE_DIR}.
+   */
+  public static final String LUAJC_CACHE_DIR = "kitten.lua.luajc.cache.dir";
+
+  private static final String KITTEN_LUA = "/lua/kitten.lua";
+
+  private static final FsPermission PRIVATE_DIR = new FsPermission((short) 0700);
+  private static final FsPermission PRIVATE_FILE = new FsPermission((short) 0600);
+
+  // Compiled scripts, keyed by a hash of their name and contents.
+  private static final Cache<String, Prototype> CHUNKS = CacheBuilder.newBuilder()
+      .maximumSize(256)
+      .build();
+
+  // The generated main class of each script compiled by LuaJC, with the same keys.
+  private static final Cache<String, Class<?>> CLASSES = CacheBuilder.newBuilder()
+      .maximumSize(256)
+      .build();
+
+  private static byte[] kitten;
+
+  /**
+   * Returns a new global environment that contains the standard libraries and the
+   * functions defined in kitten.lua, compiling kitten.lua as the configuration says.
+   */
+  public static synchronized LuaTable newEnvironment(Configuration conf) throws IOException {
+    // Creating the libraries also points luaj's static globals and string metatable at
+    // them, so that is done under the same lock as compiling and running kitten.lua.
+    LuaTable env = JsePlatform.standardGlobals();
+    LuaThread.setGlobals(env);
+    function("kitten.lua", kitten(), env, conf).call();
+    return env;
+  }
+
+  /**
+   * Returns a function that runs the given script, which is either a local file or a
+   * classpath resource, in the given environment, compiling it as the configuration says.
+   */
+  public static LuaFunction load(String script, LuaTable env, Configuration conf)
+      throws IOException {
+    InputStream luaCode = LocalDataHelper.getFileOrResource(script);
+    if (luaCode == null) {
+      throw new FileNotFoundException("Could not find Lua script: " + script);
+    }
+    byte[] code;
+    try {
+      code = ByteStreams.toByteArray(luaCode);
+    } finally {
+      luaCode.close();
+    }
+    return function(script, code, env, conf);
+  }
+
+  /**
+   * Returns the compiled form of the given Lua source, compiling it if it is not cached.
+   */
+  public static Prototype compile(String name, byte[] code) throws IOException {
+    return compile(name, code, key(name, code));
+  }
+
+  private static Prototype compile(String name, byte[] code, String key) throws IOException {
+    Prototype p = CHUNKS.getIfPresent(key);
+    if (p == null) {
+      p = LuaC.compile(new ByteArrayInputStream(code), name);
+      CHUNKS.put(key, p);
+    }
+    return p;
+  }
+
+  private static String key(String name, byte[] code) {
+    return Hashing.sha1().newHasher().putString(name).putBytes(code).hash().toString();
+  }
+
+  private static synchronized LuaFunction function(String name, byte[] code, LuaTable env,
+      Configuration conf) throws IOException {
+    String key = key(name, code);
+    if (conf.getBoolean(LUAJC, false)) {
+      try {
+        LuaFunction f = (LuaFunction) compileToClass(name, code, key, conf).newInstance();
+        f.setfenv(env);
+        return f;
+      } catch (Exception e) {
+        LOG.warn("Could not compile " + name + " to bytecode, interpreting it instead", e);
+      } catch (LinkageError e) {
+        LOG.warn("Could not compile " + name + " to bytecode, interpreting it instead", e);
+      }
+    }
+    return new LuaClosure(compile(name, code, key), env);
+  }
+
+  private static Class<?> compileToClass(String name, byte[] code, String key,
+      Configuration conf) throws IOException, ClassNotFoundException {
+    Class<?> c = CLASSES.getIfPresent(key);
+    if (c == null) {
+      String className = "kitten_" + key;
+      Path dir = getCacheDir(conf);
+      Path jar = dir == null ? null : new Path(dir, key + ".jar");
+      Map<String, byte[]> classes = jar == null ? null : readJar(jar, conf);
+      if (classes == null) {
+        classes = Maps.newHashMap();
+        addClasses(new JavaGen(compile(name, code, key), className, name), classes);
+        if (jar != null) {
+          writeJar(jar, classes, conf);
+        }
+      }
+      c = new ChunkClassLoader(classes).loadClass(className);
+      CLASSES.put(key, c);
+    }
+    return c;
+  }
+
+  private static void addClasses(JavaGen gen, Map<String, byte[]> classes) {
+    classes.put(gen.classname, gen.bytecode);
+    if (gen.inners != null) {
+      for (JavaGen inner : gen.inners) {
+        addClasses(inner, classes);
+      }
+    }
+  }
+
+  // Returns this user's private cache directory, creating it if needed, or null if it
+  // exists but could have been written to by someone else.
+  private static Path getCacheDir(Configuration conf) throws IOException {
+    String base = conf.get(LUAJC_CACHE_DIR);
+    Path root = base != null ? new Path(base) :
+        new Path(LocalDataHelper.getAppBaseDir(FileSystem.get(conf), conf), "luajc");
+    String user = UserGroupInformation.getCurrentUser().getShortUserName();
+    Path dir = new Path(root, user);
+    FileSystem fs = dir.getFileSystem(conf);
+    if (!fs.exists(dir)) {
+      fs.mkdirs(dir, PRIVATE_DIR);
+      fs.setPermission(dir, PRIVATE_DIR);
+    }
+    if (!isPrivate(fs.getFileStatus(dir), user, true)) {
+      LOG.warn("Not using compiled Lua classes in " + dir + ": it must be owned by " + user +
+          " and have permissions " + PRIVATE_DIR);
+      return null;
+    }
+    return dir;
+  }
+
+  // Whether the file is owned by the user, and nobody else may write to it (or, for the
+  // cache directory, access it at all).
+  private static boolean isPrivate(FileStatus stat, String user, boolean strict) {
+    FsPermission perm = stat.getPermission();
+    if (!user.equals(stat.getOwner())) {
+      return false;
+    }
+    if (strict) {
+      return perm.getGroupAction() == FsAction.NONE && perm.getOtherAction() == FsAction.NONE;
+    }
+    return !perm.getGroupAction().implies(FsAction.WRITE) &&
+        !perm.getOtherAction().implies(FsAction.WRITE);
+  }
+
+  private static Map<String, byte[]> readJar(Path jar, Configuration conf) {
+    try {
+      FileSystem fs = jar.getFileSystem(conf);
+      if (!fs.exists(jar)) {
+        return null;
+      }
+      String user = UserGroupInformation.getCurrentUser().getShortUserName();
+      if (!isPrivate(fs.getFileStatus(jar), user, false)) {
+        LOG.warn("Not loading " + jar + ": it must be owned by " + user +
+            " and not writable by anyone else");
+        return null;
+      }
+      Map<String, byte[]> classes = Maps.newHashMap();
+      JarInputStream in = new JarInputStream(fs.open(jar));
+      try {
+        JarEntry entry;
+        while ((entry = in.getNextJarEntry()) != null) {
+          String name = entry.getName();
+          if (name.endsWith(".class")) {
+            classes.put(name.substring(0, name.length() - 6), ByteStreams.toByteArray(in));
+          }
+        }
+      } finally {
+        in.close();
+      }
+      return classes;
+    } catch (IOException e) {
+      LOG.warn("Could not read compiled Lua classes from " + jar, e);
+      return null;
+    }
+  }
+
+  // Writes to a temporary file and renames it, so that a concurrent reader never sees
+  // a partial jar.
+  private static void writeJar(Path jar, Map<String, byte[]> classes, Configuration conf) {
+    Path tmp = new Path(jar.getParent(), "." + jar.getName() + "." + UUID.randomUUID());
+    try {
+      FileSystem fs = jar.getFileSystem(conf);
+      JarOutputStream out = new JarOutputStream(fs.create(tmp, true));
+      fs.setPermission(tmp, PRIVATE_FILE);
+      try {
+        for (Map.Entry<String, byte[]> e : classes.entrySet()) {
+          out.putNextEntry(new JarEntry(e.getKey() + ".class"));
+          out.write(e.getValue());
+          out.closeEntry();
+        }
+      } finally {
+        out.close();
+      }
+      if (!fs.rename(tmp, jar)) {
+        // Another process got there first.
+        fs.delete(tmp, false);
+      }
+    } catch (IOException e) {
+      LOG.warn("Could not save compiled Lua classes to " + jar, e);
+    }
+  }
+
+  private static synchronized byte[] kitten() throws IOException {
+    if (kitten == null) {
+      InputStream is = LuaChunkCache.class.getResourceAsStream(KITTEN_LUA);
+      try {
+        kitten = ByteStreams.toByteArray(is);
+      } finally {
+        is.close();
+      }
+    }
+    return kitten;
+  }
+
+  // Defines the classes generated for a single chunk.
+  private static class ChunkClassLoader extends ClassLoader {
+    private final Map<String, byte[]> classes;
+
+    public ChunkClassLoader(Map<String, byte[]> classes) {
+      super(LuaChunkCache.class.getClassLoader());
+      this.classes = classes;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+      byte[] bytecode = classes.get(name);
+      if (bytecode == null) {
+        throw new ClassNotFoundException(name);
+      }
+      return defineClass(name, bytecode, 0, bytecode.length);
+    }
+  }
+
+  // Not instantiated.
+  private LuaChunkCache() {}
+}
@@ -20,12 +20,12 @@ import java.net.URI;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
-import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.yarn.api.records.LocalResource;
@@ -37,21 +37,39 @@ import org.apache.hadoop.yarn.util.Records;
 import org.luaj.vm2.LuaValue;
 
 import com.cloudera.kitten.ContainerLaunchParameters;
+import com.cloudera.kitten.ScalingPolicy;
+import com.cloudera.kitten.task.TaskSource;
 import com.cloudera.kitten.util.Extras;
+import com.cloudera.kitten.util.LocalDataHelper;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 public class LuaContainerLaunchParameters implements ContainerLaunchParameters {
 
   private static final Log LOG = LogFactory.getLog(LuaContainerLaunchParameters.class);
+
+  /** How long a gang-scheduled group waits for the rest of its containers by default. */
+  public static final long DEFAULT_GANG_TIMEOUT_MILLIS = 5 * 60 * 1000L;
   
   private final LuaWrapper lv;
   private final Configuration conf;
   private final Map<String, URI> localFileUris;
   private final Extras extras;
+  private final Object luaLock;
   
   public LuaContainerLaunchParameters(LuaValue lv, Configuration conf, Map<String, URI> localFileUris) {
-    this(new LuaWrapper(lv.checktable()), conf, localFileUris, new Extras());
+    this(lv, conf, localFileUris, new Object());
+  }
+
+  /**
+   * Creates parameters whose task source and scaling policy serialize their Lua calls on
+   * the given lock, so that callers sharing one Lua environment can pass the same lock.
+   */
+  public LuaContainerLaunchParameters(LuaValue lv, Configuration conf, Map<String, URI> localFileUris,
+      Object luaLock) {
+    this(new LuaWrapper(lv.checktable()), conf, localFileUris, new Extras(), luaLock);
   }
   
   public LuaContainerLaunchParameters(LuaWrapper lv, Configuration conf, Map<String, URI> localFileUris) {
@@ -60,10 +78,16 @@ public class LuaContainerLaunchParameters implements ContainerLaunchParameters {
   
   public LuaContainerLaunchParameters(LuaWrapper lv, Configuration conf,
       Map<String, URI> localFileUris, Extras extras) {
+    this(lv, conf, localFileUris, extras, new Object());
+  }
+
+  private LuaContainerLaunchParameters(LuaWrapper lv, Configuration conf,
+      Map<String, URI> localFileUris, Extras extras, Object luaLock) {
     this.lv = lv;
     this.conf = conf;
     this.localFileUris = localFileUris;
     this.extras = extras;
+    this.luaLock = luaLock;
   }
 
   public int getCores() {
@@ -82,6 +106,11 @@ public class LuaContainerLaunchParameters implements ContainerLaunchParameters {
     return rsrc;
   }
 
+  @Override
+  public String getGroup() {
+    return lv.isNil(LuaFields.GROUP) ? null : lv.getString(LuaFields.GROUP);
+  }
+
   @Override
   public int getPriority() {
     return lv.isNil(LuaFields.PRIORITY) ? 0 : lv.getInteger(LuaFields.PRIORITY);
@@ -91,62 +120,135 @@ public class LuaContainerLaunchParameters implements ContainerLaunchParameters {
   public int getNumInstances() {
     return lv.isNil(LuaFields.INSTANCES) ? 1 : lv.getInteger(LuaFields.INSTANCES);
   }
+
+  @Override
+  public int getRetries() {
+    return lv.isNil(LuaFields.RETRIES) ? getNumInstances() : lv.getInteger(LuaFields.RETRIES);
+  }
+
+  @Override
+  public String getLocalityGlob() {
+    if (lv.isNil(LuaFields.LOCALITY)) {
+      return null;
+    }
+    LuaWrapper locality = lv.getTable(LuaFields.LOCALITY);
+    return locality.isNil(LuaFields.LOCALITY_HDFS_GLOB) ? null :
+        locality.getString(LuaFields.LOCALITY_HDFS_GLOB);
+  }
   
+  @Override
+  public boolean isGang() {
+    return !lv.isNil(LuaFields.GANG) && lv.getBoolean(LuaFields.GANG);
+  }
+
+  @Override
+  public long getGangTimeoutMillis() {
+    return lv.isNil(LuaFields.GANG_TIMEOUT) ? DEFAULT_GANG_TIMEOUT_MILLIS :
+        lv.getInteger(LuaFields.GANG_TIMEOUT);
+  }
+
   @Override
   public Map<String, LocalResource> getLocalResources() {
+    // Resources that refer to a file, which need its size and timestamp.
+    Map<String, Path> paths = Maps.newHashMap();
+    // Staged files that may be shared with other applications if their permissions allow.
+    Set<String> sharable = Sets.newHashSet();
     Map<String, LocalResource> localResources = Maps.newHashMap();  
     if (!lv.isNil(LuaFields.RESOURCES)) {
       LuaWrapper lr = lv.getTable(LuaFields.RESOURCES);
       for (LuaPair lp : lr) {
-        try {
-          NamedLocalResource nlr = constructResource(lp);
-          localResources.put(nlr.name, nlr.resource);
-        } catch (IOException e) {
-          LOG.error("Error constructing local resource: " + lp.key, e);
+        NamedLocalResource nlr = constructResource(lp);
+        localResources.put(nlr.name, nlr.resource);
+        if (nlr.path != null) {
+          paths.put(nlr.name, nlr.path);
+        } else {
+          paths.remove(nlr.name);
+        }
+        if (nlr.sharable) {
+          sharable.add(nlr.name);
+        } else {
+          sharable.remove(nlr.name);
         }
       }
     }
     for (Map.Entry<String, String> elr : extras.getResources().entrySet()) {
-      LocalResource rsrc = constructExtraResource(elr.getValue());
-      if (rsrc != null) {
-        localResources.put(elr.getKey(), rsrc);
+      if (addExtraResource(elr.getKey(), elr.getValue(), localResources, paths)) {
+        sharable.add(elr.getKey());
       }
     }
     
-    // Get a local resource for the configuration object.
-    LocalResource confRsrc = constructExtraResource(LuaFields.KITTEN_JOB_XML_FILE);
-    if (confRsrc != null) {
-      localResources.put(LuaFields.KITTEN_JOB_XML_FILE, confRsrc);
-    }
+    // Get a local resource for the configuration object, which is never shared.
+    addExtraResource(LuaFields.KITTEN_JOB_XML_FILE, LuaFields.KITTEN_JOB_XML_FILE,
+        localResources, paths);
+    sharable.remove(LuaFields.KITTEN_JOB_XML_FILE);
     
+    // Look up all of the files at once.
+    Map<Path, FileStatus> stats;
+    try {
+      stats = LocalDataHelper.getFileStatuses(paths.values(), conf);
+    } catch (IOException e) {
+      LOG.error("Error looking up local resource files", e);
+      stats = ImmutableMap.of();
+    }
+    Map<Path, Boolean> dirs = Maps.newHashMap();
+    for (Map.Entry<String, Path> e : paths.entrySet()) {
+      FileStatus stat = stats.get(e.getValue());
+      if (stat == null) {
+        LOG.error("Error constructing local resource " + e.getKey() + ": " + e.getValue() +
+            " does not exist");
+        localResources.remove(e.getKey());
+      } else {
+        LocalResource rsrc = localResources.get(e.getKey());
+        rsrc.setSize(stat.getLen());
+        rsrc.setTimestamp(stat.getModificationTime());
+        rsrc.setResource(ConverterUtils.getYarnUrlFromPath(e.getValue()));
+        if (sharable.contains(e.getKey()) && isPublic(stat, dirs)) {
+          rsrc.setVisibility(LocalResourceVisibility.PUBLIC);
+        }
+      }
+    }
     return localResources;
   }
 
-  private LocalResource constructExtraResource(String key) {
-    LocalResource rsrc = Records.newRecord(LocalResource.class);
-    rsrc.setType(LocalResourceType.FILE);
-    rsrc.setVisibility(LocalResourceVisibility.APPLICATION);
+  private boolean isPublic(FileStatus stat, Map<Path, Boolean> dirs) {
     try {
-      Path path = new Path(localFileUris.get(key));
-      configureLocalResourceForPath(rsrc, path);
+      return LocalDataHelper.isPublic(stat, conf, dirs);
     } catch (IOException e) {
-      LOG.error("Error constructing extra local resource: " + key, e);
-      return null;
+      LOG.warn("Could not check the permissions of " + stat.getPath(), e);
+      return false;
     }
-    return rsrc;
+  }
+
+  private boolean addExtraResource(String name, String key,
+      Map<String, LocalResource> localResources, Map<String, Path> paths) {
+    URI uri = localFileUris.get(key);
+    if (uri == null) {
+      LOG.error("Error constructing extra local resource: no file for " + key);
+      return false;
+    }
+    LocalResource rsrc = Records.newRecord(LocalResource.class);
+    rsrc.setType(LocalResourceType.FILE);
+    rsrc.setVisibility(LocalResourceVisibility.APPLICATION);
+    localResources.put(name, rsrc);
+    paths.put(name, new Path(uri));
+    return true;
   }
   
   private static class NamedLocalResource {
     public final String name;
     public final LocalResource resource;
+    public final Path path;
+    public final boolean sharable;
     
-    public NamedLocalResource(String name, LocalResource resource) {
+    public NamedLocalResource(String name, LocalResource resource, Path path, boolean sharable) {
       this.name = name;
       this.resource = resource;
+      this.path = path;
+      this.sharable = sharable;
     }
   }
   
-  private NamedLocalResource constructResource(LuaPair lp) throws IOException {
+  private NamedLocalResource constructResource(LuaPair lp) {
     LocalResource rsrc = Records.newRecord(LocalResource.class);
     LuaWrapper value = new LuaWrapper(lp.value.checktable());
     String name = lp.key.isint() ? "" : lp.key.tojstring();
@@ -156,12 +258,15 @@ public class LuaContainerLaunchParameters implements ContainerLaunchParameters {
       rsrc.setType(LocalResourceType.valueOf(
           value.getString(LuaFields.LOCAL_RESOURCE_TYPE).toUpperCase()));
     }
-    if (value.isNil(LuaFields.LOCAL_RESOURCE_VISIBILITY)) {
+    boolean defaultVisibility = value.isNil(LuaFields.LOCAL_RESOURCE_VISIBILITY);
+    if (defaultVisibility) {
       rsrc.setVisibility(LocalResourceVisibility.APPLICATION);
     } else {
       rsrc.setVisibility(LocalResourceVisibility.valueOf(
           value.getString(LuaFields.LOCAL_RESOURCE_VISIBILITY).toUpperCase()));
     }
+    Path path = null;
+    boolean staged = false;
     if (!value.isNil(LuaFields.LOCAL_RESOURCE_URL)) {
       URI uri = URI.create(value.getString(LuaFields.LOCAL_RESOURCE_URL));
       rsrc.setResource(ConverterUtils.getYarnUrlFromURI(uri));
@@ -169,15 +274,14 @@ public class LuaContainerLaunchParameters implements ContainerLaunchParameters {
         name = (new File(uri.getPath())).getName();
       }
     } else if (!value.isNil(LuaFields.LOCAL_RESOURCE_HDFS_FILE)) {
-      Path path = new Path(value.getString(LuaFields.LOCAL_RESOURCE_HDFS_FILE));
-      configureLocalResourceForPath(rsrc, path);
+      path = new Path(value.getString(LuaFields.LOCAL_RESOURCE_HDFS_FILE));
       if (name.isEmpty()) {
         name = path.getName();
       }
     } else if (!value.isNil(LuaFields.LOCAL_RESOURCE_LOCAL_FILE)) {
       String src = value.getString(LuaFields.LOCAL_RESOURCE_LOCAL_FILE);
-      Path path = new Path(localFileUris.get(src));
-      configureLocalResourceForPath(rsrc, path);
+      path = new Path(localFileUris.get(src));
+      staged = true;
       if (name.isEmpty()) {
         name = new Path(src).getName();
       }
@@ -185,15 +289,7 @@ public class LuaContainerLaunchParameters implements ContainerLaunchParameters {
       throw new IllegalArgumentException(
           "Invalid resource: no 'url', 'hdfs', or 'file' fields specified.");
     }
-    return new NamedLocalResource(name, rsrc);
-  }
-  
-  private void configureLocalResourceForPath(LocalResource rsrc, Path path) throws IOException {
-    FileSystem fs = FileSystem.get(conf);
-    FileStatus stat = fs.getFileStatus(path);
-    rsrc.setSize(stat.getLen());
-    rsrc.setTimestamp(stat.getModificationTime());
-    rsrc.setResource(ConverterUtils.getYarnUrlFromPath(path));
+    return new NamedLocalResource(name, rsrc, path, staged && defaultVisibility);
   }
   
   @Override
@@ -231,6 +327,17 @@ public class LuaContainerLaunchParameters implements ContainerLaunchParameters {
     return cmds;
   }
   
+  @Override
+  public TaskSource getTaskSource() {
+    return lv.isNil(LuaFields.TASKS) ? null : new LuaTaskSource(lv.getValue(LuaFields.TASKS), luaLock);
+  }
+
+  @Override
+  public ScalingPolicy getScalingPolicy() {
+    return lv.isNil(LuaFields.AUTOSCALE) ? null :
+        new LuaScalingPolicy(lv.getValue(LuaFields.AUTOSCALE), luaLock);
+  }
+
   public String toCommand(LuaWrapper table) {
     StringBuilder sb = new StringBuilder(table.getString(LuaFields.COMMAND_BASE));
     if (!table.isNil(LuaFields.ARGS)) {
@@ -37,6 +37,16 @@ public class LuaFields {
   public static final String CORES = "cores";
   public static final String MEMORY = "memory";
   public static final String PRIORITY = "priority";
+  public static final String RETRIES = "retries";
+  public static final String GROUP = "group";
+  public static final String TASKS = "tasks";
+  public static final String AUTOSCALE = "autoscale";
+  public static final String GANG = "gang";
+  public static final String GANG_TIMEOUT = "gang_timeout";
+
+  // Fields related to the placement of containers near their input data.
+  public static final String LOCALITY = "locality";
+  public static final String LOCALITY_HDFS_GLOB = "hdfs_glob";
 
   // For constructing commands from a LuaTable.
   public static final String COMMAND_BASE = "base";
@@ -52,6 +62,8 @@ public class LuaFields {
   
   // Specific to the 'master' table, i.e., application master parameters.
   public static final String TOLERATED_FAILURES = "tolerated_failures";
+  public static final String HEARTBEAT = "heartbeat";
+  public static final String FAST_HEARTBEAT = "fast_heartbeat";
   
   // Fields that are internal to the framework.
   public static final String KITTEN_JOB_NAME = "KITTEN_JOB_NAME";
@@ -59,6 +71,10 @@ public class LuaFields {
   public static final String KITTEN_LOCAL_FILE_TO_URI = "KITTEN_LOCAL_FILE_TO_URI";
   public static final String KITTEN_EXTRA_LUA_VALUES = "KITTEN_EXTRA_LUA_VALUES";
   
+  // The files that hold the values of the above when they are too large for the environment.
+  public static final String KITTEN_LOCAL_FILE_TO_URI_FILE = "kitten_local_files.bin";
+  public static final String KITTEN_EXTRA_LUA_VALUES_FILE = "kitten_extra_lua_values.bin";
+  
   // The file that contains the XMLed Configuration object for each container.
   public static final String KITTEN_JOB_XML_FILE = "job.xml";
   
@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.lua;
+
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+
+import com.cloudera.kitten.ContainerGroupStatus;
+import com.cloudera.kitten.ScalingPolicy;
+
+/**
+ * A {@code ScalingPolicy} from the 'autoscale' function of a container group's Lua table.
+ * The function is given a table with the fields of a {@link ContainerGroupStatus} and
+ * returns the number of containers that the group should have, or nil to leave it as is.
+ * The function is called while holding the given lock, as for {@link LuaTaskSource}.
+ */
+public class LuaScalingPolicy implements ScalingPolicy {
+
+  private final LuaValue fn;
+  private final Object lock;
+
+  public LuaScalingPolicy(LuaValue fn) {
+    this(fn, new Object());
+  }
+
+  public LuaScalingPolicy(LuaValue fn, Object lock) {
+    this.fn = fn.checkfunction();
+    this.lock = lock;
+  }
+
+  @Override
+  public int getDesiredInstances(ContainerGroupStatus status) {
+    LuaTable t = new LuaTable();
+    t.set("group", status.getGroup());
+    t.set("instances", status.getDesired());
+    t.set("running", status.getRunning());
+    t.set("pending", status.getPending());
+    t.set("completed", status.getCompleted());
+    t.set("failed", status.getFailed());
+    if (status.getQueuedTasks() >= 0) {
+      t.set("queued", status.getQueuedTasks());
+    }
+    LuaValue desired;
+    synchronized (lock) {
+      desired = fn.call(t);
+    }
+    return desired.isnil() ? status.getDesired() : Math.max(0, desired.checkint());
+  }
+}
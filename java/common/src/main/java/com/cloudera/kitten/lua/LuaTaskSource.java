@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.lua;
+
+import java.util.Map;
+
+import org.luaj.vm2.LuaValue;
+
+import com.cloudera.kitten.task.Task;
+import com.cloudera.kitten.task.TaskSource;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * The tasks of a container group, from the 'tasks' field of its Lua table. The field is
+ * either a list or a function that returns the next task each time it is called and nil when
+ * there are no more. Each task is a command string or a table with a 'command' string and an
+ * optional 'env' table. Lua calls are made while holding the given lock, which should be
+ * shared by everything that calls into the same Lua environment.
+ */
+public class LuaTaskSource implements TaskSource {
+
+  private final LuaValue tasks;
+  private final Object lock;
+  private int nextId = 0;
+  private boolean done = false;
+
+  public LuaTaskSource(LuaValue tasks) {
+    this(tasks, new Object());
+  }
+
+  public LuaTaskSource(LuaValue tasks, Object lock) {
+    if (!tasks.istable() && !tasks.isfunction()) {
+      throw new IllegalArgumentException("The tasks must be a table or a function, not " +
+          tasks.typename());
+    }
+    this.tasks = tasks;
+    this.lock = lock;
+  }
+
+  @Override
+  public Task next() {
+    synchronized (lock) {
+      if (done) {
+        return null;
+      }
+      // Lua arrays start at 1.
+      LuaValue value = tasks.isfunction() ? tasks.call() : tasks.get(nextId + 1);
+      if (value.isnil()) {
+        done = true;
+        return null;
+      }
+      return toTask(nextId++, value);
+    }
+  }
+
+  @Override
+  public int remaining() {
+    synchronized (lock) {
+      if (done) {
+        return 0;
+      }
+      return tasks.istable() ? Math.max(0, tasks.length() - nextId) : -1;
+    }
+  }
+
+  private static Task toTask(int id, LuaValue value) {
+    if (value.isstring()) {
+      return new Task(id, value.tojstring(), ImmutableMap.<String, String>of());
+    } else if (value.istable()) {
+      LuaWrapper table = new LuaWrapper(value.checktable());
+      Map<String, String> env = table.isNil(LuaFields.ENV) ? ImmutableMap.<String, String>of() :
+          table.getTable(LuaFields.ENV).asMap();
+      return new Task(id, table.getString(LuaFields.COMMAND), env);
+    }
+    throw new IllegalArgumentException("Invalid task " + id + ": " + value.typename());
+  }
+}
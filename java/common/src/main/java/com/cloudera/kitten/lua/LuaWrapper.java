@@ -15,21 +15,18 @@
 package com.cloudera.kitten.lua;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.luaj.vm2.LoadState;
+import org.apache.hadoop.conf.Configuration;
 import org.luaj.vm2.LuaTable;
 import org.luaj.vm2.LuaValue;
 import org.luaj.vm2.Varargs;
 import org.luaj.vm2.lib.jse.CoerceJavaToLua;
-import org.luaj.vm2.lib.jse.JsePlatform;
 
-import com.cloudera.kitten.util.LocalDataHelper;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableMap;
@@ -51,14 +48,20 @@ public class LuaWrapper implements Iterable<LuaPair> {
   }
   
   public LuaWrapper(String script, Map<String, Object> extras) {
+    this(script, extras, new Configuration(false));
+  }
+  
+  /**
+   * Runs the given script, using the settings in the {@code Configuration} to decide
+   * how to compile it (see {@link LuaChunkCache#LUAJC}).
+   */
+  public LuaWrapper(String script, Map<String, Object> extras, Configuration conf) {
     try {
-      this.env = JsePlatform.standardGlobals();
-      LoadState.load(getClass().getResourceAsStream("/lua/kitten.lua"), "kitten.lua", env).call();
+      this.env = LuaChunkCache.newEnvironment(conf);
       for (Map.Entry<String, Object> e : extras.entrySet()) {
         env.set(e.getKey(), CoerceJavaToLua.coerce(e.getValue()));
       }
-      InputStream luaCode = LocalDataHelper.getFileOrResource(script);
-      LoadState.load(luaCode, script, env).call();
+      LuaChunkCache.load(script, env, conf).call();
     } catch (IOException e) {
       LOG.error("Lua initialization error", e);
       throw new RuntimeException(e);
@@ -77,6 +80,10 @@ public class LuaWrapper implements Iterable<LuaPair> {
     return env.get(name).istable();
   }
   
+  public LuaValue getValue(String name) {
+    return env.get(name);
+  }
+  
   public LuaWrapper getTable(String name) {
     return new LuaWrapper(env.get(name).checktable());
   }
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.task;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * A single unit of work that the application master hands to a {@link TaskAgent}: a shell
+ * command and the extra environment variables to run it with.
+ */
+public class Task implements Writable {
+
+  private int id;
+  private String command;
+  private Map<String, String> env;
+
+  // For deserialization.
+  public Task() {
+    this(-1, "", ImmutableMap.<String, String>of());
+  }
+
+  public Task(int id, String command, Map<String, String> env) {
+    this.id = id;
+    this.command = command;
+    this.env = env;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public String getCommand() {
+    return command;
+  }
+
+  public Map<String, String> getEnvironment() {
+    return env;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, id);
+    Text.writeString(out, command);
+    WritableUtils.writeVInt(out, env.size());
+    for (Map.Entry<String, String> e : env.entrySet()) {
+      Text.writeString(out, e.getKey());
+      Text.writeString(out, e.getValue());
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    id = WritableUtils.readVInt(in);
+    command = Text.readString(in);
+    int size = WritableUtils.readVInt(in);
+    env = Maps.newHashMapWithExpectedSize(size);
+    for (int i = 0; i < size; i++) {
+      String key = Text.readString(in);
+      env.put(key, Text.readString(in));
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Task " + id + ": " + command;
+  }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.task;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.yarn.api.ApplicationConstants;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * The process that runs in each container of a group in task-queue mode. It asks the
+ * application master for a task, runs it, reports how it went along with the request for
+ * the next one, and exits once the master has no more tasks for it, so that a container
+ * and its JVM are reused for as many short tasks as it can get.
+ */
+public class TaskAgent {
+
+  private static final Log LOG = LogFactory.getLog(TaskAgent.class);
+
+  /** The environment variable that holds the host:port of the master's task server. */
+  public static final String TASK_SERVER = "KITTEN_TASK_SERVER";
+
+  /** The environment variable that holds the id of the task that a command is running. */
+  public static final String TASK_ID = "KITTEN_TASK_ID";
+
+  private final TaskProtocol master;
+  private final String containerId;
+
+  public TaskAgent(TaskProtocol master, String containerId) {
+    this.master = master;
+    this.containerId = containerId;
+  }
+
+  /**
+   * Runs tasks until there are none left, and returns how many of them failed.
+   */
+  public int run() throws IOException, InterruptedException {
+    int lastTaskId = TaskProtocol.NO_TASK;
+    int lastExitStatus = 0;
+    int ran = 0, failed = 0;
+    Task task;
+    while ((task = master.nextTask(containerId, lastTaskId, lastExitStatus)) != null) {
+      lastExitStatus = runTask(task);
+      lastTaskId = task.getId();
+      ran++;
+      if (lastExitStatus != 0) {
+        LOG.warn(task + " exited with status " + lastExitStatus);
+        failed++;
+      }
+    }
+    LOG.info("Ran " + ran + " task(s), " + failed + " failed");
+    return failed;
+  }
+
+  private static int runTask(Task task) throws InterruptedException {
+    ProcessBuilder pb = new ProcessBuilder("bash", "-c", task.getCommand());
+    pb.environment().putAll(task.getEnvironment());
+    pb.environment().put(TASK_ID, String.valueOf(task.getId()));
+    Process p;
+    try {
+      p = pb.start();
+    } catch (IOException e) {
+      LOG.error("Could not start " + task, e);
+      return -1;
+    }
+    Thread out = pump(p.getInputStream(), System.out);
+    Thread err = pump(p.getErrorStream(), System.err);
+    try {
+      p.getOutputStream().close();
+    } catch (IOException e) {
+      // The task does not read its input.
+    }
+    int status = p.waitFor();
+    out.join();
+    err.join();
+    return status;
+  }
+
+  private static Thread pump(final InputStream in, final OutputStream out) {
+    Thread t = new Thread() {
+      @Override
+      public void run() {
+        try {
+          ByteStreams.copy(in, out);
+        } catch (IOException e) {
+          LOG.warn("Error copying task output", e);
+        }
+      }
+    };
+    t.setDaemon(true);
+    t.start();
+    return t;
+  }
+
+  public static void main(String[] args) throws Exception {
+    InetSocketAddress addr = NetUtils.createSocketAddr(System.getenv(TASK_SERVER));
+    String containerId = System.getenv(ApplicationConstants.Environment.CONTAINER_ID.name());
+    Configuration conf = new Configuration();
+    TaskProtocol master = RPC.getProxy(TaskProtocol.class, TaskProtocol.versionID, addr, conf);
+    try {
+      new TaskAgent(master, containerId).run();
+    } finally {
+      RPC.stopProxy(master);
+    }
+    // Failed tasks are reported to the master, which decides whether the job has failed.
+    System.exit(0);
+  }
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.task;
+
+import java.io.IOException;
+
+import org.apache.hadoop.ipc.VersionedProtocol;
+import org.apache.hadoop.security.token.TokenInfo;
+import org.apache.hadoop.yarn.security.client.ClientToAMTokenSelector;
+
+/**
+ * The protocol that a {@link TaskAgent} uses to pull tasks from the application master.
+ * Agents authenticate with the token for the master that is in their container's credentials.
+ */
+@TokenInfo(ClientToAMTokenSelector.class)
+public interface TaskProtocol extends VersionedProtocol {
+
+  long versionID = 1L;
+
+  /** The task id to report when the agent has not run a task yet. */
+  int NO_TASK = -1;
+
+  /**
+   * Reports the exit status of the last task that the given container ran, if any, and
+   * returns the next task for it to run, or null if there are none left and the agent
+   * should exit.
+   */
+  Task nextTask(String containerId, int lastTaskId, int lastExitStatus) throws IOException;
+}
@@ -0,0 +1,31 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.task;
+
+/**
+ * The tasks for a container group that runs in task-queue mode.
+ */
+public interface TaskSource {
+  /**
+   * Returns the next task, or null if there are no more. May be called from several threads.
+   */
+  Task next();
+
+  /**
+   * Returns the number of tasks that {@link #next()} has yet to return, or -1 if that is not
+   * known in advance.
+   */
+  int remaining();
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+/**
+ * Encodes the maps that the client hands to the application master through its
+ * environment, in place of Java serialization.
+ *
+ * <p>The encoding is a magic byte, a version byte, and a count of entries, followed by the
+ * entries as vint-prefixed UTF-8 strings and tagged values. The directory parts of URIs,
+ * which most staged files share, are written once in a dictionary at the front.
+ *
+ * <p>In the environment, the encoding is Base64, unless it would be larger than the given
+ * limit, in which case the bytes are written to a file that is localized alongside the
+ * application master and the environment holds '@' and the name of the file.
+ */
+public class EnvironmentCodec {
+
+  /** The longest value to put in an environment variable before using a file instead. */
+  public static final String MAX_ENV_LENGTH = "kitten.env.max.length";
+  public static final int DEFAULT_MAX_ENV_LENGTH = 32 * 1024;
+
+  private static final byte MAGIC = 'K';
+  private static final byte VERSION = 1;
+
+  private static final String FILE_PREFIX = "@";
+
+  // Tags for the types of extra Lua values.
+  private static final byte STRING = 's';
+  private static final byte BOOLEAN = 'b';
+  private static final byte INT = 'i';
+  private static final byte LONG = 'l';
+  private static final byte DOUBLE = 'd';
+
+  public static byte[] encodeUris(Map<String, URI> uris) {
+    List<String> prefixes = Lists.newArrayList();
+    Map<String, Integer> prefixIds = Maps.newHashMap();
+    for (URI uri : uris.values()) {
+      String prefix = prefix(uri.toString());
+      if (!prefixIds.containsKey(prefix)) {
+        prefixIds.put(prefix, prefixes.size());
+        prefixes.add(prefix);
+      }
+    }
+    try {
+      DataOutputBuffer out = header(uris.size());
+      WritableUtils.writeVInt(out, prefixes.size());
+      for (String prefix : prefixes) {
+        Text.writeString(out, prefix);
+      }
+      for (Map.Entry<String, URI> e : uris.entrySet()) {
+        String uri = e.getValue().toString();
+        String prefix = prefix(uri);
+        Text.writeString(out, e.getKey());
+        WritableUtils.writeVInt(out, prefixIds.get(prefix));
+        Text.writeString(out, uri.substring(prefix.length()));
+      }
+      return toByteArray(out);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public static Map<String, URI> decodeUris(byte[] data) {
+    try {
+      DataInputStream in = open(data);
+      int size = WritableUtils.readVInt(in);
+      String[] prefixes = new String[WritableUtils.readVInt(in)];
+      for (int i = 0; i < prefixes.length; i++) {
+        prefixes[i] = Text.readString(in);
+      }
+      Map<String, URI> uris = Maps.newHashMapWithExpectedSize(size);
+      for (int i = 0; i < size; i++) {
+        String key = Text.readString(in);
+        String prefix = prefixes[WritableUtils.readVInt(in)];
+        uris.put(key, URI.create(prefix + Text.readString(in)));
+      }
+      return uris;
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Invalid encoded URIs", e);
+    }
+  }
+
+  /**
+   * Encodes the given values, which must be strings, booleans, or numbers.
+   */
+  public static byte[] encodeValues(Map<String, Object> values) {
+    try {
+      DataOutputBuffer out = header(values.size());
+      for (Map.Entry<String, Object> e : values.entrySet()) {
+        Text.writeString(out, e.getKey());
+        writeValue(out, e.getKey(), e.getValue());
+      }
+      return toByteArray(out);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public static Map<String, Object> decodeValues(byte[] data) {
+    try {
+      DataInputStream in = open(data);
+      int size = WritableUtils.readVInt(in);
+      Map<String, Object> values = Maps.newHashMapWithExpectedSize(size);
+      for (int i = 0; i < size; i++) {
+        String key = Text.readString(in);
+        values.put(key, readValue(in));
+      }
+      return values;
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Invalid encoded values", e);
+    }
+  }
+
+  /**
+   * Returns the value for an environment variable that holds the given data, or null if the
+   * data is larger than maxLength and should be written to a file with {@link #toFile}.
+   */
+  public static String toEnv(byte[] data, int maxLength) {
+    String encoded = new String(Base64.encodeBase64(data), Charsets.US_ASCII);
+    return encoded.length() > maxLength ? null : encoded;
+  }
+
+  /**
+   * Returns the value for an environment variable that refers to the given file, which
+   * will be localized in the working directory of the container under the given name.
+   */
+  public static String toFile(byte[] data, File file, String localizedName) throws IOException {
+    Files.write(data, file);
+    return FILE_PREFIX + localizedName;
+  }
+
+  /**
+   * Returns the data held by the value of an environment variable, reading it from the
+   * working directory if the data was written to a file.
+   */
+  public static byte[] fromEnv(String value) throws IOException {
+    if (value.startsWith(FILE_PREFIX)) {
+      return Files.toByteArray(new File(value.substring(FILE_PREFIX.length())));
+    }
+    return Base64.decodeBase64(value);
+  }
+
+  // Splits off the last two segments of the path, so that files in the shared staging cache,
+  // which are each in a directory named by their checksum, still share a prefix.
+  private static String prefix(String uri) {
+    int end = uri.lastIndexOf('/');
+    if (end > 0) {
+      int parent = uri.lastIndexOf('/', end - 1);
+      if (parent > uri.indexOf("//") + 1) {
+        end = parent;
+      }
+    }
+    return uri.substring(0, end + 1);
+  }
+
+  private static DataOutputBuffer header(int size) throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    out.writeByte(MAGIC);
+    out.writeByte(VERSION);
+    WritableUtils.writeVInt(out, size);
+    return out;
+  }
+
+  private static DataInputStream open(byte[] data) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+    if (in.readByte() != MAGIC) {
+      throw new IOException("Not an encoded map");
+    }
+    byte version = in.readByte();
+    if (version != VERSION) {
+      throw new IOException("Unsupported encoding version: " + version);
+    }
+    return in;
+  }
+
+  private static byte[] toByteArray(DataOutputBuffer out) {
+    byte[] data = new byte[out.getLength()];
+    System.arraycopy(out.getData(), 0, data, 0, data.length);
+    return data;
+  }
+
+  private static void writeValue(DataOutput out, String key, Object value) throws IOException {
+    if (value instanceof String) {
+      out.writeByte(STRING);
+      Text.writeString(out, (String) value);
+    } else if (value instanceof Boolean) {
+      out.writeByte(BOOLEAN);
+      out.writeBoolean((Boolean) value);
+    } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      out.writeByte(INT);
+      WritableUtils.writeVInt(out, ((Number) value).intValue());
+    } else if (value instanceof Long) {
+      out.writeByte(LONG);
+      WritableUtils.writeVLong(out, (Long) value);
+    } else if (value instanceof Double || value instanceof Float) {
+      out.writeByte(DOUBLE);
+      out.writeDouble(((Number) value).doubleValue());
+    } else {
+      throw new IllegalArgumentException("Extra Lua value " + key + " must be a string, " +
+          "boolean, or number, not " + (value == null ? "null" : value.getClass().getName()));
+    }
+  }
+
+  private static Object readValue(DataInput in) throws IOException {
+    byte tag = in.readByte();
+    switch (tag) {
+    case STRING:
+      return Text.readString(in);
+    case BOOLEAN:
+      return in.readBoolean();
+    case INT:
+      return WritableUtils.readVInt(in);
+    case LONG:
+      return WritableUtils.readVLong(in);
+    case DOUBLE:
+      return in.readDouble();
+    default:
+      throw new IOException("Unknown value type: " + tag);
+    }
+  }
+
+  // Not instantiated.
+  private EnvironmentCodec() {}
+}
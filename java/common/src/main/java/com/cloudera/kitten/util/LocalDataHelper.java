@@ -26,21 +26,35 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsAction;
+import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.yarn.api.records.ApplicationId;
 
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.google.common.io.ByteStreams;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.InputSupplier;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.common.io.Resources;
 
 /**
@@ -53,6 +67,22 @@ public class LocalDataHelper {
   
   // Provide a way for tests/clients to override the app base directory.
   public static final String APP_BASE_DIR = "kitten.app.base.dir";
+
+  // The number of files to copy to HDFS at once.
+  public static final String STAGING_THREADS = "kitten.staging.threads";
+
+  // Whether to stage local files in a cache that is shared between applications, where
+  // they are named by their checksum and only uploaded if they are not there already.
+  public static final String STAGING_CACHE_ENABLED = "kitten.staging.cache.enabled";
+
+  // The shared staging cache; defaults to kitten-cache under the app base directory.
+  public static final String STAGING_CACHE_DIR = "kitten.staging.cache.dir";
+
+  // How long an entry of the staging cache may go unused before a client deletes it; zero
+  // or less, the default, turns off the cleanup. An entry is only marked as used when an
+  // application is submitted, so this must be longer than any application runs for.
+  public static final String STAGING_CACHE_TTL = "kitten.staging.cache.ttl.ms";
+  public static final long DEFAULT_STAGING_CACHE_TTL = 0L;
   
   public static InputStream getFileOrResource(String name) {
     File f = new File(name);
@@ -68,6 +98,10 @@ public class LocalDataHelper {
     return null;
   }
   
+  /**
+   * @deprecated Kitten passes values through the environment with {@link EnvironmentCodec}.
+   */
+  @Deprecated
   public static <T> String serialize(Map<String, T> mapping) {
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
     try {
@@ -80,6 +114,10 @@ public class LocalDataHelper {
     return Base64.encodeBase64String(baos.toByteArray());
   }
   
+  /**
+   * @deprecated Kitten passes values through the environment with {@link EnvironmentCodec}.
+   */
+  @Deprecated
   public static <T> Map<String, T> deserialize(String serialized) {
     byte[] data = Base64.decodeBase64(serialized);
     ByteArrayInputStream bais = new ByteArrayInputStream(data);
@@ -96,13 +134,15 @@ public class LocalDataHelper {
   
   private final ApplicationId applicationId;
   private final Configuration conf;
-  private final Map<String, URI> localToHdfs;
+  private final Map<String, Future<URI>> localToHdfs;
   private final Set<String> names;
+  private ExecutorService uploader;
+  private boolean usedCache;
   
   public LocalDataHelper(ApplicationId applicationId, Configuration conf) {
     this.applicationId = applicationId;
     this.conf = conf;
-    this.localToHdfs = Maps.newHashMap();
+    this.localToHdfs = Maps.newLinkedHashMap();
     this.names = Sets.newHashSet();
   }
   
@@ -112,28 +152,139 @@ public class LocalDataHelper {
     OutputStream os = new FileOutputStream(tmpFile);
     conf.writeXml(os);
     os.close();
-    copyToHdfs(key, tmpFile.getAbsolutePath());
+    // The configuration belongs to this application alone, so it is never shared.
+    copyToAppDirectory(key, tmpFile.getAbsolutePath());
   }
-  
-  public void copyToHdfs(String localDataName) throws IOException {
-    copyToHdfs(localDataName, localDataName);
+
+  /**
+   * Starts copying the given local file to the directory for this application, bypassing
+   * the shared cache, for files that belong to this application alone.
+   */
+  public void copyToAppDirectory(String key, String localDataName) throws IOException {
+    if (!localToHdfs.containsKey(key)) {
+      localToHdfs.put(key, upload(localDataName, getPath(new Path(localDataName).getName())));
+    }
   }
   
-  private void copyToHdfs(String key, String localDataName) throws IOException {
+  /**
+   * Starts copying the given local file or classpath resource to HDFS. Copies run in the
+   * background, and {@link #getFileMapping()} waits for them to finish.
+   */
+  public void copyToHdfs(String localDataName) throws IOException {
     if (!localToHdfs.containsKey(localDataName)) {
-      FileSystem fs = FileSystem.get(conf);
-      Path src = new Path(localDataName);
-      Path dst = getPath(fs, src.getName());
-      InputStream data = getFileOrResource(localDataName);
+      Path dst = null;
+      if (!conf.getBoolean(STAGING_CACHE_ENABLED, true)) {
+        dst = getPath(new Path(localDataName).getName());
+      } else {
+        usedCache = true;
+      }
+      localToHdfs.put(localDataName, upload(localDataName, dst));
+    }
+  }
+
+  // Copies the data to the given path in the background, or, if it is null, to the shared
+  // cache under a directory named by the checksum of the data, unless it is there already.
+  private Future<URI> upload(final String localDataName, final Path appPath) {
+    if (uploader == null) {
+      uploader = Executors.newFixedThreadPool(conf.getInt(STAGING_THREADS, 8),
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("kitten-staging-%d").build());
+    }
+    return uploader.submit(new Callable<URI>() {
+      @Override
+      public URI call() throws IOException {
+        InputSupplier<InputStream> data = new InputSupplier<InputStream>() {
+          @Override
+          public InputStream getInput() throws IOException {
+            InputStream in = getFileOrResource(localDataName);
+            if (in == null) {
+              throw new FileNotFoundException("Could not find local file: " + localDataName);
+            }
+            return in;
+          }
+        };
+        if (appPath != null) {
+          FileSystem fs = appPath.getFileSystem(conf);
+          copy(data, fs, appPath, null);
+          return appPath.toUri();
+        }
+
+        // Upload under a temporary name while computing the checksum, so that the data is
+        // only read once, and then move it into place, so that other clients never see a
+        // partial file.
+        Path cacheDir = getStagingCacheDir(conf);
+        FileSystem fs = cacheDir.getFileSystem(conf);
+        String name = new Path(localDataName).getName();
+        Path tmp = new Path(cacheDir, "." + name + "." + UUID.randomUUID());
+        Hasher hasher = Hashing.sha1().newHasher();
+        try {
+          copy(data, fs, tmp, hasher);
+          Path dir = new Path(cacheDir, hasher.hash().toString());
+          Path dst = new Path(dir, name);
+          if (fs.exists(dst)) {
+            LOG.info("Using cached copy of " + localDataName + " at " + dst);
+            markUsed(fs, dir);
+            return dst.toUri();
+          }
+          // Make it readable by everyone so that it can be PUBLIC.
+          fs.mkdirs(dir);
+          setPermission(fs, dir, (short) 0755);
+          setPermission(fs, tmp, (short) 0644);
+          // If this fails, another client uploaded the same file at the same time.
+          fs.rename(tmp, dst);
+          return dst.toUri();
+        } finally {
+          fs.delete(tmp, false);
+        }
+      }
+    });
+  }
+
+  // The cache may be shared with other users who own some of its directories, in which
+  // case they are responsible for making them readable.
+  private static void setPermission(FileSystem fs, Path path, short mode) {
+    try {
+      fs.setPermission(path, new FsPermission(mode));
+    } catch (IOException e) {
+      LOG.debug("Could not set permissions of " + path, e);
+    }
+  }
+
+  // Marks a cache entry as used. The file itself is left alone, since YARN checks its
+  // modification time when it localizes it. An entry that belongs to another user cannot be
+  // marked, and may be deleted by that user's cleanup if they turned it on.
+  private static void markUsed(FileSystem fs, Path dir) {
+    try {
+      fs.setTimes(dir, System.currentTimeMillis(), -1);
+    } catch (IOException e) {
+      LOG.warn("Could not mark " + dir + " as used, so its owner's cleanup may delete it " +
+          "while this application runs: " + e);
+    }
+  }
+
+  // Copies the data to the given path, adding it to the hasher if there is one.
+  private static void copy(InputSupplier<InputStream> data, FileSystem fs, Path dst,
+      Hasher hasher) throws IOException {
+    byte[] buf = new byte[64 * 1024];
+    InputStream in = data.getInput();
+    try {
       FSDataOutputStream os = fs.create(dst, true);
-      ByteStreams.copy(data, os);
-      os.close();
-      URI uri = dst.toUri();
-      localToHdfs.put(key, uri);
+      try {
+        int n;
+        while ((n = in.read(buf)) != -1) {
+          if (hasher != null) {
+            hasher.putBytes(buf, 0, n);
+          }
+          os.write(buf, 0, n);
+        }
+      } finally {
+        os.close();
+      }
+    } finally {
+      in.close();
     }
   }
   
-  private Path getPath(FileSystem fs, String name) {
+  private Path getPath(String name) throws IOException {
     int cp = 0;
     while (names.contains(name)) {
       name = name + (++cp);
@@ -143,21 +294,175 @@ public class LocalDataHelper {
     if (applicationId != null) {
       appDir += applicationId.getId();
     }
-    Path base = getAppPath(fs, appDir);
+    Path base = new Path(getAppBaseDir(FileSystem.get(conf), conf), appDir);
     Path dst = new Path(base, name);
     return dst;
   }
 
-  private Path getAppPath(FileSystem fs, String appDir) {
+  /**
+   * Returns the shared directory that local files are staged in when
+   * {@link #STAGING_CACHE_ENABLED} is set.
+   */
+  public static Path getStagingCacheDir(Configuration conf) throws IOException {
+    String dir = conf.get(STAGING_CACHE_DIR);
+    if (dir != null) {
+      return new Path(dir);
+    }
+    return new Path(getAppBaseDir(FileSystem.get(conf), conf), "kitten-cache");
+  }
+
+  /**
+   * Deletes the entries of the shared staging cache that no application has used for
+   * {@link #STAGING_CACHE_TTL}, other than the given ones. Entries that belong to other
+   * users are left for them to delete. Returns the number of entries deleted.
+   */
+  public static int cleanStagingCache(Configuration conf, Set<Path> keep) throws IOException {
+    long ttl = conf.getLong(STAGING_CACHE_TTL, DEFAULT_STAGING_CACHE_TTL);
+    if (ttl <= 0) {
+      return 0;
+    }
+    Path cacheDir = getStagingCacheDir(conf);
+    FileSystem fs = cacheDir.getFileSystem(conf);
+    FileStatus[] entries;
+    try {
+      entries = fs.listStatus(cacheDir);
+    } catch (FileNotFoundException e) {
+      return 0;
+    }
+    Set<Path> kept = Sets.newHashSet();
+    for (Path path : keep) {
+      kept.add(fs.makeQualified(path));
+    }
+    long cutoff = System.currentTimeMillis() - ttl;
+    int deleted = 0;
+    for (FileStatus entry : entries) {
+      if (entry.isDirectory() && entry.getModificationTime() < cutoff &&
+          !kept.contains(entry.getPath())) {
+        try {
+          if (fs.delete(entry.getPath(), true)) {
+            deleted++;
+          }
+        } catch (IOException e) {
+          LOG.debug("Could not delete unused cache entry " + entry.getPath(), e);
+        }
+      }
+    }
+    if (deleted > 0) {
+      LOG.info("Deleted " + deleted + " unused entries from " + cacheDir);
+    }
+    return deleted;
+  }
+
+  /**
+   * Returns the directory that per-application directories are created under, which is
+   * the value of {@link #APP_BASE_DIR} if it is set, or the user's home directory.
+   */
+  public static Path getAppBaseDir(FileSystem fs, Configuration conf) {
     String abd = conf.get(APP_BASE_DIR);
     if (abd != null) {
-      return new Path(new Path(abd), appDir);
+      return new Path(abd);
     } else {
-      return new Path(fs.getHomeDirectory(), appDir);
+      return fs.getHomeDirectory();
     }
   }
   
+  /**
+   * Looks up the status of each of the given paths. Paths that share a parent directory are
+   * resolved with a single listing of that directory rather than one call per path. Paths
+   * that do not exist are left out of the result.
+   */
+  public static Map<Path, FileStatus> getFileStatuses(Collection<Path> paths, Configuration conf)
+      throws IOException {
+    // For each directory, the qualified form of each path in it that we want.
+    Map<Path, Map<Path, Path>> byParent = Maps.newHashMap();
+    for (Path path : paths) {
+      Path qualified = path.getFileSystem(conf).makeQualified(path);
+      Map<Path, Path> siblings = byParent.get(qualified.getParent());
+      if (siblings == null) {
+        siblings = Maps.newHashMap();
+        byParent.put(qualified.getParent(), siblings);
+      }
+      siblings.put(qualified, path);
+    }
+    Map<Path, FileStatus> statuses = Maps.newHashMap();
+    for (Map.Entry<Path, Map<Path, Path>> e : byParent.entrySet()) {
+      FileSystem fs = e.getKey().getFileSystem(conf);
+      Map<Path, Path> wanted = e.getValue();
+      if (wanted.size() == 1) {
+        Map.Entry<Path, Path> only = wanted.entrySet().iterator().next();
+        try {
+          statuses.put(only.getValue(), fs.getFileStatus(only.getKey()));
+        } catch (FileNotFoundException ignored) {
+        }
+      } else {
+        try {
+          for (FileStatus stat : fs.listStatus(e.getKey())) {
+            Path path = wanted.get(stat.getPath());
+            if (path != null) {
+              statuses.put(path, stat);
+            }
+          }
+        } catch (FileNotFoundException ignored) {
+        }
+      }
+    }
+    return statuses;
+  }
+
+  /**
+   * Returns true if the given file can be localized with PUBLIC visibility, which requires
+   * that everyone can read it and list each of the directories above it. The results for
+   * directories are remembered in the given map.
+   */
+  public static boolean isPublic(FileStatus stat, Configuration conf, Map<Path, Boolean> dirs)
+      throws IOException {
+    if (!stat.getPermission().getOtherAction().implies(FsAction.READ)) {
+      return false;
+    }
+    FileSystem fs = stat.getPath().getFileSystem(conf);
+    for (Path dir = stat.getPath().getParent(); dir != null; dir = dir.getParent()) {
+      Boolean listable = dirs.get(dir);
+      if (listable == null) {
+        listable = fs.getFileStatus(dir).getPermission().getOtherAction().implies(FsAction.EXECUTE);
+        dirs.put(dir, listable);
+      }
+      if (!listable) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Waits for all of the copies to finish and returns where each file was copied to. Files
+   * that could not be copied are logged and left out. If any files were staged in the shared
+   * cache, this also deletes the cache entries that have expired.
+   */
   public Map<String, URI> getFileMapping() {
-    return localToHdfs;
+    Map<String, URI> mapping = Maps.newHashMap();
+    for (Map.Entry<String, Future<URI>> e : localToHdfs.entrySet()) {
+      try {
+        mapping.put(e.getKey(), Uninterruptibles.getUninterruptibly(e.getValue()));
+      } catch (ExecutionException ee) {
+        LOG.error("Error copying local file " + e.getKey() + " to hdfs", ee.getCause());
+      }
+    }
+    if (uploader != null) {
+      uploader.shutdown();
+      uploader = null;
+    }
+    if (usedCache) {
+      usedCache = false;
+      Set<Path> inUse = Sets.newHashSet();
+      for (URI uri : mapping.values()) {
+        inUse.add(new Path(uri).getParent());
+      }
+      try {
+        cleanStagingCache(conf, inUse);
+      } catch (IOException e) {
+        LOG.warn("Could not clean up the staging cache", e);
+      }
+    }
+    return mapping;
   }
 }
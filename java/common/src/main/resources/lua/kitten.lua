@@ -64,6 +64,23 @@ function yarn(t)
     clp.priority = t_check(clp.priority or 0, name .. ".priority", "number")
     clp.instances = t_check(clp.instances or 1, name .. ".instances", "number")
 
+    -- In task-queue mode, the containers run the kitten task agent, which pulls the tasks
+    -- from the master, so there is no point in asking for more containers than tasks.
+    local tasks = rawget(clp, "tasks")
+    if tasks ~= nil then
+      if "table" == type(tasks) then
+        clp.instances = math.max(1, math.min(clp.instances, #tasks))
+      elseif "function" ~= type(tasks) then
+        error("Field " .. name .. ".tasks not of type table or function: " .. type(tasks))
+      end
+      if not rawget(clp, "command") and not rawget(clp, "commands") then
+        clp.command = "${JAVA_HOME}/bin/java com.cloudera.kitten.task.TaskAgent " ..
+            "1> <LOG_DIR>/stdout 2> <LOG_DIR>/stderr"
+      end
+    end
+
+    clp.retries = t_check(clp.retries or clp.instances, name .. ".retries", "number")
+
     clp.env = t_check(clp.env or {}, name .. ".env", "table")
     for k, v in pairs(clp.env) do
       clp.env[k] = s_check(v, name .. ".env[" .. k .. "]")
@@ -79,11 +96,14 @@ function yarn(t)
   -- Verify the container(s) configuration.
   if t.container then
     t.container = clp_check(t.container, "node")
+    t.container.group = t_check(t.container.group or "container", "node.group", "string")
   elseif t.containers then
     -- Need to add checks here to ensure these exist.
     for i, container in ipairs(t.containers) do
       local container_name = "container(" .. i .. ")"
       t.containers[i] = clp_check(t.containers[i], container_name)
+      t.containers[i].group = t_check(t.containers[i].group or ("container" .. i),
+          container_name .. ".group", "string")
     end
   end
 
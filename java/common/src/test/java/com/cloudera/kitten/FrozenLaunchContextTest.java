@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import org.apache.hadoop.yarn.api.records.ContainerLaunchContext;
+import org.apache.hadoop.yarn.api.records.LocalResource;
+import org.apache.hadoop.yarn.api.records.LocalResourceType;
+import org.apache.hadoop.yarn.api.records.LocalResourceVisibility;
+import org.apache.hadoop.yarn.api.records.URL;
+import org.apache.hadoop.yarn.util.Records;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+public class FrozenLaunchContextTest {
+
+  private static ContainerLaunchContext clc() {
+    ContainerLaunchContext clc = Records.newRecord(ContainerLaunchContext.class);
+    clc.setCommands(ImmutableList.of("/bin/true"));
+    clc.setEnvironment(Maps.newHashMap(ImmutableMap.of("A", "1", "B", "2")));
+    LocalResource rsrc = LocalResource.newInstance(URL.newInstance("hdfs", "nn", 8020, "/a.jar"),
+        LocalResourceType.FILE, LocalResourceVisibility.PUBLIC, 10L, 20L);
+    clc.setLocalResources(Maps.newHashMap(ImmutableMap.of("a.jar", rsrc)));
+    clc.setTokens(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+    return clc;
+  }
+
+  @Test
+  public void testCreate() {
+    FrozenLaunchContext frozen = new FrozenLaunchContext(clc());
+    ContainerLaunchContext copy = frozen.create();
+    assertEquals(ImmutableList.of("/bin/true"), copy.getCommands());
+    assertEquals(ImmutableMap.of("A", "1", "B", "2"), copy.getEnvironment());
+    assertEquals(10L, copy.getLocalResources().get("a.jar").getSize());
+    assertEquals(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), copy.getTokens());
+  }
+
+  @Test
+  public void testCreateWithEnvironment() {
+    FrozenLaunchContext frozen = new FrozenLaunchContext(clc());
+    ContainerLaunchContext copy = frozen.create(ImmutableMap.of("B", "3", "C", "4"));
+    assertEquals(ImmutableMap.of("A", "1", "B", "3", "C", "4"), copy.getEnvironment());
+
+    // The other containers are unaffected.
+    assertEquals(ImmutableMap.of("A", "1", "B", "2"), frozen.create().getEnvironment());
+  }
+
+  @Test
+  public void testCreateInstance() {
+    ContainerLaunchContext clc = clc();
+    clc.setCommands(ImmutableList.of("./run.sh --shard=${instance}/${instances} ${JAVA_HOME}"));
+    clc.setEnvironment(Maps.newHashMap(ImmutableMap.of("A", "1", "OUT", "/out/${group}-${instance}")));
+    FrozenLaunchContext frozen = new FrozenLaunchContext(clc);
+
+    ContainerLaunchContext copy = frozen.create("workers", 3, 8);
+    assertEquals(ImmutableList.of("./run.sh --shard=3/8 ${JAVA_HOME}"), copy.getCommands());
+    assertEquals(ImmutableMap.builder()
+        .put("A", "1")
+        .put("OUT", "/out/workers-3")
+        .put(FrozenLaunchContext.INSTANCE_INDEX, "3")
+        .put(FrozenLaunchContext.NUM_INSTANCES, "8")
+        .put(FrozenLaunchContext.CONTAINER_GROUP, "workers")
+        .build(), copy.getEnvironment());
+    assertEquals(10L, copy.getLocalResources().get("a.jar").getSize());
+  }
+
+  @Test
+  public void testExpand() {
+    Map<String, String> vars = ImmutableMap.of("instance", "7");
+    String plain = "no variables ${HOME}";
+    assertSame(plain, FrozenLaunchContext.expand(plain, vars));
+    assertEquals("7-${x}-7${", FrozenLaunchContext.expand("${instance}-${x}-${instance}${", vars));
+  }
+}
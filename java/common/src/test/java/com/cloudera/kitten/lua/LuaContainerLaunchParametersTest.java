@@ -15,15 +15,26 @@
 package com.cloudera.kitten.lua;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.net.URI;
+import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.LocalResource;
+import org.apache.hadoop.yarn.api.records.Resource;
 import org.junit.Test;
 import org.luaj.vm2.lib.jse.JsePlatform;
 
+import com.cloudera.kitten.ContainerLaunchParameters;
+import com.cloudera.kitten.ImmutableContainerLaunchParameters;
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
 
 public class LuaContainerLaunchParametersTest {
 
@@ -36,8 +47,28 @@ public class LuaContainerLaunchParametersTest {
     assertEquals(0, lclp.getPriority());
     assertEquals(1, lclp.getNumInstances());
     assertEquals(0, lclp.getMemory());
+    assertEquals(1, lclp.getRetries());
+  }
+
+  @Test
+  public void testRetries() {
+    env.setInteger(LuaFields.INSTANCES, 10);
+    assertEquals(10, lclp.getRetries());
+    env.setInteger(LuaFields.RETRIES, 2);
+    assertEquals(2, lclp.getRetries());
   }
   
+  @Test
+  public void testGang() {
+    assertFalse(lclp.isGang());
+    assertEquals(LuaContainerLaunchParameters.DEFAULT_GANG_TIMEOUT_MILLIS,
+        lclp.getGangTimeoutMillis());
+    env.setBoolean(LuaFields.GANG, true);
+    env.setInteger(LuaFields.GANG_TIMEOUT, 60000);
+    assertTrue(lclp.isGang());
+    assertEquals(60000L, lclp.getGangTimeoutMillis());
+  }
+
   @Test
   public void testEnvironment() {
     LuaWrapper e = env.createTable(LuaFields.ENV);
@@ -64,4 +95,45 @@ public class LuaContainerLaunchParametersTest {
     cmds.addString("echo 'hello world'");
     assertEquals(ImmutableList.of("/bin/sh foo.sh", "echo 'hello world'"), lclp.getCommands());
   }
+
+  @Test
+  public void testLocalResourcesInOneDirectory() throws Exception {
+    File dir = Files.createTempDir();
+    Files.write("abc", new File(dir, "a.txt"), Charsets.UTF_8);
+    Files.write("abcdef", new File(dir, "b.txt"), Charsets.UTF_8);
+    LuaWrapper rsrcs = env.createTable(LuaFields.RESOURCES);
+    rsrcs.createTable("a.txt").setString(LuaFields.LOCAL_RESOURCE_HDFS_FILE,
+        new File(dir, "a.txt").toURI().toString());
+    rsrcs.createTable("b.txt").setString(LuaFields.LOCAL_RESOURCE_HDFS_FILE,
+        new File(dir, "b.txt").toURI().toString());
+    rsrcs.createTable("missing.txt").setString(LuaFields.LOCAL_RESOURCE_HDFS_FILE,
+        new File(dir, "missing.txt").toURI().toString());
+
+    Map<String, LocalResource> lr = lclp.getLocalResources();
+    assertEquals(ImmutableSet.of("a.txt", "b.txt"), lr.keySet());
+    assertEquals(3L, lr.get("a.txt").getSize());
+    assertEquals(6L, lr.get("b.txt").getSize());
+  }
+
+  @Test
+  public void testImmutableCopy() {
+    env.setInteger(LuaFields.MEMORY, 512);
+    env.setInteger(LuaFields.CORES, 2);
+    env.setInteger(LuaFields.INSTANCES, 10);
+    env.createTable(LuaFields.ENV).setString("USER", "bob");
+    env.setString(LuaFields.COMMAND, "/bin/true");
+    ContainerLaunchParameters copy = ImmutableContainerLaunchParameters.copyOf(lclp);
+
+    // Changes to the Lua table are not seen by the copy.
+    env.setInteger(LuaFields.INSTANCES, 20);
+    env.createTable(LuaFields.ENV).setString("USER", "alice");
+    assertEquals(10, copy.getNumInstances());
+    assertEquals(10, copy.getRetries());
+    assertEquals(ImmutableMap.of("USER", "bob"), copy.getEnvironment());
+    assertEquals(ImmutableList.of("/bin/true"), copy.getCommands());
+
+    Resource rsrc = copy.getContainerResource(Resource.newInstance(256, 8));
+    assertEquals(256, rsrc.getMemory());
+    assertEquals(2, rsrc.getVirtualCores());
+  }
 }
@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.lua;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+import com.cloudera.kitten.ContainerGroupStatus;
+
+public class LuaScalingPolicyTest {
+
+  private LuaScalingPolicy policy(String script) {
+    LuaTable env = JsePlatform.standardGlobals();
+    env.get("loadstring").call(LuaValue.valueOf(script)).call();
+    return new LuaScalingPolicy(env.get("autoscale"));
+  }
+
+  @Test
+  public void testQueueDepth() {
+    LuaScalingPolicy policy = policy(
+        "autoscale = function(s)\n" +
+        "  if s.queued and s.queued > 100 then return s.instances * 2 end\n" +
+        "  if s.queued == 0 then return s.running end\n" +
+        "end");
+    assertEquals(8, policy.getDesiredInstances(new ContainerGroupStatus("g", 4, 4, 0, 0, 0, 500)));
+    assertEquals(3, policy.getDesiredInstances(new ContainerGroupStatus("g", 4, 3, 1, 0, 0, 0)));
+    // No change when the function returns nil, or when the group has no task queue.
+    assertEquals(4, policy.getDesiredInstances(new ContainerGroupStatus("g", 4, 4, 0, 0, 0, 50)));
+    assertEquals(4, policy.getDesiredInstances(new ContainerGroupStatus("g", 4, 4, 0, 0, 0, -1)));
+  }
+
+  @Test
+  public void testNegative() {
+    assertEquals(0, policy("autoscale = function(s) return -1 end").getDesiredInstances(
+        new ContainerGroupStatus("g", 1, 1, 0, 0, 0, -1)));
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.lua;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+import com.cloudera.kitten.task.Task;
+import com.google.common.collect.ImmutableMap;
+
+public class LuaTaskSourceTest {
+
+  private LuaValue eval(String script) {
+    LuaTable env = JsePlatform.standardGlobals();
+    env.get("loadstring").call(LuaValue.valueOf(script)).call();
+    return env.get("tasks");
+  }
+
+  @Test
+  public void testList() {
+    LuaTaskSource source = new LuaTaskSource(eval(
+        "tasks = { 'echo a', { command = 'echo b', env = { X = 1 } } }"));
+    Task a = source.next();
+    assertEquals(0, a.getId());
+    assertEquals("echo a", a.getCommand());
+    Task b = source.next();
+    assertEquals(1, b.getId());
+    assertEquals("echo b", b.getCommand());
+    assertEquals(ImmutableMap.of("X", "1"), b.getEnvironment());
+    assertNull(source.next());
+    assertNull(source.next());
+  }
+
+  @Test
+  public void testGenerator() {
+    LuaTaskSource source = new LuaTaskSource(eval(
+        "local n = 0\n" +
+        "tasks = function() if n < 3 then n = n + 1 return 'part ' .. n end end"));
+    for (int i = 0; i < 3; i++) {
+      Task t = source.next();
+      assertEquals(i, t.getId());
+      assertEquals("part " + (i + 1), t.getCommand());
+    }
+    assertNull(source.next());
+    // The generator is not called again once it is done.
+    assertNull(source.next());
+  }
+
+  @Test
+  public void testSharedLock() throws Exception {
+    Object lock = new Object();
+    final LuaTaskSource source = new LuaTaskSource(eval("tasks = function() return 'x' end"), lock);
+    final Task[] task = new Task[1];
+    Thread t = new Thread() {
+      @Override
+      public void run() {
+        task[0] = source.next();
+      }
+    };
+    synchronized (lock) {
+      t.start();
+      // The generator cannot be called while another caller holds the lock.
+      while (t.getState() != Thread.State.BLOCKED) {
+        assertTrue(t.isAlive());
+        Thread.sleep(10);
+      }
+    }
+    t.join();
+    assertEquals("x", task[0].getCommand());
+  }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.lua;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+
+import org.luaj.vm2.LoadState;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+
+/**
+ * Compares the cost of creating a {@link LuaWrapper} from a script with the uncached
+ * approach of building new globals and re-parsing kitten.lua and the script every time,
+ * and with running the script compiled to bytecode by LuaJC.
+ *
+ * <p>Not run as part of the test suite; run it with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=com.cloudera.kitten.lua.LuaWrapperBenchmark \
+ *   -Dexec.classpathScope=test
+ * </pre>
+ */
+public class LuaWrapperBenchmark {
+
+  private static final int WARMUP = 200;
+  private static final int ITERATIONS = 1000;
+
+  public static void main(String[] args) throws Exception {
+    File script = File.createTempFile("benchmark", ".lua");
+    script.deleteOnExit();
+    Files.write(config(), script, Charsets.UTF_8);
+    String path = script.getAbsolutePath();
+
+    Configuration luajc = new Configuration(false);
+    luajc.setBoolean(LuaChunkCache.LUAJC, true);
+    luajc.set(LuaChunkCache.LUAJC_CACHE_DIR, Files.createTempDir().toURI().toString());
+    Map<String, Object> extras = ImmutableMap.of();
+
+    for (int i = 0; i < WARMUP; i++) {
+      uncached(path);
+      new LuaWrapper(path).getTable("app");
+      new LuaWrapper(path, extras, luajc).getTable("app");
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      uncached(path);
+    }
+    long uncached = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      new LuaWrapper(path).getTable("app");
+    }
+    long cached = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      new LuaWrapper(path, extras, luajc).getTable("app");
+    }
+    long compiled = System.nanoTime() - start;
+
+    System.out.println(String.format("uncached: %.1f us/wrapper", uncached / 1000.0 / ITERATIONS));
+    System.out.println(String.format("cached:   %.1f us/wrapper", cached / 1000.0 / ITERATIONS));
+    System.out.println(String.format("luajc:    %.1f us/wrapper", compiled / 1000.0 / ITERATIONS));
+  }
+
+  // The way LuaWrapper used to load a script.
+  private static LuaWrapper uncached(String path) throws Exception {
+    LuaTable env = JsePlatform.standardGlobals();
+    LoadState.load(LuaWrapper.class.getResourceAsStream("/lua/kitten.lua"), "kitten.lua", env).call();
+    InputStream luaCode = new FileInputStream(path);
+    LoadState.load(luaCode, path, env).call();
+    luaCode.close();
+    return new LuaWrapper(env).getTable("app");
+  }
+
+  private static String config() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("base_env = cat { CLASSPATH = \"./*.jar\", HADOOP_CONF_DIR = \"/etc/hadoop/conf\" }\n");
+    sb.append("app = yarn {\n");
+    sb.append("  name = \"benchmark\",\n");
+    sb.append("  master = { env = base_env {}, command = java_cmd { main = \"Master\" } },\n");
+    sb.append("  containers = {\n");
+    for (int i = 0; i < 20; i++) {
+      sb.append("    { instances = ").append(i + 1).append(", env = base_env { INDEX = ")
+          .append(i).append(" }, command = java_cmd { main = \"Worker\", args = { \"--shard=")
+          .append(i).append("\" } } },\n");
+    }
+    sb.append("  }\n");
+    sb.append("}\n");
+    return sb.toString();
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.lua;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+
+public class LuaWrapperTest {
+
+  private static final String SCRIPT =
+      "defaults = cat { A = \"1\" }\n" +
+      "app = { env = defaults { B = \"2\" }, cmd = java_cmd { main = \"Main\", args = { x } } }\n";
+
+  private static String writeScript() throws Exception {
+    File f = File.createTempFile("wrapper", ".lua");
+    f.deleteOnExit();
+    Files.write(SCRIPT, f, Charsets.UTF_8);
+    return f.getAbsolutePath();
+  }
+
+  private static void checkApp(LuaWrapper app) {
+    assertEquals(ImmutableMap.of("A", "1", "B", "2"), app.getTable("env").asMap());
+    assertEquals("${JAVA_HOME}/bin/java Main 3", app.getString("cmd"));
+  }
+
+  @Test
+  public void testInterpreted() throws Exception {
+    LuaWrapper env = new LuaWrapper(writeScript(), ImmutableMap.<String, Object>of("x", 3));
+    checkApp(env.getTable("app"));
+  }
+
+  @Test
+  public void testLuaJC() throws Exception {
+    File cacheDir = Files.createTempDir();
+    Configuration conf = new Configuration(false);
+    conf.setBoolean(LuaChunkCache.LUAJC, true);
+    conf.set(LuaChunkCache.LUAJC_CACHE_DIR, cacheDir.toURI().toString());
+
+    LuaWrapper env = new LuaWrapper(writeScript(), ImmutableMap.<String, Object>of("x", 3), conf);
+    checkApp(env.getTable("app"));
+
+    // A jar for the script, in a directory only this user can read. kitten.lua is only saved
+    // here if no earlier test in this JVM has already compiled it.
+    File userDir = new File(cacheDir, UserGroupInformation.getCurrentUser().getShortUserName());
+    int jars = jars(userDir).length;
+    assertTrue(jars == 1 || jars == 2);
+    FileSystem fs = FileSystem.getLocal(conf);
+    assertEquals(new FsPermission((short) 0700),
+        fs.getFileStatus(new Path(userDir.toURI())).getPermission());
+  }
+
+  @Test
+  public void testLuaJCSharedCacheDirIgnored() throws Exception {
+    File cacheDir = Files.createTempDir();
+    File userDir = new File(cacheDir, UserGroupInformation.getCurrentUser().getShortUserName());
+    userDir.mkdir();
+    Configuration conf = new Configuration(false);
+    conf.setBoolean(LuaChunkCache.LUAJC, true);
+    conf.set(LuaChunkCache.LUAJC_CACHE_DIR, cacheDir.toURI().toString());
+    FileSystem.getLocal(conf).setPermission(new Path(userDir.toURI()),
+        new FsPermission((short) 0777));
+
+    // Still compiled and run, but nothing is read from or saved to a directory others can write.
+    LuaWrapper env = new LuaWrapper(writeScript(), ImmutableMap.<String, Object>of("x", 4), conf);
+    assertEquals("${JAVA_HOME}/bin/java Main 4", env.getTable("app").getString("cmd"));
+    assertEquals(0, jars(userDir).length);
+  }
+
+  @Test
+  public void testEnvironmentsAreIsolated() throws Exception {
+    File f = File.createTempFile("isolated", ".lua");
+    f.deleteOnExit();
+    Files.write("leaked = string.kitten ~= nil or package.loaded.kitten ~= nil\n" +
+        "string.kitten = 1\n" +
+        "package.preload.kitten = function() return { value = 2 } end\n" +
+        "value = require(\"kitten\").value\n", f, Charsets.UTF_8);
+    LuaWrapper first = new LuaWrapper(f.getAbsolutePath());
+    assertFalse(first.getBoolean("leaked"));
+    assertEquals(2, first.getInteger("value"));
+    // The libraries that the first script changed are not the ones that the second one gets.
+    LuaWrapper second = new LuaWrapper(f.getAbsolutePath());
+    assertFalse(second.getBoolean("leaked"));
+    assertEquals(2, second.getInteger("value"));
+  }
+
+  private static String[] jars(File dir) {
+    return dir.list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(".jar");
+      }
+    });
+  }
+}
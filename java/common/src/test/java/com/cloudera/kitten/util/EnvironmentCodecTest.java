@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+
+public class EnvironmentCodecTest {
+
+  @Test
+  public void testUris() throws Exception {
+    Map<String, URI> uris = Maps.newHashMap();
+    for (int i = 0; i < 1000; i++) {
+      uris.put("lib/dep" + i + ".jar",
+          URI.create("hdfs://nn:8020/user/kitten/kitten-cache/" + Hashing.sha1().hashLong(i) + "/dep" + i + ".jar"));
+    }
+    uris.put("job.xml", URI.create("hdfs://nn:8020/user/kitten/app1/job.xml"));
+    byte[] data = EnvironmentCodec.encodeUris(uris);
+    assertEquals(uris, EnvironmentCodec.decodeUris(data));
+
+    // Smaller than Java serialization, which writes every URI in full.
+    String env = EnvironmentCodec.toEnv(data, Integer.MAX_VALUE);
+    assertTrue(env.length() < LocalDataHelper.serialize(uris).length() * 2 / 3);
+  }
+
+  @Test
+  public void testValues() throws Exception {
+    Map<String, Object> values = ImmutableMap.<String, Object>of(
+        "name", "kitten", "debug", true, "count", 17, "big", 1L << 40, "ratio", 0.25);
+    String env = EnvironmentCodec.toEnv(EnvironmentCodec.encodeValues(values), 1024);
+    assertEquals(values, EnvironmentCodec.decodeValues(EnvironmentCodec.fromEnv(env)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnsupportedValue() {
+    EnvironmentCodec.encodeValues(ImmutableMap.<String, Object>of("x", new Object()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongVersion() {
+    byte[] data = EnvironmentCodec.encodeValues(ImmutableMap.<String, Object>of("x", "y"));
+    data[1]++;
+    EnvironmentCodec.decodeValues(data);
+  }
+
+  @Test
+  public void testFile() throws Exception {
+    Map<String, Object> values = ImmutableMap.<String, Object>of("x", "y");
+    byte[] data = EnvironmentCodec.encodeValues(values);
+    assertNull(EnvironmentCodec.toEnv(data, 4));
+
+    File file = File.createTempFile("values", ".bin");
+    file.deleteOnExit();
+    String env = EnvironmentCodec.toFile(data, file, file.getAbsolutePath());
+    assertEquals(values, EnvironmentCodec.decodeValues(EnvironmentCodec.fromEnv(env)));
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+public class LocalDataHelperTest {
+
+  private File baseDir;
+  private File jar;
+  private Configuration conf;
+
+  @Before
+  public void setUp() throws Exception {
+    baseDir = Files.createTempDir();
+    File localDir = Files.createTempDir();
+    jar = new File(localDir, "app.jar");
+    Files.write("not really a jar", jar, Charsets.UTF_8);
+    conf = new Configuration();
+    conf.set(LocalDataHelper.APP_BASE_DIR, baseDir.toURI().toString());
+  }
+
+  private URI stage(int appId) throws Exception {
+    LocalDataHelper helper = new LocalDataHelper(ApplicationId.newInstance(0L, appId), conf);
+    helper.copyToHdfs(jar.getAbsolutePath());
+    helper.copyToHdfs("/log4j.properties");
+    Map<String, URI> mapping = helper.getFileMapping();
+    assertEquals(2, mapping.size());
+    return mapping.get(jar.getAbsolutePath());
+  }
+
+  @Test
+  public void testSharedCache() throws Exception {
+    URI first = stage(1);
+    Path path = new Path(first);
+    assertEquals("app.jar", path.getName());
+    assertEquals(new Path(baseDir.toURI().toString(), "kitten-cache"),
+        path.getParent().getParent());
+
+    // A second application reuses the copy that is already there.
+    FileSystem fs = path.getFileSystem(conf);
+    long mtime = fs.getFileStatus(path).getModificationTime();
+    Thread.sleep(1000);
+    assertEquals(first, stage(2));
+    assertEquals(mtime, fs.getFileStatus(path).getModificationTime());
+
+    // But a changed file is uploaded again.
+    Files.write("a different jar", jar, Charsets.UTF_8);
+    assertFalse(first.equals(stage(3)));
+
+    // No temporary files are left behind, only an entry for each version of the jar and
+    // one for log4j.properties.
+    FileStatus[] entries = fs.listStatus(path.getParent().getParent());
+    assertEquals(3, entries.length);
+    for (FileStatus entry : entries) {
+      assertTrue(entry.isDirectory());
+    }
+  }
+
+  @Test
+  public void testExpiredEntriesDeleted() throws Exception {
+    long ttl = 7L * 24 * 60 * 60 * 1000;
+    conf.setLong(LocalDataHelper.STAGING_CACHE_TTL, ttl);
+    Path jarDir = new Path(stage(1)).getParent();
+    Path cacheDir = jarDir.getParent();
+    FileSystem fs = cacheDir.getFileSystem(conf);
+    long old = System.currentTimeMillis() - 2 * ttl;
+    for (FileStatus entry : fs.listStatus(cacheDir)) {
+      fs.setTimes(entry.getPath(), old, -1);
+    }
+
+    // The next application reuses log4j.properties, which keeps it, and the old jar is
+    // not used by anything any more.
+    Files.write("a different jar", jar, Charsets.UTF_8);
+    Path newJarDir = new Path(stage(2)).getParent();
+    assertFalse(fs.exists(jarDir));
+    assertTrue(fs.exists(newJarDir));
+    assertEquals(2, fs.listStatus(cacheDir).length);
+  }
+
+  @Test
+  public void testExpiryDisabledByDefault() throws Exception {
+    Path jarDir = new Path(stage(1)).getParent();
+    FileSystem fs = jarDir.getFileSystem(conf);
+    fs.setTimes(jarDir, 0L, -1);
+    Files.write("a different jar", jar, Charsets.UTF_8);
+    stage(2);
+    assertTrue(fs.exists(jarDir));
+  }
+
+  @Test
+  public void testWithoutSharedCache() throws Exception {
+    conf.setBoolean(LocalDataHelper.STAGING_CACHE_ENABLED, false);
+    assertEquals(new Path(new Path(baseDir.toURI().toString(), "app1"), "app.jar"),
+        new Path(stage(1)));
+  }
+
+  @Test
+  public void testIsPublic() throws Exception {
+    Path path = new Path(stage(1));
+    FileSystem fs = path.getFileSystem(conf);
+    Map<Path, Boolean> dirs = Maps.newHashMap();
+    FileStatus stat = fs.getFileStatus(path);
+    // The temporary directory that the cache is in may not be listable by everyone.
+    fs.setPermission(new Path(baseDir.toURI().toString()), new FsPermission((short) 0755));
+    assertTrue(LocalDataHelper.isPublic(stat, conf, dirs));
+
+    fs.setPermission(path, new FsPermission((short) 0600));
+    assertFalse(LocalDataHelper.isPublic(fs.getFileStatus(path), conf, dirs));
+  }
+}
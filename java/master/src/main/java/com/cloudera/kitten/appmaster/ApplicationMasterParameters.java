@@ -43,6 +43,20 @@ public interface ApplicationMasterParameters {
    */
   int getAllowedFailures();
 
+  /**
+   * Returns how often, in milliseconds, this application master heartbeats to the
+   * ResourceManager when it is not waiting on any containers.
+   */
+  int getHeartbeatIntervalMillis();
+
+  /**
+   * Returns how often, in milliseconds, this application master heartbeats to the
+   * ResourceManager while it has outstanding container requests or its containers are
+   * completing. Equal to {@link #getHeartbeatIntervalMillis()} unless adaptive heartbeats
+   * are enabled.
+   */
+  int getFastHeartbeatIntervalMillis();
+
   /**
    * Returns the hostname that was set for this application master.
    */
@@ -32,4 +32,16 @@ public interface ApplicationMasterService extends Service {
    * monitoring.
    */
   boolean hasRunningContainers();
+
+  /**
+   * Returns the number of containers that the given container group is meant to have.
+   */
+  int getDesiredInstances(String group);
+
+  /**
+   * Grows or shrinks the given container group to the given number of containers, by
+   * requesting new ones or by cancelling requests and stopping running ones. Throws an
+   * {@code IllegalArgumentException} if there is no such group.
+   */
+  void setDesiredInstances(String group, int instances);
 }
@@ -14,6 +14,7 @@
  */
 package com.cloudera.kitten.appmaster.params.lua;
 
+import java.io.IOException;
 import java.net.URI;
 import java.util.Iterator;
 import java.util.List;
@@ -22,27 +23,34 @@ import java.util.Map;
 import org.apache.hadoop.conf.Configuration;
 
 import com.cloudera.kitten.ContainerLaunchParameters;
+import com.cloudera.kitten.ImmutableContainerLaunchParameters;
 import com.cloudera.kitten.appmaster.ApplicationMasterParameters;
 import com.cloudera.kitten.lua.LuaContainerLaunchParameters;
 import com.cloudera.kitten.lua.LuaFields;
 import com.cloudera.kitten.lua.LuaPair;
 import com.cloudera.kitten.lua.LuaWrapper;
-import com.cloudera.kitten.util.LocalDataHelper;
+import com.cloudera.kitten.util.EnvironmentCodec;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import org.apache.hadoop.net.NetUtils;
 
 public class LuaApplicationMasterParameters implements ApplicationMasterParameters {
   
+  private static final int DEFAULT_HEARTBEAT_MILLIS = 1000;
+
   private final LuaWrapper env;
   private final Configuration conf;
-  private final Map<String, URI> localToUris;
+  private final Supplier<Map<String, URI>> localToUris;
   private final String hostname;
+  // Held by every task source and scaling policy while it calls into the Lua environment,
+  // since they run on both the RPC handler threads and the scheduling thread.
+  private final Object luaLock = new Object();
 
   private int clientPort = 0;
   private String trackingUrl = "";
+  private List<ContainerLaunchParameters> containerLaunchParameters;
 
   public LuaApplicationMasterParameters(Configuration conf) {
     this(LuaFields.KITTEN_LUA_CONFIG_FILE, System.getenv(LuaFields.KITTEN_JOB_NAME), conf);
@@ -58,37 +66,57 @@ public class LuaApplicationMasterParameters implements ApplicationMasterParamete
   
   public LuaApplicationMasterParameters(String script, String jobName,
       Configuration conf, Map<String, Object> extras) {
-    this(script, jobName, conf, extras, loadLocalToUris());
+    // The file mapping is only needed once the containers are set up, so it is decoded then.
+    this(script, jobName, conf, extras, Suppliers.memoize(new Supplier<Map<String, URI>>() {
+      @Override
+      public Map<String, URI> get() {
+        return loadLocalToUris();
+      }
+    }));
   }
   
   public LuaApplicationMasterParameters(String script, String jobName,
       Configuration conf,
       Map<String, Object> extras,
       Map<String, URI> localToUris) {
-    this.env = new LuaWrapper(script, loadExtras(extras)).getTable(jobName);
+    this(script, jobName, conf, extras, Suppliers.ofInstance(localToUris));
+  }
+
+  private LuaApplicationMasterParameters(String script, String jobName,
+      Configuration conf,
+      Map<String, Object> extras,
+      Supplier<Map<String, URI>> localToUris) {
+    this.env = new LuaWrapper(script, loadExtras(extras), conf).getTable(jobName);
     this.conf = conf;
     this.localToUris = localToUris;
     this.hostname = NetUtils.getHostname();
   }
   
   private static Map<String, URI> loadLocalToUris() {
-    Map<String, String> e = System.getenv();
-    if (e.containsKey(LuaFields.KITTEN_LOCAL_FILE_TO_URI)) {
-      return LocalDataHelper.deserialize(e.get(LuaFields.KITTEN_LOCAL_FILE_TO_URI));
+    String value = System.getenv(LuaFields.KITTEN_LOCAL_FILE_TO_URI);
+    if (value != null) {
+      return EnvironmentCodec.decodeUris(readEncoded(value));
     }
     return ImmutableMap.of();
   }
   
   private static Map<String, Object> loadExtras(Map<String, Object> masterExtras) {
-    Map<String, String> e = System.getenv();
-    if (e.containsKey(LuaFields.KITTEN_EXTRA_LUA_VALUES)) {
-      Map<String, Object> extras = Maps.newHashMap(LocalDataHelper.deserialize(
-          e.get(LuaFields.KITTEN_EXTRA_LUA_VALUES)));
+    String value = System.getenv(LuaFields.KITTEN_EXTRA_LUA_VALUES);
+    if (value != null) {
+      Map<String, Object> extras = EnvironmentCodec.decodeValues(readEncoded(value));
       extras.putAll(masterExtras);
       return extras;
     }
     return masterExtras;
   }
+
+  private static byte[] readEncoded(String value) {
+    try {
+      return EnvironmentCodec.fromEnv(value);
+    } catch (IOException e) {
+      throw new RuntimeException("Could not read " + value, e);
+    }
+  }
   
   @Override
   public Configuration getConfiguration() {
@@ -130,18 +158,39 @@ public class LuaApplicationMasterParameters implements ApplicationMasterParamete
   }
   
   @Override
-  public List<ContainerLaunchParameters> getContainerLaunchParameters() {
-    if (!env.isNil(LuaFields.CONTAINERS)) {
-     List<ContainerLaunchParameters> clp = Lists.newArrayList();
-      Iterator<LuaPair> iter = env.getTable(LuaFields.CONTAINERS).arrayIterator();
-      while (iter.hasNext()) {
-        clp.add(new LuaContainerLaunchParameters(iter.next().value, conf, localToUris));
+  public int getHeartbeatIntervalMillis() {
+    LuaWrapper master = env.getTable(LuaFields.MASTER);
+    return master.isNil(LuaFields.HEARTBEAT) ? DEFAULT_HEARTBEAT_MILLIS :
+        master.getInteger(LuaFields.HEARTBEAT);
+  }
+
+  @Override
+  public int getFastHeartbeatIntervalMillis() {
+    LuaWrapper master = env.getTable(LuaFields.MASTER);
+    int heartbeat = getHeartbeatIntervalMillis();
+    return master.isNil(LuaFields.FAST_HEARTBEAT) ? heartbeat :
+        Math.min(heartbeat, master.getInteger(LuaFields.FAST_HEARTBEAT));
+  }
+
+  @Override
+  public synchronized List<ContainerLaunchParameters> getContainerLaunchParameters() {
+    if (containerLaunchParameters == null) {
+      // Evaluate the Lua tables and look up the resource files once, up front.
+      ImmutableList.Builder<ContainerLaunchParameters> clp = ImmutableList.builder();
+      if (!env.isNil(LuaFields.CONTAINERS)) {
+        Iterator<LuaPair> iter = env.getTable(LuaFields.CONTAINERS).arrayIterator();
+        while (iter.hasNext()) {
+          clp.add(ImmutableContainerLaunchParameters.copyOf(
+              new LuaContainerLaunchParameters(iter.next().value, conf, localToUris.get(),
+                  luaLock)));
+        }
+      } else if (!env.isNil(LuaFields.CONTAINER)) {
+        clp.add(ImmutableContainerLaunchParameters.copyOf(
+            new LuaContainerLaunchParameters(env.getValue(LuaFields.CONTAINER),
+                conf, localToUris.get(), luaLock)));
       }
-      return clp;
-    } else if (!env.isNil(LuaFields.CONTAINER)) {
-      return ImmutableList.<ContainerLaunchParameters>of(
-          new LuaContainerLaunchParameters(env.getTable(LuaFields.CONTAINER), conf, localToUris));
+      containerLaunchParameters = clp.build();
     }
-    return ImmutableList.of();
+    return containerLaunchParameters;
   }
 }
@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.Priority;
+import org.apache.hadoop.yarn.api.records.Resource;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Routes allocated containers to the target that requested them, using an index on the
+ * (priority, capability) pair of each request.
+ *
+ * <p>The resource manager may round a requested capability up to a multiple of its minimum
+ * allocation, so a lookup that misses the exact index falls back to the targets at the same
+ * priority whose request fits inside the allocated capability. So does a lookup whose exact
+ * targets are all full, since another group's smaller request may have been rounded up to
+ * their capability. The result of that fallback is remembered, so it is computed once for each
+ * shape of allocation.
+ */
+class AllocationDispatcher<T> {
+
+  private final Predicate<T> accepting;
+  private final Map<Key, List<T>> exact = Maps.newHashMap();
+  private final Map<Key, List<T>> aliases = Maps.newHashMap();
+  private final ListMultimap<Integer, Registration<T>> byPriority = ArrayListMultimap.create();
+
+  /**
+   * @param accepting Returns true for targets that still want more containers
+   */
+  public AllocationDispatcher(Predicate<T> accepting) {
+    this.accepting = Preconditions.checkNotNull(accepting);
+  }
+
+  public synchronized void register(Priority priority, Resource capability, T target) {
+    Key key = new Key(priority.getPriority(), capability);
+    List<T> targets = exact.get(key);
+    if (targets == null) {
+      targets = Lists.newArrayList();
+      exact.put(key, targets);
+    }
+    targets.add(target);
+    byPriority.put(key.priority, new Registration<T>(key, target));
+    aliases.clear();
+  }
+
+  /**
+   * Returns the target that should receive the given container, or null if no registered
+   * target both matches the container and still needs containers.
+   */
+  public synchronized T route(Container container) {
+    Key key = new Key(container.getPriority().getPriority(), container.getResource());
+    List<T> targets = exact.get(key);
+    if (targets != null) {
+      for (T target : targets) {
+        if (accepting.apply(target)) {
+          return target;
+        }
+      }
+    }
+    List<T> fitting = aliases.get(key);
+    if (fitting == null) {
+      fitting = fitting(key);
+      aliases.put(key, fitting);
+    }
+    for (T target : fitting) {
+      if ((targets == null || !targets.contains(target)) && accepting.apply(target)) {
+        return target;
+      }
+    }
+    return null;
+  }
+
+  // Targets at the same priority whose request fits in the allocation, best fit first.
+  private List<T> fitting(Key allocated) {
+    List<Registration<T>> candidates = Lists.newArrayList();
+    for (Registration<T> r : byPriority.get(allocated.priority)) {
+      if (r.key.memory <= allocated.memory && r.key.vcores <= allocated.vcores) {
+        int i = 0;
+        while (i < candidates.size() && candidates.get(i).key.memory >= r.key.memory) {
+          i++;
+        }
+        candidates.add(i, r);
+      }
+    }
+    List<T> targets = Lists.newArrayListWithCapacity(candidates.size());
+    for (Registration<T> r : candidates) {
+      targets.add(r.target);
+    }
+    return targets;
+  }
+
+  private static class Registration<T> {
+    public final Key key;
+    public final T target;
+
+    public Registration(Key key, T target) {
+      this.key = key;
+      this.target = target;
+    }
+  }
+
+  private static class Key {
+    public final int priority;
+    public final int memory;
+    public final int vcores;
+
+    public Key(int priority, Resource capability) {
+      this.priority = priority;
+      this.memory = capability.getMemory();
+      this.vcores = capability.getVirtualCores();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key k = (Key) other;
+      return priority == k.priority && memory == k.memory && vcores == k.vcores;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(priority, memory, vcores);
+    }
+  }
+}
@@ -16,47 +16,85 @@ package com.cloudera.kitten.appmaster.service;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.cloudera.kitten.ContainerLaunchContextFactory;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.ipc.Server;
+import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.security.Credentials;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.security.token.TokenIdentifier;
 import org.apache.hadoop.yarn.api.ApplicationConstants;
+import org.apache.hadoop.yarn.api.protocolrecords.AllocateResponse;
 import org.apache.hadoop.yarn.api.protocolrecords.RegisterApplicationMasterResponse;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
 import org.apache.hadoop.yarn.api.records.Container;
 import org.apache.hadoop.yarn.api.records.ContainerExitStatus;
 import org.apache.hadoop.yarn.api.records.ContainerId;
-import org.apache.hadoop.yarn.api.records.ContainerLaunchContext;
 import org.apache.hadoop.yarn.api.records.ContainerStatus;
 import org.apache.hadoop.yarn.api.records.FinalApplicationStatus;
+import org.apache.hadoop.yarn.api.records.NodeId;
 import org.apache.hadoop.yarn.api.records.NodeReport;
+import org.apache.hadoop.yarn.api.records.NodeState;
 import org.apache.hadoop.yarn.api.records.Priority;
 import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.api.records.ResourceRequest;
 import org.apache.hadoop.yarn.client.api.AMRMClient;
 import org.apache.hadoop.yarn.client.api.async.AMRMClientAsync;
 import org.apache.hadoop.yarn.client.api.async.NMClientAsync;
+import org.apache.hadoop.yarn.client.api.impl.AMRMClientImpl;
 import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.apache.hadoop.yarn.exceptions.YarnException;
+import org.apache.hadoop.yarn.util.ConverterUtils;
+import org.codehaus.jackson.JsonGenerator;
 
+import com.cloudera.kitten.ContainerGroupStatus;
 import com.cloudera.kitten.ContainerLaunchParameters;
+import com.cloudera.kitten.MasterProtocol;
+import com.cloudera.kitten.MasterTokens;
+import com.cloudera.kitten.ScalingPolicy;
+import com.cloudera.kitten.FrozenLaunchContext;
 import com.cloudera.kitten.appmaster.ApplicationMasterParameters;
 import com.cloudera.kitten.appmaster.ApplicationMasterService;
+import com.cloudera.kitten.task.TaskAgent;
+import com.cloudera.kitten.task.TaskProtocol;
+import com.cloudera.kitten.task.TaskSource;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.apache.hadoop.yarn.security.AMRMTokenIdentifier;
+import org.apache.hadoop.yarn.security.client.ClientToAMTokenIdentifier;
+import org.apache.hadoop.yarn.security.client.ClientToAMTokenSecretManager;
 
 public class ApplicationMasterServiceImpl extends
     AbstractScheduledService implements ApplicationMasterService,
@@ -64,21 +102,72 @@ public class ApplicationMasterServiceImpl extends
 
   private static final Log LOG = LogFactory.getLog(ApplicationMasterServiceImpl.class);
 
+  /**
+   * The number of threads that serve requests from clients and from the agents in the
+   * containers of task-queue groups.
+   */
+  public static final String RPC_HANDLERS = "kitten.master.rpc.handlers";
+  public static final int DEFAULT_RPC_HANDLERS = 8;
+
+  // The alias of the containers' token for the RPC server in their credentials.
+  private static final Text TASK_TOKEN_ALIAS = new Text("kitten.task.token");
+
+  // Exit statuses for containers that were lost through no fault of their own.
+  private static final Set<Integer> RETRYABLE = ImmutableSet.of(
+      ContainerExitStatus.ABORTED, ContainerExitStatus.PREEMPTED, ContainerExitStatus.DISKS_FAILED);
+
+  // States of nodes that should not be given any more containers.
+  private static final Set<NodeState> UNUSABLE = ImmutableSet.of(
+      NodeState.UNHEALTHY, NodeState.DECOMMISSIONED, NodeState.LOST);
+
   private final ApplicationMasterParameters parameters;
   private final YarnConfiguration conf;
-  private AtomicInteger totalRequested = new AtomicInteger();
-  private AtomicInteger totalCompleted = new AtomicInteger();
-  private final AtomicInteger totalFailures = new AtomicInteger();
-  private final List<ContainerTracker> trackers = Lists.newArrayList();
+  // Read by the heartbeat and NM callback threads while startUp is still adding to it.
+  private final List<ContainerTracker> trackers = new CopyOnWriteArrayList<ContainerTracker>();
+  private final ConcurrentMap<ContainerId, ContainerTracker> owners = Maps.newConcurrentMap();
+  private final ConcurrentMap<String, ContainerTracker> groups = Maps.newConcurrentMap();
+  // Clients can connect as soon as the master registers, before the groups are set up.
+  private final CountDownLatch groupsReady = new CountDownLatch(1);
+  private final AllocationDispatcher<ContainerTracker> dispatcher =
+      new AllocationDispatcher<ContainerTracker>(new Predicate<ContainerTracker>() {
+        @Override
+        public boolean apply(ContainerTracker tracker) {
+          return tracker.needsContainers();
+        }
+      });
 
-  private AMRMClientAsync resourceManager;
+  // The client that the async client wraps, which is the only one that can blacklist nodes.
+  private AMRMClient<AMRMClient.ContainerRequest> amrmClient;
+  private AMRMClientAsync<AMRMClient.ContainerRequest> resourceManager;
+  private final NodeHealthTracker health;
+  private final RecentFailures recentFailures;
+  private final int slowHeartbeat;
+  private final int fastHeartbeat;
+  private final AtomicInteger heartbeat = new AtomicInteger();
+  // Heartbeat quickly until this time after containers complete, to pick up replacements.
+  private volatile long fastUntil = 0L;
   private UserGroupInformation appSubmitterUgi;
+  private RPC.Server rpcServer;
+  private ApplicationAttemptId attemptId;
+  private ClientToAMTokenSecretManager secretManager;
+  private MasterMetrics metrics;
+  private MasterJournal journal = MasterJournal.disabled();
+  private ContainerLauncher launcher;
+  private final EventLog eventLog;
+  private TrackingServer trackingServer;
+  private String rpcAddress;
   private boolean hasRunningContainers = false;
   private Throwable throwable;
 
   public ApplicationMasterServiceImpl(ApplicationMasterParameters parameters, Configuration conf) {
     this.parameters = Preconditions.checkNotNull(parameters);
     this.conf = new YarnConfiguration(conf);
+    this.slowHeartbeat = parameters.getHeartbeatIntervalMillis();
+    this.fastHeartbeat = parameters.getFastHeartbeatIntervalMillis();
+    this.health = new NodeHealthTracker(conf);
+    this.recentFailures = new RecentFailures(conf.getInt(RecentFailures.MAX_RECENT_FAILURES,
+        RecentFailures.DEFAULT_MAX_RECENT_FAILURES));
+    this.eventLog = new EventLog(conf);
   }
 
   @Override
@@ -94,29 +183,58 @@ public class ApplicationMasterServiceImpl extends
   @Override
   protected void startUp() throws IOException {
     Credentials credentials = UserGroupInformation.getCurrentUser().getCredentials();
-    DataOutputBuffer dob = new DataOutputBuffer();
-    credentials.writeTokenStorageToStream(dob);
-    // Now remove the AM->RM token so that containers cannot access it.
+    // Remove the AM->RM token so that containers cannot access it.
     Iterator<Token<?>> iter = credentials.getAllTokens().iterator();
-    LOG.info("Executing with tokens:");
+    List<Text> kinds = Lists.newArrayList();
     while (iter.hasNext()) {
       Token<?> token = iter.next();
-      LOG.info(token);
+      kinds.add(token.getKind());
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Executing with token " + token);
+      }
       if (token.getKind().equals(AMRMTokenIdentifier.KIND_NAME)) {
         iter.remove();
       }
     }
-    ByteBuffer tokens = ByteBuffer.wrap(dob.getData(), 0, dob.getLength());
+    LOG.info("Executing with tokens of kinds " + kinds);
 
     // Create appSubmitterUgi and add original tokens to it
     String userName = System.getenv(ApplicationConstants.Environment.USER.name());
     appSubmitterUgi = UserGroupInformation.createRemoteUser(userName);
     appSubmitterUgi.addCredentials(credentials);
 
-    this.resourceManager = AMRMClientAsync.createAMRMClientAsync(1000, this);
+    heartbeat.set(slowHeartbeat);
+    this.metrics = new MasterMetrics();
+    eventLog.start();
+    this.amrmClient = new AMRMClientImpl<AMRMClient.ContainerRequest>() {
+      @Override
+      public AllocateResponse allocate(float progressIndicator) throws YarnException, IOException {
+        long start = System.currentTimeMillis();
+        try {
+          return super.allocate(progressIndicator);
+        } finally {
+          metrics.heartbeat(System.currentTimeMillis() - start);
+        }
+      }
+    };
+    this.resourceManager = AMRMClientAsync.createAMRMClientAsync(amrmClient, slowHeartbeat, this);
     this.resourceManager.init(conf);
     this.resourceManager.start();
 
+    startRpcServer(credentials.getSecretKey(MasterTokens.KEY_ALIAS));
+    startTrackingServer();
+
+    // The containers get the remaining tokens, and one of their own for the RPC server, but
+    // not the secret key that the client handed the master.
+    Credentials containerCredentials = new Credentials();
+    for (Token<?> token : credentials.getAllTokens()) {
+      containerCredentials.addToken(token.getService(), token);
+    }
+    containerCredentials.addToken(TASK_TOKEN_ALIAS, newRpcToken());
+    DataOutputBuffer dob = new DataOutputBuffer();
+    containerCredentials.writeTokenStorageToStream(dob);
+    ByteBuffer tokens = ByteBuffer.wrap(dob.getData(), 0, dob.getLength());
+
     RegisterApplicationMasterResponse registration;
     try {
       registration = resourceManager.registerApplicationMaster(
@@ -125,18 +243,154 @@ public class ApplicationMasterServiceImpl extends
           parameters.getTrackingUrl());
     } catch (Exception e) {
       LOG.error("Exception thrown registering application master", e);
+      groupsReady.countDown();
       stop();
       return;
     }
 
+    journal = openJournal();
+    launcher = new ContainerLauncher(conf);
     ContainerLaunchContextFactory factory = new ContainerLaunchContextFactory(
         registration.getMaximumResourceCapability(), tokens);
     for (ContainerLaunchParameters clp : parameters.getContainerLaunchParameters()) {
-      ContainerTracker tracker = new ContainerTracker(clp);
+      String group = clp.getGroup() != null ? clp.getGroup() : "container" + (trackers.size() + 1);
+      ContainerTracker tracker = new ContainerTracker(group, clp);
       tracker.init(factory);
       trackers.add(tracker);
+      if (groups.putIfAbsent(group, tracker) != null) {
+        LOG.warn("There is more than one container group named " + group +
+            ", only the first one can be resized");
+      }
+      dispatcher.register(tracker.priority, tracker.resource, tracker);
     }
     this.hasRunningContainers = true;
+    groupsReady.countDown();
+    updateHeartbeat();
+  }
+
+  // Serves the MasterProtocol to clients, at the port that is registered with the RM unless
+  // the application has its own, and the TaskProtocol to the agents in the containers.
+  // Both protocols only answer callers that authenticate with a token from this master's
+  // secret manager: the containers are handed one in their credentials, and the client
+  // creates its own from the key that it handed the master, if it did.
+  private void startRpcServer(byte[] key) throws IOException {
+    String containerId = System.getenv(ApplicationConstants.Environment.CONTAINER_ID.name());
+    attemptId = containerId != null ?
+        ConverterUtils.toContainerId(containerId).getApplicationAttemptId() :
+        ApplicationAttemptId.newInstance(ApplicationId.newInstance(0L, 0), 0);
+    if (key == null) {
+      LOG.warn("The client did not hand over a key, so it will not be able to resize groups");
+      key = MasterTokens.newKey();
+    }
+    secretManager = new ClientToAMTokenSecretManager(attemptId, key);
+    rpcServer = new RPC.Builder(conf)
+        .setProtocol(MasterProtocol.class)
+        .setInstance(new MasterHandler(this))
+        .setBindAddress("0.0.0.0")
+        .setPort(0)
+        .setNumHandlers(conf.getInt(RPC_HANDLERS, DEFAULT_RPC_HANDLERS))
+        .setSecretManager(secretManager)
+        .build();
+    rpcServer.addProtocol(RPC.RpcKind.RPC_WRITABLE, TaskProtocol.class,
+        new TaskHandler(this, recentFailures));
+    rpcServer.start();
+    InetSocketAddress addr = NetUtils.getConnectAddress(rpcServer);
+    rpcAddress = NetUtils.getHostPortString(addr);
+    if (parameters.getClientPort() == 0) {
+      parameters.setClientPort(addr.getPort());
+    }
+    LOG.info("Serving RPCs at " + rpcAddress);
+  }
+
+  // Recovers the work of earlier attempts and records the work of this one, unless the
+  // journal is turned off.
+  private MasterJournal openJournal() {
+    String containerId = System.getenv(ApplicationConstants.Environment.CONTAINER_ID.name());
+    if (containerId == null ||
+        !conf.getBoolean(MasterJournal.JOURNAL_ENABLED, MasterJournal.DEFAULT_JOURNAL_ENABLED)) {
+      return MasterJournal.disabled();
+    }
+    try {
+      return new MasterJournal(conf,
+          ConverterUtils.toContainerId(containerId).getApplicationAttemptId());
+    } catch (IOException e) {
+      LOG.warn("Could not open the journal, so a restarted master will redo all of the work", e);
+      return MasterJournal.disabled();
+    }
+  }
+
+  // Serves the state of the job at the tracking URL, unless the application has its own.
+  private void startTrackingServer() {
+    if (!parameters.getTrackingUrl().isEmpty()) {
+      return;
+    }
+    try {
+      trackingServer = new TrackingServer(conf, metrics,
+          new JobStateWriter(this, health, recentFailures), recentFailures,
+          eventLog);
+      trackingServer.start();
+    } catch (IOException e) {
+      LOG.warn("Could not start the tracking server", e);
+      trackingServer = null;
+      return;
+    }
+    // The hostname can be followed by a slash and the IP address.
+    String host = parameters.getHostname().split("/")[0];
+    parameters.setTrackingUrl("http://" + host + ":" + trackingServer.getPort() + "/");
+  }
+
+  @Override
+  public int getDesiredInstances(String group) {
+    return getTracker(group).desired.get();
+  }
+
+  @Override
+  public void setDesiredInstances(String group, int instances) {
+    Preconditions.checkArgument(instances >= 0, "Invalid number of instances: %s", instances);
+    getTracker(group).resize(instances);
+    updateHeartbeat();
+  }
+
+  List<? extends ContainerGroup> getGroups() {
+    return trackers;
+  }
+
+  // Returns the group of the given container, or null if it is not one of ours.
+  ContainerGroup getOwner(ContainerId containerId) {
+    return owners.get(containerId);
+  }
+
+  MasterJournal getJournal() {
+    return journal;
+  }
+
+  private ContainerTracker getTracker(String group) {
+    Uninterruptibles.awaitUninterruptibly(groupsReady, 30, TimeUnit.SECONDS);
+    ContainerTracker tracker = groups.get(group);
+    if (tracker == null) {
+      throw new IllegalArgumentException("Unknown container group: " + group);
+    }
+    return tracker;
+  }
+
+  // Returns a token for the RPC server, for the user that submitted the application.
+  private Token<ClientToAMTokenIdentifier> newRpcToken() {
+    return MasterTokens.newToken(secretManager, attemptId, appSubmitterUgi.getShortUserName(),
+        NetUtils.createSocketAddr(rpcAddress));
+  }
+
+  // Throws unless the caller authenticated with one of the tokens from newRpcToken.
+  static void checkRpcToken() throws IOException {
+    UserGroupInformation caller = Server.getRemoteUser();
+    if (caller != null) {
+      for (TokenIdentifier id : caller.getTokenIdentifiers()) {
+        if (id instanceof ClientToAMTokenIdentifier) {
+          return;
+        }
+      }
+    }
+    throw new AccessControlException("Callers must authenticate with a token for " +
+        "this application master");
   }
   
   @Override
@@ -149,24 +403,67 @@ public class ApplicationMasterServiceImpl extends
       if (tracker.hasRunningContainers()) {
         tracker.kill();
       }
+      tracker.logLocality();
+      if (tracker.tasks != null) {
+        tracker.tasks.logStatus();
+      }
     }
     FinalApplicationStatus status;
     String message = null;
-    if (state() == State.FAILED || totalFailures.get() > parameters.getAllowedFailures()) {
-      //TODO: diagnostics
+    int failures = getFailures();
+    if (state() == State.FAILED || throwable != null ||
+        failures > parameters.getAllowedFailures()) {
       status = FinalApplicationStatus.FAILED;
-      if (throwable != null) {
-        message = throwable.getLocalizedMessage();
-      }
+      message = getDiagnostics(failures);
     } else {
       status = FinalApplicationStatus.SUCCEEDED;
     }
     LOG.info("Sending finish request with status = " + status);
-    try {
-      resourceManager.unregisterApplicationMaster(status, message, null);
-    } catch (Exception e) {
-      LOG.error("Error finishing application master", e);
+    boolean unregistered = false;
+    if (resourceManager != null) {
+      try {
+        resourceManager.unregisterApplicationMaster(status, message, null);
+        unregistered = true;
+      } catch (Exception e) {
+        LOG.error("Error finishing application master", e);
+      }
+      resourceManager.stop();
+    }
+    // Once the master has unregistered, it will not be restarted.
+    journal.close(unregistered);
+    // Stopped last, so that the replies to any resizes that led to the shutdown get out.
+    if (rpcServer != null) {
+      rpcServer.stop();
+    }
+    if (launcher != null) {
+      launcher.stop();
+    }
+    if (trackingServer != null) {
+      trackingServer.stop();
+    }
+    if (metrics != null) {
+      metrics.unregister();
+    }
+    eventLog.stop();
+  }
+
+  // Says why the job failed, for the diagnostics of the application report.
+  private String getDiagnostics(int failures) {
+    if (throwable != null) {
+      return throwable.getLocalizedMessage();
+    }
+    StringBuilder sb = new StringBuilder();
+    if (failures > parameters.getAllowedFailures()) {
+      sb.append(failures).append(" containers and tasks failed, more than the ")
+          .append(parameters.getAllowedFailures()).append(" that are tolerated.");
+    } else {
+      sb.append("The application master failed.");
+    }
+    List<RecentFailures.Failure> recent = recentFailures.since(0L);
+    if (!recent.isEmpty()) {
+      sb.append(" The last failure was ").append(recent.get(recent.size() - 1)).append('.');
     }
+    return sb.toString();
   }
 
   @Override
@@ -176,54 +473,115 @@ public class ApplicationMasterServiceImpl extends
   
   @Override
   protected void runOneIteration() throws Exception {
-    if (totalFailures.get() > parameters.getAllowedFailures() ||
-        totalCompleted.get() == totalRequested.get()) {
+    for (ContainerTracker tracker : trackers) {
+      if (tracker.tasks != null && tracker.tasks.getError() != null && throwable == null) {
+        // The rest of the group's tasks can never be handed out.
+        RuntimeException error = tracker.tasks.getError();
+        throwable = new IOException("Could not get the next task of group " + tracker.group +
+            ": " + error.getMessage(), error);
+        stop();
+        return;
+      }
+      tracker.autoscale();
+      tracker.checkGang();
+    }
+    updateHeartbeat();
+    journal.flush();
+    if (getFailures() > parameters.getAllowedFailures() || isIdle()) {
       stop();
     }
   }
 
+  // The failed containers and tasks of every group.
+  int getFailures() {
+    int failures = 0;
+    for (ContainerTracker tracker : trackers) {
+      failures += tracker.states.get(ContainerStates.State.FAILED);
+      if (tracker.tasks != null) {
+        failures += tracker.tasks.getFailed();
+      }
+    }
+    return failures;
+  }
+
+  // Whether no group is waiting for containers or has any running.
+  private boolean isIdle() {
+    for (ContainerTracker tracker : trackers) {
+      if (!tracker.states.isIdle()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   // AMRMClientHandler methods
   @Override
   public void onContainersCompleted(List<ContainerStatus> containerStatuses) {
-    LOG.info(containerStatuses.size() + " containers have completed");
+    int[] outcomes = new int[ContainerStates.State.values().length];
     for (ContainerStatus status : containerStatuses) {
-      int exitStatus = status.getExitStatus();
-      if (0 != exitStatus) {
-        // container failed
-        if (ContainerExitStatus.ABORTED != exitStatus) {
-          totalCompleted.incrementAndGet();
-          totalFailures.incrementAndGet();
-        } else {
-          // container was killed by framework, possibly preempted
-          // we should re-try as the container was lost for some reason
-        }
-      } else {
-        // nothing to do
-        // container completed successfully
-        totalCompleted.incrementAndGet();
-        LOG.info("Container id = " + status.getContainerId() + " completed successfully");
+      ContainerTracker tracker = owners.remove(status.getContainerId());
+      if (tracker == null) {
+        // Not one of ours, e.g., a container that we released on allocation.
+        LOG.debug("Ignoring completion of unknown container id = " + status.getContainerId());
+        continue;
+      }
+      ContainerStates.State done = tracker.containerCompleted(status);
+      if (done != null) {
+        outcomes[done.ordinal()]++;
       }
     }
+    LOG.info(String.format("%d container(s) have completed: %d succeeded or stopped, %d failed, "
+        + "%d lost", containerStatuses.size(), outcomes[ContainerStates.State.COMPLETED.ordinal()],
+        outcomes[ContainerStates.State.FAILED.ordinal()],
+        outcomes[ContainerStates.State.ABORTED.ordinal()]));
+    if (!containerStatuses.isEmpty()) {
+      fastUntil = System.currentTimeMillis() + slowHeartbeat;
+    }
+    updateHeartbeat();
   }
 
   @Override
   public void onContainersAllocated(List<Container> allocatedContainers) {
-    LOG.info("Allocating " + allocatedContainers.size() + " container(s)");
-    Set<Container> assigned = Sets.newHashSet();
-    for (ContainerTracker tracker : trackers) {
-      if (tracker.needsContainers()) {
-        for (Container allocated : allocatedContainers) {
-          if (!assigned.contains(allocated) && tracker.matches(allocated)) {
-            tracker.launchContainer(allocated);
-            assigned.add(allocated);
-          }
-        }
+    int released = 0;
+    Set<NodeId> nodes = Sets.newHashSet();
+    for (Container allocated : allocatedContainers) {
+      ContainerTracker tracker = dispatcher.route(allocated);
+      if (tracker != null) {
+        tracker.launchContainer(allocated);
+        nodes.add(allocated.getNodeId());
+      } else {
+        resourceManager.releaseAssignedContainer(allocated.getId());
+        eventLog.record(EventLog.Type.RELEASED, null, allocated.getId(), allocated.getNodeId());
+        released++;
       }
     }
-    if (assigned.size() < allocatedContainers.size()) {
-      LOG.error(String.format("Not all containers were allocated (%d out of %d)", assigned.size(),
+    LOG.info("Launching " + (allocatedContainers.size() - released) + " allocated container(s) " +
+        "on " + nodes.size() + " node(s)");
+    if (released > 0) {
+      LOG.warn(String.format("Released %d unmatched container(s) out of %d", released,
           allocatedContainers.size()));
-      stop();
+    }
+    updateHeartbeat();
+  }
+
+  /**
+   * Switches to the fast heartbeat while any container group is waiting for containers or
+   * containers have just completed, and back to the slow one once the job is steady.
+   */
+  private void updateHeartbeat() {
+    if (fastHeartbeat >= slowHeartbeat || resourceManager == null) {
+      return;
+    }
+    boolean busy = System.currentTimeMillis() < fastUntil;
+    for (ContainerTracker tracker : trackers) {
+      busy |= tracker.needsContainers();
+    }
+    int interval = busy ? fastHeartbeat : slowHeartbeat;
+    if (heartbeat.getAndSet(interval) != interval) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Setting heartbeat interval to " + interval + "ms");
+      }
+      resourceManager.setHeartbeatInterval(interval);
     }
   }
 
@@ -234,15 +592,53 @@ public class ApplicationMasterServiceImpl extends
 
   @Override
   public void onNodesUpdated(List<NodeReport> nodeReports) {
-    //TODO
+    List<String> additions = Lists.newArrayList();
+    List<String> removals = Lists.newArrayList();
+    for (NodeReport report : nodeReports) {
+      String host = report.getNodeId().getHost();
+      NodeState state = report.getNodeState();
+      if (UNUSABLE.contains(state)) {
+        if (health.nodeUnusable(host)) {
+          LOG.info("Blacklisting node " + host + " in state " + state);
+          additions.add(host);
+        }
+        // The RM reports the containers on lost and decommissioned nodes as completed, but
+        // those on an unhealthy node keep running, so move them somewhere else.
+        if (state == NodeState.UNHEALTHY) {
+          for (ContainerTracker tracker : trackers) {
+            tracker.evacuate(report.getNodeId());
+          }
+        }
+      } else if (state == NodeState.RUNNING && health.nodeUsable(host)) {
+        LOG.info("Node " + host + " is usable again");
+        removals.add(host);
+      }
+    }
+    updateBlacklist(additions, removals);
+  }
+
+  // Counts a container failure against the given host, blacklisting it if it fails too often.
+  private void nodeFailed(String host) {
+    if (health.containerFailed(host, resourceManager.getClusterNodeCount())) {
+      LOG.warn("Blacklisting node " + host + " after " + health.getFailures(host) +
+          " container failures");
+      updateBlacklist(ImmutableList.of(host), ImmutableList.<String>of());
+    }
+  }
+
+  private void updateBlacklist(List<String> additions, List<String> removals) {
+    if (!additions.isEmpty() || !removals.isEmpty()) {
+      amrmClient.updateBlacklist(additions, removals);
+    }
   }
 
   @Override
   public float getProgress() {
     int num = 0, den = 0;
     for (ContainerTracker tracker : trackers) {
-      num += tracker.completed.get();
-      den += tracker.parameters.getNumInstances();
+      int done = tracker.states.getDone();
+      num += done;
+      den += done + tracker.states.getLive() + tracker.states.get(ContainerStates.State.REQUESTED);
     }
     if (den == 0) {
       return 0.0f;
@@ -256,56 +652,106 @@ public class ApplicationMasterServiceImpl extends
     stop();
   }
 
-  private class ContainerTracker implements NMClientAsync.CallbackHandler {
+  private class ContainerTracker implements ContainerGroup, NMClientAsync.CallbackHandler {
+    private final String group;
     private final ContainerLaunchParameters parameters;
-    private final ConcurrentMap<ContainerId, Container> containers = Maps.newConcurrentMap();
+    private final TaskQueue tasks;
+    private final ScalingPolicy scalingPolicy;
+    // Containers that were stopped to shrink the group.
+    private final Set<ContainerId> stopping =
+        Collections.newSetFromMap(Maps.<ContainerId, Boolean>newConcurrentMap());
+    // Containers that were stopped to move them off an unhealthy node.
+    private final Set<ContainerId> evacuating =
+        Collections.newSetFromMap(Maps.<ContainerId, Boolean>newConcurrentMap());
+    private final ContainerStates states = new ContainerStates();
+    private ContainerGroupMetrics groupMetrics;
+    // The instance indices of lost or stopped containers, which are handed out again lowest
+    // first, so that a group that shrinks and grows again keeps its indices dense.
+    private final PriorityBlockingQueue<Integer> freeIndices = new PriorityBlockingQueue<Integer>();
+    // The allocated containers of a gang-scheduled group that wait for the rest to be allocated.
+    private final HeldContainers held;
 
-    private AtomicInteger needed = new AtomicInteger();
-    private AtomicInteger started = new AtomicInteger();
-    private AtomicInteger completed = new AtomicInteger();
-    private AtomicInteger failed = new AtomicInteger();
-    private NMClientAsync nodeManager;
+    private AtomicInteger desired = new AtomicInteger();
+    private AtomicInteger retries = new AtomicInteger();
+    private AtomicInteger requests = new AtomicInteger();
+    private AtomicInteger nextIndex = new AtomicInteger();
+    private AtomicInteger nodeLocal = new AtomicInteger();
+    private AtomicInteger rackLocal = new AtomicInteger();
+    private AtomicInteger offSwitch = new AtomicInteger();
     private Resource resource;
     private Priority priority;
-    private ContainerLaunchContext ctxt;
+    private LocalityPreference locality = LocalityPreference.NONE;
+    private FrozenLaunchContext ctxt;
 
-    public ContainerTracker(ContainerLaunchParameters parameters) {
+    public ContainerTracker(String group, ContainerLaunchParameters parameters) {
+      this.group = group;
       this.parameters = parameters;
+      TaskSource source = parameters.getTaskSource();
+      this.tasks = source == null ? null : new TaskQueue(group, source);
+      this.scalingPolicy = parameters.getScalingPolicy();
+      this.held = new HeldContainers(parameters.getGangTimeoutMillis());
     }
 
     public void init(ContainerLaunchContextFactory factory) {
-      this.nodeManager = NMClientAsync.createNMClientAsync(this);
-      nodeManager.init(conf);
-      nodeManager.start();
-
-      this.ctxt = factory.create(parameters);
+      this.groupMetrics = metrics.addGroup(group, states);
+      this.ctxt = factory.createFrozen(parameters);
+      if (tasks != null) {
+        this.ctxt = ctxt.withEnvironment(ImmutableMap.of(TaskAgent.TASK_SERVER, rpcAddress));
+      }
       this.resource = factory.createResource(parameters);
       this.priority = factory.createPriority(parameters.getPriority());
-      AMRMClient.ContainerRequest containerRequest = new AMRMClient.ContainerRequest(
-          resource,
-          null, // nodes
-          null, // racks
-          priority);
-      int numInstances = parameters.getNumInstances();
-      for (int j = 0; j < numInstances; j++) {
-        resourceManager.addContainerRequest(containerRequest);
+      String glob = parameters.getLocalityGlob();
+      if (glob != null) {
+        try {
+          this.locality = LocalityPreference.forHdfsGlob(glob, conf);
+        } catch (IOException e) {
+          LOG.warn("Could not compute locality for " + glob + ", requesting without it", e);
+        }
+      }
+      MasterJournal.GroupState recovered = journal.getRecovered(group);
+      int numInstances = recovered.getDesired() >= 0 ? recovered.getDesired() :
+          parameters.getNumInstances();
+      int remaining = numInstances;
+      if (tasks != null) {
+        tasks.skip(recovered.getTasks());
+      } else if (!recovered.getCompleted().isEmpty()) {
+        // Only run the instances that earlier attempts did not finish.
+        for (int i = 0; i < numInstances; i++) {
+          if (!recovered.getCompleted().contains(i)) {
+            freeIndices.add(i);
+          }
+        }
+        nextIndex.set(numInstances);
+        remaining = freeIndices.size();
+        states.restore(ContainerStates.State.COMPLETED, numInstances - remaining);
+        LOG.info("Recovered " + (numInstances - remaining) + " completed container(s) of group " +
+            group);
+      }
+      states.restore(ContainerStates.State.FAILED, recovered.getFailed());
+      desired.set(numInstances);
+      retries.set(parameters.getRetries());
+      states.request(remaining);
+      for (int j = 0; j < remaining; j++) {
+        addContainerRequest();
       }
-      needed.set(numInstances);
-      totalRequested.addAndGet(numInstances);
     }
 
     @Override
     public void onContainerStarted(ContainerId containerId, Map<String, ByteBuffer> allServiceResponse) {
-      Container container = containers.get(containerId);
-      if (container != null) {
-        LOG.info("Starting container id = " + containerId);
-        started.incrementAndGet();
-        nodeManager.getContainerStatusAsync(containerId, container.getNodeId());
+      metrics.nodeManagerResponded();
+      ContainerStates.Entry entry = states.get(containerId);
+      if (entry != null &&
+          entry.transition(ContainerStates.State.LAUNCHING, ContainerStates.State.RUNNING)) {
+        eventLog.record(EventLog.Type.STARTED, group, containerId, entry.getContainer().getNodeId());
+        groupMetrics.started(entry);
+        metrics.nodeManagerRequested();
+        launcher.getContainerStatusAsync(containerId, entry.getContainer().getNodeId(), this);
       }
     }
 
     @Override
     public void onContainerStatusReceived(ContainerId containerId, ContainerStatus containerStatus) {
+      metrics.nodeManagerResponded();
       if (LOG.isDebugEnabled()) {
         LOG.debug("Received status for container: " + containerId + " = " + containerStatus);
       }
@@ -313,57 +759,426 @@ public class ApplicationMasterServiceImpl extends
 
     @Override
     public void onContainerStopped(ContainerId containerId) {
-      LOG.info("Stopping container id = " + containerId);
-      containers.remove(containerId);
-      completed.incrementAndGet();
+      metrics.nodeManagerResponded();
+      // The RM reports it as completed, which is when it is finished.
+      eventLog.record(EventLog.Type.STOPPED, group, containerId, null);
     }
 
     @Override
     public void onStartContainerError(ContainerId containerId, Throwable throwable) {
+      metrics.nodeManagerResponded();
       LOG.warn("Start container error for container id = " + containerId, throwable);
-      containers.remove(containerId);
-      completed.incrementAndGet();
-      failed.incrementAndGet();
+      ContainerStates.Entry entry = states.remove(containerId);
+      if (entry == null) {
+        return;
+      }
+      eventLog.record(EventLog.Type.START_FAILED, group, containerId,
+          entry.getContainer().getNodeId());
+      // Give it back rather than waiting for the RM to notice that it was never used.
+      owners.remove(containerId);
+      resourceManager.releaseAssignedContainer(containerId);
+      ContainerStates.State done;
+      if (stopping.remove(containerId)) {
+        // It was to be stopped to shrink its group anyway, which it now is.
+        freeIndices.add(entry.getIndex());
+        done = ContainerStates.State.COMPLETED;
+      } else if (evacuating.remove(containerId)) {
+        // Its node went bad, which may be why it did not start; replace it on another one.
+        if (isRunning()) {
+          replace(entry.getIndex());
+          done = ContainerStates.State.ABORTED;
+        } else {
+          done = ContainerStates.State.COMPLETED;
+        }
+      } else {
+        String host = entry.getContainer().getNodeId().getHost();
+        recentFailures.record(group, containerId.toString(), host, ContainerExitStatus.INVALID,
+            "Could not start: " + throwable);
+        journal.containerFailed(group);
+        nodeFailed(host);
+        done = ContainerStates.State.FAILED;
+      }
+      if (entry.finish(done)) {
+        groupMetrics.finished(entry, done);
+      }
     }
 
     @Override
     public void onGetContainerStatusError(ContainerId containerId, Throwable throwable) {
+      metrics.nodeManagerResponded();
       LOG.error("Could not get status for container: " + containerId, throwable);
     }
 
     @Override
     public void onStopContainerError(ContainerId containerId, Throwable throwable) {
+      metrics.nodeManagerResponded();
       LOG.error("Failed to stop container: " + containerId, throwable);
-      completed.incrementAndGet();
     }
 
     public boolean needsContainers() {
-      return needed.get() > 0;
+      return states.get(ContainerStates.State.REQUESTED) > 0;
+    }
+
+    public void launchContainer(Container c) {
+      Integer index = freeIndices.poll();
+      if (index == null) {
+        index = nextIndex.getAndIncrement();
+      }
+      eventLog.record(EventLog.Type.ALLOCATED, group, c.getId(), c.getNodeId(), index);
+      ContainerStates.Entry entry = states.allocate(c, index);
+      groupMetrics.allocated(entry);
+      owners.put(c.getId(), this);
+      removeContainerRequest(c);
+      if (parameters.isGang()) {
+        hold(entry);
+      } else {
+        start(entry);
+      }
     }
 
-    public boolean matches(Container c) {
-      return true; // TODO
+    private void start(ContainerStates.Entry entry) {
+      Container c = entry.getContainer();
+      entry.transition(ContainerStates.State.ALLOCATED, ContainerStates.State.LAUNCHING);
+      metrics.nodeManagerRequested();
+      launcher.startContainerAsync(c, ctxt.create(group, entry.getIndex(), desired.get()), this);
     }
 
-    public void launchContainer(Container c) {
-      LOG.info("Launching container id = " + c.getId() + " on node = " + c.getNodeId());
-      needed.decrementAndGet();
-      containers.put(c.getId(), c);
-      nodeManager.startContainerAsync(c, ctxt);
+    private synchronized void hold(ContainerStates.Entry entry) {
+      held.hold(entry, System.currentTimeMillis());
+      startGangIfAllocated();
+    }
+
+    // Starts the held containers together once the group is not waiting for any more.
+    private synchronized void startGangIfAllocated() {
+      List<ContainerStates.Entry> gang = held.takeIfAllocated(
+          states.get(ContainerStates.State.REQUESTED));
+      if (gang.isEmpty()) {
+        return;
+      }
+      LOG.info("Starting " + gang.size() + " container(s) of gang-scheduled group " + group);
+      for (ContainerStates.Entry e : gang) {
+        start(e);
+      }
+    }
+
+    /**
+     * Gives back the containers that a gang-scheduled group has held for longer than its
+     * timeout and requests them again, so that a group that cannot be allocated in full does
+     * not keep resources from other applications while it waits.
+     */
+    public synchronized void checkGang() {
+      List<ContainerStates.Entry> expired = held.expire(System.currentTimeMillis());
+      if (expired.isEmpty()) {
+        return;
+      }
+      LOG.info("Releasing " + expired.size() + " container(s) of gang-scheduled group " + group +
+          " after waiting " + parameters.getGangTimeoutMillis() + " ms for " +
+          states.get(ContainerStates.State.REQUESTED) + " more, and requesting them again");
+      for (ContainerStates.Entry e : expired) {
+        requeue(e);
+      }
+    }
+
+    // Gives a container that was never started back to the RM and requests another one.
+    private void requeue(ContainerStates.Entry entry) {
+      release(entry);
+      replace(entry.getIndex());
+      if (entry.finish(ContainerStates.State.ABORTED)) {
+        groupMetrics.finished(entry, ContainerStates.State.ABORTED);
+      }
+    }
+
+    private void release(ContainerStates.Entry entry) {
+      Container c = entry.getContainer();
+      states.remove(c.getId());
+      owners.remove(c.getId());
+      resourceManager.releaseAssignedContainer(c.getId());
+      eventLog.record(EventLog.Type.RELEASED, group, c.getId(), c.getNodeId());
+    }
+
+    /**
+     * Grows the group by requesting more containers, or shrinks it by cancelling outstanding
+     * requests and then stopping the running containers with the highest instance indices.
+     */
+    public synchronized void resize(int instances) {
+      int delta = instances - desired.getAndSet(instances);
+      if (delta == 0) {
+        return;
+      }
+      LOG.info("Resizing container group " + group + " from " + (instances - delta) + " to " +
+          instances + " container(s)");
+      journal.resized(group, instances);
+      eventLog.record(EventLog.Type.RESIZED, group, null, null, instances);
+      if (delta > 0) {
+        states.request(delta);
+        for (int i = 0; i < delta; i++) {
+          addContainerRequest();
+        }
+        return;
+      }
+      int surplus = -delta;
+      while (surplus > 0 && states.cancel()) {
+        removeMatchingRequest(ResourceRequest.ANY);
+        surplus--;
+      }
+      // Give back held containers before stopping running ones.
+      ContainerStates.Entry last;
+      while (surplus > 0 && (last = held.removeLast()) != null) {
+        release(last);
+        freeIndices.add(last.getIndex());
+        if (last.finish(ContainerStates.State.COMPLETED)) {
+          groupMetrics.finished(last, ContainerStates.State.COMPLETED);
+        }
+        surplus--;
+      }
+      startGangIfAllocated();
+      if (surplus > 0) {
+        List<ContainerStates.Entry> byIndex = Lists.newArrayList(states.getEntries());
+        Collections.sort(byIndex, new Comparator<ContainerStates.Entry>() {
+          @Override
+          public int compare(ContainerStates.Entry a, ContainerStates.Entry b) {
+            return b.getIndex() - a.getIndex();
+          }
+        });
+        for (ContainerStates.Entry e : byIndex) {
+          Container c = e.getContainer();
+          if (surplus > 0 && !evacuating.contains(c.getId()) && stopping.add(c.getId())) {
+            stopContainer(c);
+            surplus--;
+          }
+        }
+      }
+    }
+
+    /**
+     * Resizes the group to the size that its scaling policy asks for, if it has one.
+     */
+    public void autoscale() {
+      if (scalingPolicy == null) {
+        return;
+      }
+      ContainerGroupStatus status = new ContainerGroupStatus(group, desired.get(),
+          states.getLive(), states.get(ContainerStates.State.REQUESTED), states.getDone(),
+          states.get(ContainerStates.State.FAILED), tasks == null ? -1 : tasks.getQueued());
+      try {
+        int instances = scalingPolicy.getDesiredInstances(status);
+        if (instances != status.getDesired()) {
+          resize(instances);
+        }
+      } catch (RuntimeException e) {
+        LOG.warn("Error running the scaling policy for container group " + group, e);
+      }
+    }
+
+    /**
+     * Finishes a container that the RM reports as completed. A replacement, if it needs one,
+     * is requested before the container is finished, so the group is never seen to be idle
+     * in between.
+     */
+    public ContainerStates.State containerCompleted(ContainerStatus status) {
+      ContainerId containerId = status.getContainerId();
+      ContainerStates.Entry entry = states.remove(containerId);
+      if (entry == null) {
+        // Already finished, e.g., because it could not be started.
+        LOG.debug("Ignoring completion of finished container id = " + containerId);
+        return null;
+      }
+      int index = entry.getIndex();
+      int exitStatus = status.getExitStatus();
+      if (tasks != null) {
+        tasks.containerLost(containerId.toString());
+      }
+      ContainerStates.State done;
+      if (stopping.remove(containerId)) {
+        // We stopped it to shrink its group, so it is neither a failure nor to be replaced,
+        // but its index goes to the next container if the group grows again.
+        freeIndices.add(index);
+        done = ContainerStates.State.COMPLETED;
+      } else if (evacuating.remove(containerId)) {
+        // We stopped it because its node went bad, so it gets a replacement on another node.
+        if (isRunning()) {
+          replace(index);
+          done = ContainerStates.State.ABORTED;
+        } else {
+          done = ContainerStates.State.COMPLETED;
+        }
+      } else if (0 == exitStatus) {
+        journal.containerCompleted(group, index);
+        done = ContainerStates.State.COMPLETED;
+      } else if (RETRYABLE.contains(exitStatus) && isRunning() && retry(index)) {
+        // container was killed by framework, possibly preempted, so ask for another one
+        done = ContainerStates.State.ABORTED;
+      } else {
+        LOG.warn("Container id = " + containerId + " failed with exit status = " + exitStatus);
+        String host = entry.getContainer().getNodeId().getHost();
+        recentFailures.record(group, containerId.toString(), host, exitStatus,
+            status.getDiagnostics());
+        journal.containerFailed(group);
+        nodeFailed(host);
+        done = ContainerStates.State.FAILED;
+      }
+      // Make sure that someone is left to run the tasks of a lost container.
+      if (done != ContainerStates.State.ABORTED && tasks != null && tasks.hasRequeued() &&
+          desired.get() > 0 && states.get(ContainerStates.State.REQUESTED) == 0 &&
+          states.getLive() <= 1 && isRunning() && retry(index)) {
+        LOG.info("Requesting a container for the remaining tasks of group " + group);
+      }
+      eventLog.record(done == ContainerStates.State.ABORTED ? EventLog.Type.LOST :
+          done == ContainerStates.State.FAILED ? EventLog.Type.FAILED : EventLog.Type.COMPLETED,
+          group, containerId, entry.getContainer().getNodeId(), exitStatus);
+      if (entry.finish(done)) {
+        groupMetrics.finished(entry, done);
+      }
+      return done;
+    }
+
+    /**
+     * Requests a replacement for the container with the given instance index that was lost,
+     * if this tracker still has retries left in its budget. The replacement takes over the
+     * index, so that the group still covers every instance.
+     */
+    public boolean retry(int index) {
+      if (retries.decrementAndGet() < 0) {
+        LOG.warn("Retry budget exhausted for container group " + group);
+        return false;
+      }
+      replace(index);
+      return true;
+    }
+
+    /**
+     * Requests a replacement for the container with the given instance index without
+     * charging it to the retry budget.
+     */
+    public void replace(int index) {
+      if (index >= 0) {
+        freeIndices.add(index);
+      }
+      states.request(1);
+      addContainerRequest();
+    }
+
+    /**
+     * Stops the containers of this group that are running on the given node, so that they
+     * are replaced on other nodes when they complete. The containers that a gang-scheduled
+     * group holds there are given back and requested again.
+     */
+    public synchronized void evacuate(NodeId nodeId) {
+      for (ContainerStates.Entry e : held.removeOn(nodeId)) {
+        requeue(e);
+      }
+      for (ContainerStates.Entry e : states.getEntries()) {
+        Container c = e.getContainer();
+        if (nodeId.equals(c.getNodeId()) && !stopping.contains(c.getId()) &&
+            evacuating.add(c.getId())) {
+          stopContainer(c);
+        }
+      }
+    }
+
+    private void stopContainer(Container c) {
+      eventLog.record(EventLog.Type.STOPPING, group, c.getId(), c.getNodeId());
+      metrics.nodeManagerRequested();
+      launcher.stopContainerAsync(c.getId(), c.getNodeId(), this);
+    }
+
+    private void addContainerRequest() {
+      int index = requests.getAndIncrement();
+      resourceManager.addContainerRequest(new AMRMClient.ContainerRequest(
+          resource,
+          locality.getNodes(index),
+          locality.getRacks(index),
+          priority,
+          true)); // fall back to rack-local and then off-switch placement
+    }
+
+    // The RM has already satisfied one of our requests, so stop asking for it. We remove
+    // the most specific request that the allocation satisfies.
+    private void removeContainerRequest(Container c) {
+      if (!locality.isEmpty()) {
+        String host = c.getNodeId().getHost();
+        LocalityPreference.Level level = locality.classify(c);
+        switch (level) {
+        case NODE_LOCAL:
+          nodeLocal.incrementAndGet();
+          break;
+        case RACK_LOCAL:
+          rackLocal.incrementAndGet();
+          break;
+        default:
+          offSwitch.incrementAndGet();
+        }
+        if (level == LocalityPreference.Level.NODE_LOCAL && removeMatchingRequest(host)) {
+          return;
+        }
+        if (level != LocalityPreference.Level.OFF_SWITCH &&
+            removeMatchingRequest(locality.resolveRack(host))) {
+          return;
+        }
+      }
+      removeMatchingRequest(ResourceRequest.ANY);
+    }
+
+    private boolean removeMatchingRequest(String resourceName) {
+      for (Collection<AMRMClient.ContainerRequest> matches :
+          resourceManager.getMatchingRequests(priority, resourceName, resource)) {
+        for (AMRMClient.ContainerRequest request : matches) {
+          if (resource.equals(request.getCapability())) {
+            resourceManager.removeContainerRequest(request);
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    public void logLocality() {
+      if (!locality.isEmpty()) {
+        LOG.info(String.format("Locality for container group with priority = %d: "
+            + "%d node-local, %d rack-local, %d off-switch", priority.getPriority(),
+            nodeLocal.get(), rackLocal.get(), offSwitch.get()));
+      }
     }
 
     public boolean hasRunningContainers() {
-      return !containers.isEmpty();
+      return states.getLive() > 0;
     }
 
-    public void kill() {
-      for (Container c : containers.values()) {
-        nodeManager.stopContainerAsync(c.getId(), c.getNodeId());
+    @Override
+    public String getGroup() {
+      return group;
+    }
+
+    @Override
+    public ContainerStates getStates() {
+      return states;
+    }
+
+    @Override
+    public TaskQueue getTasks() {
+      return tasks;
+    }
+
+    @Override
+    public void writeSummary(JsonGenerator json) throws IOException {
+      json.writeNumberField("desired", desired.get());
+      for (ContainerStates.State s : ContainerStates.State.values()) {
+        json.writeNumberField(s.name().toLowerCase(Locale.ENGLISH), states.get(s));
+      }
+      if (tasks != null) {
+        json.writeNumberField("queuedTasks", tasks.getQueued());
+        json.writeNumberField("succeededTasks", tasks.getSucceeded());
+        json.writeNumberField("failedTasks", tasks.getFailed());
       }
     }
 
-    public boolean hasMoreContainers() {
-      return needsContainers() || hasRunningContainers();
+    public void kill() {
+      for (ContainerStates.Entry e : states.getEntries()) {
+        // Containers that were never started are given back when the master unregisters.
+        if (e.getState() != ContainerStates.State.ALLOCATED) {
+          stopContainer(e.getContainer());
+        }
+      }
     }
   }
 }
@@ -0,0 +1,35 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import java.io.IOException;
+
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * The parts of a container group that the RPC handlers and the tracking server use.
+ */
+interface ContainerGroup {
+
+  String getGroup();
+
+  ContainerStates getStates();
+
+  /** Returns the group's queue of tasks, or null if its containers do not run tasks. */
+  TaskQueue getTasks();
+
+  /** Writes the group's desired size and counts of containers and tasks as JSON fields. */
+  void writeSummary(JsonGenerator json) throws IOException;
+}
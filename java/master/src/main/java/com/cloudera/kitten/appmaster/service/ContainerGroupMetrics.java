@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import com.cloudera.kitten.appmaster.service.ContainerStates.State;
+import com.cloudera.kitten.appmaster.util.LatencyHistogram;
+import com.cloudera.kitten.appmaster.util.LatencySnapshot;
+
+/**
+ * The metrics of one container group. The counts come from the states of its containers,
+ * and the latencies are recorded as its containers move between them.
+ */
+public class ContainerGroupMetrics implements ContainerGroupMetricsMXBean {
+
+  private final String group;
+  private final ContainerStates states;
+  private final LatencyHistogram allocation = new LatencyHistogram();
+  private final LatencyHistogram launch = new LatencyHistogram();
+  private final LatencyHistogram runtime = new LatencyHistogram();
+
+  public ContainerGroupMetrics(String group, ContainerStates states) {
+    this.group = group;
+    this.states = states;
+  }
+
+  /**
+   * Records the latency of the request that the given container was allocated for.
+   */
+  public void allocated(ContainerStates.Entry entry) {
+    record(allocation, entry, State.REQUESTED, State.ALLOCATED);
+  }
+
+  /**
+   * Records how long the given container took to start after it was allocated.
+   */
+  public void started(ContainerStates.Entry entry) {
+    record(launch, entry, State.ALLOCATED, State.RUNNING);
+  }
+
+  /**
+   * Records how long the given container ran, if it was started, before it finished in the
+   * given state.
+   */
+  public void finished(ContainerStates.Entry entry, State done) {
+    record(runtime, entry, State.RUNNING, done);
+  }
+
+  private static void record(LatencyHistogram histogram, ContainerStates.Entry entry,
+      State from, State to) {
+    long start = entry.getTime(from);
+    long end = entry.getTime(to);
+    if (start > 0 && end > 0) {
+      histogram.record(end - start);
+    }
+  }
+
+  @Override
+  public String getGroup() {
+    return group;
+  }
+
+  @Override
+  public int getRequested() {
+    return states.get(State.REQUESTED);
+  }
+
+  @Override
+  public int getAllocated() {
+    return states.get(State.ALLOCATED);
+  }
+
+  @Override
+  public int getLaunching() {
+    return states.get(State.LAUNCHING);
+  }
+
+  @Override
+  public int getRunning() {
+    return states.get(State.RUNNING);
+  }
+
+  @Override
+  public int getCompleted() {
+    return states.get(State.COMPLETED);
+  }
+
+  @Override
+  public int getFailed() {
+    return states.get(State.FAILED);
+  }
+
+  @Override
+  public int getAborted() {
+    return states.get(State.ABORTED);
+  }
+
+  @Override
+  public LatencySnapshot getAllocationLatency() {
+    return allocation.snapshot();
+  }
+
+  @Override
+  public LatencySnapshot getLaunchLatency() {
+    return launch.snapshot();
+  }
+
+  @Override
+  public LatencySnapshot getRuntime() {
+    return runtime.snapshot();
+  }
+}
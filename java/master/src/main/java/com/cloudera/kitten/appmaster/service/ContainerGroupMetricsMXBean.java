@@ -0,0 +1,48 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import com.cloudera.kitten.appmaster.util.LatencySnapshot;
+
+/**
+ * The JMX view of the containers of one container group. The latencies are in milliseconds.
+ */
+public interface ContainerGroupMetricsMXBean {
+
+  String getGroup();
+
+  int getRequested();
+
+  int getAllocated();
+
+  int getLaunching();
+
+  int getRunning();
+
+  int getCompleted();
+
+  int getFailed();
+
+  int getAborted();
+
+  /** From the request for a container to its allocation. */
+  LatencySnapshot getAllocationLatency();
+
+  /** From the allocation of a container to the NodeManager starting it. */
+  LatencySnapshot getLaunchLatency();
+
+  /** From the start of a container to its completion. */
+  LatencySnapshot getRuntime();
+}
@@ -0,0 +1,389 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.ContainerManagementProtocol;
+import org.apache.hadoop.yarn.api.protocolrecords.GetContainerStatusesRequest;
+import org.apache.hadoop.yarn.api.protocolrecords.GetContainerStatusesResponse;
+import org.apache.hadoop.yarn.api.protocolrecords.StartContainerRequest;
+import org.apache.hadoop.yarn.api.protocolrecords.StartContainersRequest;
+import org.apache.hadoop.yarn.api.protocolrecords.StartContainersResponse;
+import org.apache.hadoop.yarn.api.protocolrecords.StopContainersRequest;
+import org.apache.hadoop.yarn.api.protocolrecords.StopContainersResponse;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.ContainerLaunchContext;
+import org.apache.hadoop.yarn.api.records.ContainerStatus;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.apache.hadoop.yarn.api.records.SerializedException;
+import org.apache.hadoop.yarn.client.api.async.NMClientAsync;
+import org.apache.hadoop.yarn.client.api.impl.ContainerManagementProtocolProxy;
+import org.apache.hadoop.yarn.client.api.impl.ContainerManagementProtocolProxy.ContainerManagementProtocolProxyData;
+import org.apache.hadoop.yarn.exceptions.YarnException;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Starts, stops, and checks on containers for every container group of the application
+ * master, in place of a separate {@code NMClientAsync} for each group.
+ *
+ * <p>The calls to the NodeManagers run on one pool of {@code kitten.master.nm.threads}
+ * threads and share one cache of connections, which holds up to
+ * {@code yarn.client.max-nodemanagers-proxies} of them, so neither grows with the number of
+ * groups. The result of each call is passed to the {@link NMClientAsync.CallbackHandler}
+ * that was given with it, on the thread that made the call.
+ *
+ * <p>Containers are not started one call at a time. The containers allocated on the same
+ * node within {@code kitten.master.nm.launch.window.ms} of each other, which are usually
+ * those from the same heartbeat, are started together with one call to its NodeManager, and
+ * each one's success or failure is passed to its own handler.
+ *
+ * <p>A container that is asked to stop while it is still being started is stopped once the
+ * start returns, rather than sending the NodeManager a stop for a container that it does
+ * not know about yet. If the start fails, its handler is told that the container stopped
+ * right after it is told of the failure.
+ *
+ * <p>At most {@code kitten.master.nm.queue.size} calls wait for a thread; past that, the
+ * caller waits for room in the queue. Once the launcher is stopped, each call that has not
+ * been made is passed to its handler as an error.
+ */
+public class ContainerLauncher {
+
+  private static final Log LOG = LogFactory.getLog(ContainerLauncher.class);
+
+  /** The most calls to the NodeManagers to make at once. */
+  public static final String NM_THREADS = "kitten.master.nm.threads";
+  public static final int DEFAULT_NM_THREADS = 32;
+
+  /** The most calls to the NodeManagers to queue up before callers have to wait. */
+  public static final String NM_QUEUE_SIZE = "kitten.master.nm.queue.size";
+  public static final int DEFAULT_NM_QUEUE_SIZE = 10000;
+
+  /** How long to wait for more containers on a node before starting them, in milliseconds. */
+  public static final String LAUNCH_WINDOW = "kitten.master.nm.launch.window.ms";
+  public static final int DEFAULT_LAUNCH_WINDOW = 10;
+
+  /** The most containers to start with one call to a NodeManager. */
+  public static final String LAUNCH_BATCH_SIZE = "kitten.master.nm.launch.batch.size";
+  public static final int DEFAULT_LAUNCH_BATCH_SIZE = 100;
+
+  private static class Launch {
+    private final Container container;
+    private final ContainerLaunchContext clc;
+    private final NMClientAsync.CallbackHandler handler;
+
+    public Launch(Container container, ContainerLaunchContext clc,
+        NMClientAsync.CallbackHandler handler) {
+      this.container = container;
+      this.clc = clc;
+      this.handler = handler;
+    }
+  }
+
+  private final ContainerManagementProtocolProxy proxies;
+  private final ThreadPoolExecutor executor;
+  private final ScheduledExecutorService timer;
+  private final int window;
+  private final int batchSize;
+  // The containers waiting to be started on each node.
+  private final Map<NodeId, List<Launch>> pending = Maps.newHashMap();
+  // The containers that are being started, mapped to whether to stop them once they are.
+  private final ConcurrentMap<ContainerId, Boolean> starting = Maps.newConcurrentMap();
+
+  public ContainerLauncher(Configuration conf) {
+    this.proxies = new ContainerManagementProtocolProxy(conf);
+    int threads = conf.getInt(NM_THREADS, DEFAULT_NM_THREADS);
+    this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(Math.max(1, conf.getInt(NM_QUEUE_SIZE,
+            DEFAULT_NM_QUEUE_SIZE))),
+        new ThreadFactoryBuilder().setNameFormat("nm-launcher-%d").setDaemon(true).build(),
+        new WaitForRoom());
+    // Idle threads go away between bursts of launches.
+    executor.allowCoreThreadTimeOut(true);
+    this.timer = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("nm-launch-window").setDaemon(true).build());
+    this.window = conf.getInt(LAUNCH_WINDOW, DEFAULT_LAUNCH_WINDOW);
+    this.batchSize = Math.max(1, conf.getInt(LAUNCH_BATCH_SIZE, DEFAULT_LAUNCH_BATCH_SIZE));
+  }
+
+  public void startContainerAsync(Container container, ContainerLaunchContext clc,
+      NMClientAsync.CallbackHandler handler) {
+    final NodeId nodeId = container.getNodeId();
+    starting.put(container.getId(), Boolean.FALSE);
+    List<Launch> full = null;
+    boolean first = false;
+    synchronized (pending) {
+      List<Launch> batch = pending.get(nodeId);
+      if (batch == null) {
+        batch = Lists.newArrayList();
+        pending.put(nodeId, batch);
+        first = true;
+      }
+      batch.add(new Launch(container, clc, handler));
+      if (batch.size() >= batchSize) {
+        full = pending.remove(nodeId);
+      }
+    }
+    if (full != null) {
+      submit(nodeId, full);
+    } else if (first) {
+      try {
+        timer.schedule(new Runnable() {
+          @Override
+          public void run() {
+            flush(nodeId);
+          }
+        }, window, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        // Stopped, so the batch fails now rather than waiting for a timer that will not run.
+        flush(nodeId);
+      }
+    }
+  }
+
+  private void flush(NodeId nodeId) {
+    List<Launch> batch;
+    synchronized (pending) {
+      batch = pending.remove(nodeId);
+    }
+    if (batch != null) {
+      submit(nodeId, batch);
+    }
+  }
+
+  private void submit(final NodeId nodeId, final List<Launch> batch) {
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          start(nodeId, batch);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      for (Launch launch : batch) {
+        ContainerId containerId = launch.container.getId();
+        boolean stop = Boolean.TRUE.equals(starting.remove(containerId));
+        launch.handler.onStartContainerError(containerId, e);
+        if (stop) {
+          launch.handler.onContainerStopped(containerId);
+        }
+      }
+    }
+  }
+
+  private void start(NodeId nodeId, List<Launch> batch) {
+    List<StartContainerRequest> requests = Lists.newArrayListWithCapacity(batch.size());
+    for (Launch launch : batch) {
+      requests.add(StartContainerRequest.newInstance(launch.clc,
+          launch.container.getContainerToken()));
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Starting " + batch.size() + " container(s) on node " + nodeId);
+    }
+    StartContainersResponse response = null;
+    Throwable error = null;
+    try {
+      response = startContainers(nodeId, batch.get(0).container.getId(),
+          StartContainersRequest.newInstance(requests));
+    } catch (Throwable t) {
+      error = t;
+    }
+    for (Launch launch : batch) {
+      ContainerId containerId = launch.container.getId();
+      Throwable failure = error != null ? error : getFailure(response, containerId);
+      boolean stop = Boolean.TRUE.equals(starting.remove(containerId));
+      if (failure != null) {
+        launch.handler.onStartContainerError(containerId, failure);
+        if (stop) {
+          // There is nothing left to stop, but the caller still hears back about the stop.
+          launch.handler.onContainerStopped(containerId);
+        }
+        continue;
+      }
+      launch.handler.onContainerStarted(containerId, response.getAllServicesMetaData());
+      if (stop) {
+        // Already on a launcher thread, which should not wait for room in its own queue.
+        stop(containerId, nodeId, launch.handler);
+      }
+    }
+  }
+
+  // Returns why the given container was not started, or null if it was.
+  private static Throwable getFailure(StartContainersResponse response, ContainerId containerId) {
+    Map<ContainerId, SerializedException> failed = response.getFailedRequests();
+    if (failed != null && failed.containsKey(containerId)) {
+      return failed.get(containerId).deSerialize();
+    }
+    if (!response.getSuccessfullyStartedContainers().contains(containerId)) {
+      return new YarnException("The NodeManager did not start container " + containerId);
+    }
+    return null;
+  }
+
+  /**
+   * Makes one call to the NodeManager on the given node to start containers. The containers
+   * all belong to the same application attempt, as does the given one.
+   */
+  protected StartContainersResponse startContainers(NodeId nodeId, ContainerId containerId,
+      StartContainersRequest request) throws YarnException, IOException {
+    ContainerManagementProtocolProxyData proxy = proxies.getProxy(nodeId.toString(), containerId);
+    try {
+      return proxy.getContainerManagementProtocol().startContainers(request);
+    } finally {
+      proxies.mayBeCloseProxy(proxy);
+    }
+  }
+
+  public void stopContainerAsync(final ContainerId containerId, final NodeId nodeId,
+      final NMClientAsync.CallbackHandler handler) {
+    if (starting.replace(containerId, Boolean.FALSE, Boolean.TRUE)) {
+      LOG.info("Stopping container id = " + containerId + " once it has started");
+      return;
+    }
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          stop(containerId, nodeId, handler);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      handler.onStopContainerError(containerId, e);
+    }
+  }
+
+  private void stop(ContainerId containerId, NodeId nodeId,
+      NMClientAsync.CallbackHandler handler) {
+    try {
+      stop(containerId, nodeId);
+    } catch (Throwable t) {
+      handler.onStopContainerError(containerId, t);
+      return;
+    }
+    handler.onContainerStopped(containerId);
+  }
+
+  public void getContainerStatusAsync(final ContainerId containerId, final NodeId nodeId,
+      final NMClientAsync.CallbackHandler handler) {
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          ContainerStatus status;
+          try {
+            status = getStatus(containerId, nodeId);
+          } catch (Throwable t) {
+            handler.onGetContainerStatusError(containerId, t);
+            return;
+          }
+          handler.onContainerStatusReceived(containerId, status);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      handler.onGetContainerStatusError(containerId, e);
+    }
+  }
+
+  /**
+   * Stops making calls to the NodeManagers and closes the connections to them. Calls that
+   * were already made are not waited for, and containers that were waiting to be started
+   * are passed to their handlers as errors.
+   */
+  public void stop() {
+    timer.shutdownNow();
+    executor.shutdownNow();
+    proxies.stopAllProxies();
+    List<NodeId> nodes;
+    synchronized (pending) {
+      nodes = Lists.newArrayList(pending.keySet());
+    }
+    for (NodeId nodeId : nodes) {
+      flush(nodeId);
+    }
+  }
+
+  private void stop(ContainerId containerId, NodeId nodeId) throws Throwable {
+    ContainerManagementProtocolProxyData proxy = proxies.getProxy(nodeId.toString(), containerId);
+    try {
+      StopContainersResponse response = proxy.getContainerManagementProtocol().stopContainers(
+          StopContainersRequest.newInstance(Collections.singletonList(containerId)));
+      checkFailed(response.getFailedRequests(), containerId);
+    } finally {
+      proxies.mayBeCloseProxy(proxy);
+    }
+  }
+
+  private ContainerStatus getStatus(ContainerId containerId, NodeId nodeId) throws Throwable {
+    ContainerManagementProtocolProxyData proxy = proxies.getProxy(nodeId.toString(), containerId);
+    try {
+      ContainerManagementProtocol cm = proxy.getContainerManagementProtocol();
+      GetContainerStatusesResponse response = cm.getContainerStatuses(
+          GetContainerStatusesRequest.newInstance(Collections.singletonList(containerId)));
+      checkFailed(response.getFailedRequests(), containerId);
+      List<ContainerStatus> statuses = response.getContainerStatuses();
+      if (statuses.isEmpty()) {
+        throw new YarnException("No status for container " + containerId);
+      }
+      return statuses.get(0);
+    } finally {
+      proxies.mayBeCloseProxy(proxy);
+    }
+  }
+
+  // Makes the caller wait for room in the queue, unless the executor has been shut down.
+  private static class WaitForRoom implements RejectedExecutionHandler {
+    @Override
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        throw new RejectedExecutionException("The container launcher is stopped");
+      }
+      try {
+        executor.getQueue().put(r);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RejectedExecutionException("Interrupted while waiting to queue a call", e);
+      }
+      // Shut down while waiting, so nothing will take it from the queue.
+      if (executor.isShutdown() && executor.getQueue().remove(r)) {
+        throw new RejectedExecutionException("The container launcher is stopped");
+      }
+    }
+  }
+
+  private static void checkFailed(Map<ContainerId, SerializedException> failed,
+      ContainerId containerId) throws Throwable {
+    if (failed != null && failed.containsKey(containerId)) {
+      throw failed.get(containerId).deSerialize();
+    }
+  }
+}
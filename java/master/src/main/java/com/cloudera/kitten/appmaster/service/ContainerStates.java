@@ -0,0 +1,269 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * The state of each container in a container group, and the number of containers in each
+ * state, which the application master derives its progress and its termination from.
+ *
+ * <p>A container moves from {@link State#REQUESTED} through {@link State#ALLOCATED},
+ * {@link State#LAUNCHING}, and {@link State#RUNNING} to one of the final states. Each move
+ * is a compare-and-set on the container's state, so the RM and NM callback threads can race
+ * to move the same container and only one of them wins, and the counts are updated only by
+ * the winner. Requests do not have a container yet, so only their number is kept.
+ *
+ * <p>The number of requests and live containers is also kept in a single counter that does
+ * not change when a request is allocated, so that the group is never seen to be idle while a
+ * container moves from one to the other, and a replacement that is requested before its
+ * container is finished keeps the group busy throughout.
+ *
+ * <p>Each container records when it entered each state, and when the request that it
+ * satisfied was made, for the latency metrics. Requests are assumed to be satisfied in the
+ * order they were made.
+ */
+public class ContainerStates {
+
+  public enum State {
+    REQUESTED,
+    ALLOCATED,
+    LAUNCHING,
+    RUNNING,
+    /** Exited successfully, or was stopped by the application master. */
+    COMPLETED,
+    /** Counts towards the failures that the application tolerates. */
+    FAILED,
+    /** Was lost through no fault of its own and replaced by another container. */
+    ABORTED;
+
+    public boolean isLive() {
+      return this == ALLOCATED || this == LAUNCHING || this == RUNNING;
+    }
+
+    public boolean isDone() {
+      return this == COMPLETED || this == FAILED || this == ABORTED;
+    }
+  }
+
+  /**
+   * A container that has been allocated to the group.
+   */
+  public class Entry {
+    private final Container container;
+    private final int index;
+    private final AtomicReference<State> state = new AtomicReference<State>(State.ALLOCATED);
+    // When the container entered each state, or 0 if it has not. Each one is only written by
+    // the caller whose state change went through, right after it did, so a caller that lost
+    // the race cannot overwrite the time of a state that the container never entered.
+    private final AtomicLongArray times = new AtomicLongArray(STATES.length);
+
+    private Entry(Container container, int index, long requested, long allocated) {
+      this.container = container;
+      this.index = index;
+      times.set(State.REQUESTED.ordinal(), requested);
+      times.set(State.ALLOCATED.ordinal(), allocated);
+    }
+
+    public Container getContainer() {
+      return container;
+    }
+
+    /** The instance index of the container within its group. */
+    public int getIndex() {
+      return index;
+    }
+
+    public State getState() {
+      return state.get();
+    }
+
+    /**
+     * Returns the time in milliseconds at which the container entered the given state, or 0
+     * if it has not or it is not known yet.
+     */
+    public long getTime(State s) {
+      return times.get(s.ordinal());
+    }
+
+    /**
+     * Moves the container from one live state to another. Returns false if it was not in
+     * the given state.
+     */
+    public boolean transition(State from, State to) {
+      if (!state.compareAndSet(from, to)) {
+        return false;
+      }
+      times.set(to.ordinal(), System.currentTimeMillis());
+      moved(from, to);
+      return true;
+    }
+
+    /**
+     * Moves the container to the given final state. Returns false if it was already in one.
+     */
+    public boolean finish(State done) {
+      while (true) {
+        State current = state.get();
+        if (current.isDone()) {
+          return false;
+        }
+        if (state.compareAndSet(current, done)) {
+          times.set(done.ordinal(), System.currentTimeMillis());
+          moved(current, done);
+          outstanding.decrementAndGet();
+          return true;
+        }
+      }
+    }
+  }
+
+  private static final State[] STATES = State.values();
+  // The number of request times that are kept; if there are more outstanding requests, the
+  // newest overwrite the oldest.
+  private static final int REQUEST_TIMES = 4096;
+
+  private final AtomicIntegerArray counts = new AtomicIntegerArray(STATES.length);
+  private final AtomicLongArray requestTimes = new AtomicLongArray(REQUEST_TIMES);
+  // The sequence numbers of the next request and of the next one to be allocated or cancelled.
+  private final AtomicLong requestSeq = new AtomicLong();
+  private final AtomicLong takeSeq = new AtomicLong();
+  // The requests and the live containers.
+  private final AtomicInteger outstanding = new AtomicInteger();
+  private final ConcurrentMap<ContainerId, Entry> live = Maps.newConcurrentMap();
+
+  /**
+   * Records that the given number of containers has been requested.
+   */
+  public void request(int n) {
+    long now = System.currentTimeMillis();
+    long seq = requestSeq.getAndAdd(n);
+    for (int i = 0; i < n; i++) {
+      requestTimes.set((int) ((seq + i) % REQUEST_TIMES), now);
+    }
+    outstanding.addAndGet(n);
+    counts.addAndGet(State.REQUESTED.ordinal(), n);
+  }
+
+  /**
+   * Records that a request was cancelled. Returns false if there were none outstanding.
+   */
+  public boolean cancel() {
+    if (!decrementRequested()) {
+      return false;
+    }
+    takeSeq.incrementAndGet();
+    outstanding.decrementAndGet();
+    return true;
+  }
+
+  private boolean decrementRequested() {
+    int i = State.REQUESTED.ordinal();
+    while (true) {
+      int current = counts.get(i);
+      if (current <= 0) {
+        return false;
+      }
+      if (counts.compareAndSet(i, current, current - 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Counts containers that finished in the given state in an earlier attempt of the
+   * application master.
+   */
+  public void restore(State done, int n) {
+    Preconditions.checkArgument(done.isDone(), "Not a final state: %s", done);
+    counts.addAndGet(done.ordinal(), n);
+  }
+
+  /**
+   * Records that the given container was allocated for one of the outstanding requests.
+   */
+  public Entry allocate(Container container, int index) {
+    long requested = 0L;
+    counts.incrementAndGet(State.ALLOCATED.ordinal());
+    if (decrementRequested()) {
+      requested = requestTimes.get((int) (takeSeq.getAndIncrement() % REQUEST_TIMES));
+    } else {
+      // More containers than we asked for.
+      outstanding.incrementAndGet();
+    }
+    Entry entry = new Entry(container, index, requested, System.currentTimeMillis());
+    live.put(container.getId(), entry);
+    return entry;
+  }
+
+  public Entry get(ContainerId containerId) {
+    return live.get(containerId);
+  }
+
+  /**
+   * Removes the given container, so that the caller is the only one that finishes it.
+   * Returns null if it is not one of the containers of this group or was already removed.
+   */
+  public Entry remove(ContainerId containerId) {
+    return live.remove(containerId);
+  }
+
+  /**
+   * Returns the containers that have been allocated and not removed.
+   */
+  public Collection<Entry> getEntries() {
+    return live.values();
+  }
+
+  public int get(State state) {
+    return counts.get(state.ordinal());
+  }
+
+  /** Returns the number of containers that have been allocated and not finished. */
+  public int getLive() {
+    return get(State.ALLOCATED) + get(State.LAUNCHING) + get(State.RUNNING);
+  }
+
+  /** Returns the number of containers that completed or failed. */
+  public int getDone() {
+    return get(State.COMPLETED) + get(State.FAILED);
+  }
+
+  /**
+   * Whether there are no outstanding requests and no live containers.
+   */
+  public boolean isIdle() {
+    return outstanding.get() == 0;
+  }
+
+  // Counts the container in its new state before it stops counting in its old one, so that
+  // a live container is never missing from the counts.
+  private void moved(State from, State to) {
+    counts.incrementAndGet(to.ordinal());
+    counts.decrementAndGet(from.ordinal());
+  }
+}
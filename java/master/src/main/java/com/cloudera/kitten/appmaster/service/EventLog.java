@@ -0,0 +1,321 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A structured log of what happens to the containers of the job, in place of a line in the
+ * master's log for each allocation, start, stop, and completion.
+ *
+ * <p>Events are kept in a ring of the last {@code kitten.master.events.capacity} of them,
+ * which the tracking server serves at {@code /eventlog}. Recording an event does not format
+ * or write anything: a single thread appends the events to a file of JSON lines, one event
+ * per line, once a second, and only one in {@code kitten.master.events.log.sample} events is
+ * also written to the master's log at INFO (or every one, at DEBUG). The file is
+ * {@code kitten.master.events.file}, or {@code events.json} in the master's log directory,
+ * where it is kept with the rest of its logs.
+ */
+public class EventLog {
+
+  private static final Log LOG = LogFactory.getLog(EventLog.class);
+
+  /** The number of events to keep in memory. */
+  public static final String CAPACITY = "kitten.master.events.capacity";
+  public static final int DEFAULT_CAPACITY = 16384;
+
+  /** Write one in this many events to the master's log. */
+  public static final String LOG_SAMPLE = "kitten.master.events.log.sample";
+  public static final int DEFAULT_LOG_SAMPLE = 100;
+
+  /** The file to write every event to; by default, one in the master's log directory. */
+  public static final String FILE = "kitten.master.events.file";
+  public static final String DEFAULT_FILE_NAME = "events.json";
+
+  private static final long WRITE_INTERVAL_MILLIS = 1000L;
+
+  public enum Type {
+    ALLOCATED("index"),
+    STARTED(null),
+    START_FAILED(null),
+    STOPPING(null),
+    STOPPED(null),
+    COMPLETED("exitStatus"),
+    FAILED("exitStatus"),
+    LOST("exitStatus"),
+    RELEASED(null),
+    RESIZED("instances");
+
+    // The name of the event's value, if it has one.
+    private final String valueName;
+
+    private Type(String valueName) {
+      this.valueName = valueName;
+    }
+  }
+
+  public static class Event {
+    private final long seq;
+    private final long time;
+    private final Type type;
+    private final String group;
+    private final ContainerId containerId;
+    private final NodeId nodeId;
+    private final int value;
+
+    private Event(long seq, Type type, String group, ContainerId containerId, NodeId nodeId,
+        int value) {
+      this.seq = seq;
+      this.time = System.currentTimeMillis();
+      this.type = type;
+      this.group = group;
+      this.containerId = containerId;
+      this.nodeId = nodeId;
+      this.value = value;
+    }
+
+    public long getSeq() {
+      return seq;
+    }
+
+    public Type getType() {
+      return type;
+    }
+
+    public void writeJson(JsonGenerator json) throws IOException {
+      json.writeStartObject();
+      json.writeNumberField("seq", seq);
+      json.writeNumberField("time", time);
+      json.writeStringField("type", type.name().toLowerCase(Locale.ENGLISH));
+      if (group != null) {
+        json.writeStringField("group", group);
+      }
+      if (containerId != null) {
+        json.writeStringField("container", containerId.toString());
+      }
+      if (nodeId != null) {
+        json.writeStringField("node", nodeId.toString());
+      }
+      if (type.valueName != null) {
+        json.writeNumberField(type.valueName, value);
+      }
+      json.writeEndObject();
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder().append(type);
+      if (containerId != null) {
+        sb.append(" container id = ").append(containerId);
+      }
+      if (nodeId != null) {
+        sb.append(" node = ").append(nodeId);
+      }
+      if (group != null) {
+        sb.append(" group = ").append(group);
+      }
+      if (type.valueName != null) {
+        sb.append(' ').append(type.valueName).append(" = ").append(value);
+      }
+      return sb.toString();
+    }
+  }
+
+  private final AtomicReferenceArray<Event> events;
+  private final AtomicLong lastSeq = new AtomicLong();
+  private final int sample;
+  private final File file;
+  private final JsonFactory jsonFactory = new JsonFactory();
+  private ScheduledExecutorService writer;
+  // Guarded by this.
+  private OutputStream out;
+  private long lastWritten;
+
+  public EventLog(Configuration conf) {
+    this(conf.getInt(CAPACITY, DEFAULT_CAPACITY), conf.getInt(LOG_SAMPLE, DEFAULT_LOG_SAMPLE),
+        getFile(conf));
+  }
+
+  public EventLog(int capacity, int sample, File file) {
+    this.events = new AtomicReferenceArray<Event>(capacity);
+    this.sample = Math.max(1, sample);
+    this.file = file;
+  }
+
+  private static File getFile(Configuration conf) {
+    String file = conf.get(FILE);
+    if (file != null) {
+      return file.isEmpty() ? null : new File(file);
+    }
+    String logDirs = System.getenv("LOG_DIRS");
+    if (logDirs == null || logDirs.isEmpty()) {
+      return null;
+    }
+    return new File(logDirs.split(",")[0], DEFAULT_FILE_NAME);
+  }
+
+  /**
+   * Starts writing the events to the file, if there is one.
+   */
+  public void start() {
+    if (file == null) {
+      return;
+    }
+    try {
+      out = new FileOutputStream(file);
+    } catch (IOException e) {
+      LOG.warn("Could not open " + file + ", so events will only be kept in memory", e);
+      return;
+    }
+    writer = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("event-log").build());
+    writer.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        write();
+      }
+    }, WRITE_INTERVAL_MILLIS, WRITE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    LOG.info("Writing container events to " + file);
+  }
+
+  /**
+   * Writes out the events that are left and closes the file.
+   */
+  public void stop() {
+    if (writer == null) {
+      return;
+    }
+    writer.shutdown();
+    try {
+      writer.awaitTermination(WRITE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    write();
+    synchronized (this) {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          LOG.warn("Error closing " + file, e);
+        }
+        out = null;
+      }
+    }
+  }
+
+  public void record(Type type, String group, ContainerId containerId, NodeId nodeId) {
+    record(type, group, containerId, nodeId, 0);
+  }
+
+  public void record(Type type, String group, ContainerId containerId, NodeId nodeId,
+      int value) {
+    long seq = lastSeq.incrementAndGet();
+    Event event = new Event(seq, type, group, containerId, nodeId, value);
+    events.set(slot(seq), event);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(event);
+    } else if (seq % sample == 1 || sample == 1) {
+      LOG.info("Event " + seq + " (1 in " + sample + " logged): " + event);
+    }
+  }
+
+  /**
+   * Returns the sequence number of the most recent event, or 0 if there have been none.
+   */
+  public long getLastSeq() {
+    return lastSeq.get();
+  }
+
+  /**
+   * Returns the events that are still kept and came after the given sequence number, oldest
+   * first.
+   */
+  public List<Event> since(long seq) {
+    long last = lastSeq.get();
+    long first = Math.max(seq + 1, last - events.length() + 1);
+    List<Event> recent = Lists.newArrayList();
+    for (long s = first; s <= last; s++) {
+      Event event = events.get(slot(s));
+      // Skip the slots that have been overwritten, or not written yet.
+      if (event != null && event.getSeq() == s) {
+        recent.add(event);
+      }
+    }
+    return recent;
+  }
+
+  private int slot(long seq) {
+    return (int) (seq % events.length());
+  }
+
+  private synchronized void write() {
+    if (out == null) {
+      return;
+    }
+    long last = lastSeq.get();
+    long next = Math.max(lastWritten + 1, last - events.length() + 1);
+    if (next > lastWritten + 1) {
+      LOG.warn("Dropped " + (next - lastWritten - 1) + " events that were overwritten before " +
+          "they could be written to " + file);
+    }
+    try {
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      for (; next <= last; next++) {
+        Event event = events.get(slot(next));
+        if (event == null || event.getSeq() != next) {
+          // Still being recorded, or already overwritten; either way, left for next time.
+          break;
+        }
+        // A generator for each line, since one puts a space between its top-level values.
+        JsonGenerator json = jsonFactory.createJsonGenerator(buf, JsonEncoding.UTF8);
+        event.writeJson(json);
+        json.close();
+        buf.write('\n');
+      }
+      buf.writeTo(out);
+      out.flush();
+    } catch (IOException e) {
+      LOG.warn("Error writing events to " + file + ", no longer writing them", e);
+      writer.shutdown();
+      out = null;
+      return;
+    }
+    lastWritten = next - 1;
+  }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.yarn.api.records.NodeId;
+
+import com.google.common.collect.Lists;
+
+/**
+ * The containers that a gang-scheduled group has been allocated but not started, because it
+ * still waits for the rest of the group. They are all started together once none are
+ * outstanding, or all given back if the group has waited for longer than its timeout since
+ * the first of them was held.
+ */
+public class HeldContainers {
+
+  private final long timeoutMillis;
+  private final List<ContainerStates.Entry> held = Lists.newArrayList();
+  private long since;
+
+  public HeldContainers(long timeoutMillis) {
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /** Holds the given container, which was allocated at the given time. */
+  public synchronized void hold(ContainerStates.Entry entry, long now) {
+    if (held.isEmpty()) {
+      since = now;
+    }
+    held.add(entry);
+  }
+
+  /**
+   * Returns the held containers to start and stops holding them if the group does not wait
+   * for any more, given the number that it has outstanding, or nothing if it does.
+   */
+  public synchronized List<ContainerStates.Entry> takeIfAllocated(int outstanding) {
+    if (outstanding > 0) {
+      return Collections.emptyList();
+    }
+    return takeAll();
+  }
+
+  /**
+   * Returns the held containers to give back and stops holding them if the group has waited
+   * for longer than its timeout at the given time, or nothing if it has not.
+   */
+  public synchronized List<ContainerStates.Entry> expire(long now) {
+    if (held.isEmpty() || now - since < timeoutMillis) {
+      return Collections.emptyList();
+    }
+    return takeAll();
+  }
+
+  /** Stops holding the container that was held last and returns it, or null if there is none. */
+  public synchronized ContainerStates.Entry removeLast() {
+    return held.isEmpty() ? null : held.remove(held.size() - 1);
+  }
+
+  /** Stops holding the containers on the given node and returns them. */
+  public synchronized List<ContainerStates.Entry> removeOn(NodeId nodeId) {
+    List<ContainerStates.Entry> removed = Lists.newArrayList();
+    for (Iterator<ContainerStates.Entry> iter = held.iterator(); iter.hasNext();) {
+      ContainerStates.Entry e = iter.next();
+      if (nodeId.equals(e.getContainer().getNodeId())) {
+        iter.remove();
+        removed.add(e);
+      }
+    }
+    return removed;
+  }
+
+  public synchronized int size() {
+    return held.size();
+  }
+
+  public synchronized boolean isEmpty() {
+    return held.isEmpty();
+  }
+
+  private List<ContainerStates.Entry> takeAll() {
+    List<ContainerStates.Entry> taken = Lists.newArrayList(held);
+    held.clear();
+    return taken;
+  }
+}
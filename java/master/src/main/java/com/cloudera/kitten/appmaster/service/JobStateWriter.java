@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.yarn.api.records.Container;
+import org.codehaus.jackson.JsonGenerator;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * The state of the job that the tracking server shows: the containers of every group, the
+ * nodes they run on, and the recent failures.
+ */
+class JobStateWriter implements TrackingServer.JobState {
+
+  private final ApplicationMasterServiceImpl master;
+  private final NodeHealthTracker health;
+  private final RecentFailures recentFailures;
+
+  public JobStateWriter(ApplicationMasterServiceImpl master, NodeHealthTracker health,
+      RecentFailures recentFailures) {
+    this.master = master;
+    this.health = health;
+    this.recentFailures = recentFailures;
+  }
+
+  @Override
+  public void writeSummary(JsonGenerator json) throws IOException {
+    json.writeStartObject();
+    writeSummaryFields(json);
+    json.writeEndObject();
+  }
+
+  @Override
+  public void writeState(JsonGenerator json) throws IOException {
+    json.writeStartObject();
+    writeSummaryFields(json);
+    Map<String, Integer> perHost = Maps.newTreeMap();
+    json.writeArrayFieldStart("containers");
+    for (ContainerGroup group : master.getGroups()) {
+      for (ContainerStates.Entry entry : group.getStates().getEntries()) {
+        Container c = entry.getContainer();
+        ContainerStates.State s = entry.getState();
+        json.writeStartObject();
+        json.writeStringField("id", c.getId().toString());
+        json.writeStringField("group", group.getGroup());
+        json.writeNumberField("index", entry.getIndex());
+        json.writeStringField("node", c.getNodeId().toString());
+        json.writeStringField("state", s.name());
+        json.writeNumberField("since", entry.getTime(s));
+        json.writeEndObject();
+        String host = c.getNodeId().getHost();
+        Integer n = perHost.get(host);
+        perHost.put(host, n == null ? 1 : n + 1);
+      }
+    }
+    json.writeEndArray();
+    Map<String, Integer> failures = health.getFailures();
+    Set<String> blacklisted = health.getBlacklisted();
+    json.writeObjectFieldStart("nodes");
+    for (String host : Sets.union(perHost.keySet(), Sets.union(failures.keySet(), blacklisted))) {
+      Integer n = perHost.get(host);
+      Integer f = failures.get(host);
+      json.writeObjectFieldStart(host);
+      json.writeNumberField("containers", n == null ? 0 : n);
+      json.writeNumberField("failures", f == null ? 0 : f);
+      json.writeBooleanField("blacklisted", blacklisted.contains(host));
+      json.writeEndObject();
+    }
+    json.writeEndObject();
+    json.writeArrayFieldStart("recentFailures");
+    for (RecentFailures.Failure f : recentFailures.since(0L)) {
+      f.writeJson(json);
+    }
+    json.writeEndArray();
+    json.writeEndObject();
+  }
+
+  private void writeSummaryFields(JsonGenerator json) throws IOException {
+    json.writeStringField("state", master.state().name());
+    json.writeNumberField("progress", master.getProgress());
+    json.writeNumberField("failures", master.getFailures());
+    json.writeNumberField("toleratedFailures", master.getParameters().getAllowedFailures());
+    json.writeObjectFieldStart("groups");
+    for (ContainerGroup group : master.getGroups()) {
+      json.writeObjectFieldStart(group.getGroup());
+      group.writeSummary(json);
+      json.writeEndObject();
+    }
+    json.writeEndObject();
+  }
+}
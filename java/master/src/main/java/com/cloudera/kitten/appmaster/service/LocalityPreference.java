@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.util.RackResolver;
+
+import com.cloudera.kitten.appmaster.util.BlockDistribution;
+import com.cloudera.kitten.appmaster.util.HDFSFileFinder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * The hosts and racks that a group of containers would prefer to run on, ranked by how many
+ * bytes of the group's input data each host holds.
+ */
+class LocalityPreference {
+
+  public enum Level { NODE_LOCAL, RACK_LOCAL, OFF_SWITCH }
+
+  /** A preference that does not favor any node or rack. */
+  public static final LocalityPreference NONE = new LocalityPreference(
+      ImmutableList.<String>of(), ImmutableMap.<String, String>of());
+
+  private final List<String> hosts;
+  private final Map<String, String> hostToRack;
+  private final Set<String> racks;
+
+  /**
+   * Ranks the datanodes that hold the files matching the given HDFS glob.
+   */
+  public static LocalityPreference forHdfsGlob(String glob, Configuration conf) throws IOException {
+    return forBlocks(HDFSFileFinder.getBlockDistribution(new Path(glob), conf), conf);
+  }
+
+  /**
+   * Ranks the hosts of the given block distribution, resolving their racks with the
+   * topology configured in {@code conf}.
+   */
+  static LocalityPreference forBlocks(BlockDistribution blocks, Configuration conf) {
+    final Map<String, Long> bytesHeld = blocks.getBytesByHost();
+    List<String> hosts = Lists.newArrayList(bytesHeld.keySet());
+    Collections.sort(hosts, new Comparator<String>() {
+      @Override
+      public int compare(String a, String b) {
+        return bytesHeld.get(b).compareTo(bytesHeld.get(a));
+      }
+    });
+    RackResolver.init(conf);
+    Map<String, String> hostToRack = Maps.newHashMap();
+    for (String host : hosts) {
+      hostToRack.put(host, RackResolver.resolve(host).getNetworkLocation());
+    }
+    return new LocalityPreference(hosts, hostToRack);
+  }
+
+  private LocalityPreference(List<String> hosts, Map<String, String> hostToRack) {
+    this.hosts = hosts;
+    this.hostToRack = hostToRack;
+    this.racks = ImmutableSet.copyOf(hostToRack.values());
+  }
+
+  public boolean isEmpty() {
+    return hosts.isEmpty();
+  }
+
+  /**
+   * Returns the preferred nodes for the index-th container of the group, spreading the
+   * containers across the hosts in order of how much data they hold.
+   */
+  public String[] getNodes(int index) {
+    if (hosts.isEmpty()) {
+      return null;
+    }
+    return new String[] { hosts.get(index % hosts.size()) };
+  }
+
+  public String[] getRacks(int index) {
+    if (hosts.isEmpty()) {
+      return null;
+    }
+    return new String[] { hostToRack.get(hosts.get(index % hosts.size())) };
+  }
+
+  /**
+   * Returns the rack of the given host. Only valid for a non-empty preference.
+   */
+  public String resolveRack(String host) {
+    String rack = hostToRack.get(host);
+    return rack != null ? rack : RackResolver.resolve(host).getNetworkLocation();
+  }
+
+  public Level classify(Container container) {
+    String host = container.getNodeId().getHost();
+    if (hostToRack.containsKey(host)) {
+      return Level.NODE_LOCAL;
+    }
+    if (!racks.isEmpty() && racks.contains(resolveRack(host))) {
+      return Level.RACK_LOCAL;
+    }
+    return Level.OFF_SWITCH;
+  }
+}
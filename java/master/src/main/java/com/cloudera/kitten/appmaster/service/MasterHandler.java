@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import java.io.IOException;
+
+import org.apache.hadoop.ipc.ProtocolSignature;
+
+import com.cloudera.kitten.MasterProtocol;
+import com.cloudera.kitten.appmaster.ApplicationMasterService;
+
+/**
+ * Lets clients resize the container groups of the application master.
+ */
+class MasterHandler implements MasterProtocol {
+
+  private final ApplicationMasterService master;
+
+  public MasterHandler(ApplicationMasterService master) {
+    this.master = master;
+  }
+
+  @Override
+  public int getDesiredInstances(String group) throws IOException {
+    ApplicationMasterServiceImpl.checkRpcToken();
+    try {
+      return master.getDesiredInstances(group);
+    } catch (IllegalArgumentException e) {
+      throw new IOException(e.getMessage());
+    }
+  }
+
+  @Override
+  public void setDesiredInstances(String group, int instances) throws IOException {
+    ApplicationMasterServiceImpl.checkRpcToken();
+    try {
+      master.setDesiredInstances(group, instances);
+    } catch (IllegalArgumentException e) {
+      throw new IOException(e.getMessage());
+    }
+  }
+
+  @Override
+  public long getProtocolVersion(String protocol, long clientVersion) {
+    return versionID;
+  }
+
+  @Override
+  public ProtocolSignature getProtocolSignature(String protocol, long clientVersion,
+      int clientMethodsHash) throws IOException {
+    return ProtocolSignature.getProtocolSignature(this, protocol, clientVersion,
+        clientMethodsHash);
+  }
+}
@@ -0,0 +1,300 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+
+import com.cloudera.kitten.util.LocalDataHelper;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * An append-only log of the work that the application master has finished, so that when the
+ * ResourceManager restarts it, the next attempt only runs what is left.
+ *
+ * <p>Each attempt writes its own file, {@code journal.<attempt>}, in the application's
+ * staging directory. It starts with a compacted copy of the state that was recovered from
+ * the previous attempt's file, so only the latest file is ever read and the files are never
+ * appended to. Records are a type byte followed by the group name and vints; a record that
+ * was cut off when an attempt died is ignored.
+ *
+ * <p>Records are buffered and only flushed by {@link #flush()}, which the master calls once
+ * a second, so the callbacks do not wait for the file system. Work that finished in the last
+ * second before an attempt died is done again by the next one.
+ */
+public class MasterJournal {
+
+  private static final Log LOG = LogFactory.getLog(MasterJournal.class);
+
+  /** Whether to keep a journal. */
+  public static final String JOURNAL_ENABLED = "kitten.master.journal.enabled";
+  public static final boolean DEFAULT_JOURNAL_ENABLED = true;
+
+  /** The directory for the journals; by default, the application's staging directory. */
+  public static final String JOURNAL_DIR = "kitten.master.journal.dir";
+
+  private static final String PREFIX = "journal.";
+  private static final byte MAGIC = 'J';
+  private static final byte VERSION = 1;
+
+  // Record types.
+  private static final byte COMPLETED = 'c';
+  private static final byte FAILED = 'f';
+  private static final byte TASK = 't';
+  private static final byte RESIZED = 'r';
+
+  /**
+   * The work of one container group that previous attempts finished.
+   */
+  public static class GroupState {
+    private final Set<Integer> completed = Sets.newHashSet();
+    private final Set<Integer> tasks = Sets.newHashSet();
+    private int failed = 0;
+    private int desired = -1;
+
+    /** The instance indices of the containers that completed successfully. */
+    public Set<Integer> getCompleted() {
+      return completed;
+    }
+
+    /** The ids of the tasks that succeeded. */
+    public Set<Integer> getTasks() {
+      return tasks;
+    }
+
+    public int getFailed() {
+      return failed;
+    }
+
+    /** The size that the group was last resized to, or -1 if it was not resized. */
+    public int getDesired() {
+      return desired;
+    }
+  }
+
+  private final Map<String, GroupState> recovered;
+  private final FileSystem fs;
+  private final Path dir;
+  private FSDataOutputStream out;
+
+  /**
+   * Returns a journal that does not record anything, for when there is nowhere to keep one.
+   */
+  public static MasterJournal disabled() {
+    return new MasterJournal();
+  }
+
+  private MasterJournal() {
+    this.recovered = Maps.newHashMap();
+    this.fs = null;
+    this.dir = null;
+  }
+
+  /**
+   * Recovers the state of the most recent earlier attempt, if any, and starts the journal
+   * of the given attempt.
+   */
+  public MasterJournal(Configuration conf, ApplicationAttemptId attempt) throws IOException {
+    String journalDir = conf.get(JOURNAL_DIR);
+    if (journalDir != null) {
+      this.dir = new Path(journalDir, attempt.getApplicationId().toString());
+    } else {
+      this.dir = new Path(LocalDataHelper.getAppBaseDir(FileSystem.get(conf), conf),
+          "app" + attempt.getApplicationId().getId());
+    }
+    this.fs = dir.getFileSystem(conf);
+    this.recovered = recover(attempt.getAttemptId());
+    fs.mkdirs(dir);
+    this.out = fs.create(new Path(dir, PREFIX + attempt.getAttemptId()), true);
+    out.writeByte(MAGIC);
+    out.writeByte(VERSION);
+    for (Map.Entry<String, GroupState> e : recovered.entrySet()) {
+      String group = e.getKey();
+      GroupState state = e.getValue();
+      for (int index : state.completed) {
+        write(COMPLETED, group, index);
+      }
+      for (int task : state.tasks) {
+        write(TASK, group, task);
+      }
+      for (int i = 0; i < state.failed; i++) {
+        write(FAILED, group, 0);
+      }
+      if (state.desired >= 0) {
+        write(RESIZED, group, state.desired);
+      }
+    }
+    out.hflush();
+  }
+
+  private Map<String, GroupState> recover(int attemptId) throws IOException {
+    Map<String, GroupState> groups = Maps.newHashMap();
+    for (int previous = attemptId - 1; previous > 0; previous--) {
+      Path path = new Path(dir, PREFIX + previous);
+      if (fs.exists(path)) {
+        LOG.info("Recovering the state of attempt " + previous + " from " + path);
+        read(path, groups);
+        break;
+      }
+    }
+    return groups;
+  }
+
+  private void read(Path path, Map<String, GroupState> groups) throws IOException {
+    DataInputStream in = fs.open(path);
+    try {
+      if (in.readByte() != MAGIC || in.readByte() != VERSION) {
+        LOG.warn("Ignoring unknown journal " + path);
+        return;
+      }
+      while (true) {
+        byte type = in.readByte();
+        String group = Text.readString(in);
+        int value = WritableUtils.readVInt(in);
+        GroupState state = groups.get(group);
+        if (state == null) {
+          state = new GroupState();
+          groups.put(group, state);
+        }
+        switch (type) {
+        case COMPLETED:
+          state.completed.add(value);
+          break;
+        case FAILED:
+          state.failed++;
+          break;
+        case TASK:
+          state.tasks.add(value);
+          break;
+        case RESIZED:
+          state.desired = value;
+          break;
+        default:
+          LOG.warn("Ignoring the rest of " + path + " after unknown record type " + type);
+          return;
+        }
+      }
+    } catch (EOFException e) {
+      // The end of the journal, or a record that was cut off.
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Returns what the previous attempts finished for the given group, which is empty if this
+   * is the first attempt.
+   */
+  public GroupState getRecovered(String group) {
+    GroupState state = recovered.get(group);
+    return state == null ? new GroupState() : state;
+  }
+
+  public void containerCompleted(String group, int index) {
+    append(COMPLETED, group, index);
+  }
+
+  public void containerFailed(String group) {
+    append(FAILED, group, 0);
+  }
+
+  public void taskSucceeded(String group, int taskId) {
+    append(TASK, group, taskId);
+  }
+
+  public void resized(String group, int desired) {
+    append(RESIZED, group, desired);
+  }
+
+  private synchronized void append(byte type, String group, int value) {
+    if (out == null) {
+      return;
+    }
+    try {
+      write(type, group, value);
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  private void write(byte type, String group, int value) throws IOException {
+    out.writeByte(type);
+    Text.writeString(out, group);
+    WritableUtils.writeVInt(out, value);
+  }
+
+  /**
+   * Makes the records so far visible to the next attempt.
+   */
+  public synchronized void flush() {
+    if (out != null) {
+      try {
+        out.hflush();
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+  }
+
+  /**
+   * Closes the journal and, if the application has finished and will not be restarted,
+   * deletes the journals of every attempt.
+   */
+  public synchronized void close(boolean finished) {
+    if (out == null) {
+      return;
+    }
+    try {
+      out.close();
+      out = null;
+      if (finished) {
+        FileStatus[] journals = fs.globStatus(new Path(dir, PREFIX + "*"));
+        if (journals != null) {
+          for (FileStatus journal : journals) {
+            fs.delete(journal.getPath(), false);
+          }
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn("Error closing the journal in " + dir, e);
+    }
+  }
+
+  // The journal only saves work, so the master carries on without it.
+  private void fail(IOException e) {
+    LOG.warn("Error writing the journal in " + dir + ", no longer keeping one", e);
+    try {
+      out.close();
+    } catch (IOException ignored) {
+      // Already failing.
+    }
+    out = null;
+  }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import com.cloudera.kitten.appmaster.util.LatencyHistogram;
+import com.cloudera.kitten.appmaster.util.LatencySnapshot;
+import com.google.common.collect.Lists;
+
+/**
+ * The metrics of the application master and its container groups, which are registered as
+ * MBeans under the {@code Kitten} domain and can be written out as JSON.
+ */
+public class MasterMetrics implements MasterMetricsMXBean {
+
+  private static final Log LOG = LogFactory.getLog(MasterMetrics.class);
+
+  private static final String DOMAIN = "Kitten";
+
+  private final JsonFactory jsonFactory = new JsonFactory();
+  private final List<ContainerGroupMetrics> groups =
+      new CopyOnWriteArrayList<ContainerGroupMetrics>();
+  private final List<ObjectName> registered = Lists.newArrayList();
+  private final LatencyHistogram heartbeat = new LatencyHistogram();
+  private final AtomicInteger nodeManagerQueue = new AtomicInteger();
+
+  public MasterMetrics() {
+    register(this, "type=ApplicationMaster");
+  }
+
+  public ContainerGroupMetrics addGroup(String group, ContainerStates states) {
+    ContainerGroupMetrics metrics = new ContainerGroupMetrics(group, states);
+    groups.add(metrics);
+    register(metrics, "type=ContainerGroup,name=" + ObjectName.quote(group));
+    return metrics;
+  }
+
+  public void heartbeat(long millis) {
+    heartbeat.record(millis);
+  }
+
+  /** Called before each request to a NodeManager. */
+  public void nodeManagerRequested() {
+    nodeManagerQueue.incrementAndGet();
+  }
+
+  /** Called from the callback for each request to a NodeManager. */
+  public void nodeManagerResponded() {
+    nodeManagerQueue.decrementAndGet();
+  }
+
+  @Override
+  public LatencySnapshot getHeartbeatLatency() {
+    return heartbeat.snapshot();
+  }
+
+  @Override
+  public int getNodeManagerQueueDepth() {
+    return nodeManagerQueue.get();
+  }
+
+  @Override
+  public String[] getContainerGroups() {
+    String[] names = new String[groups.size()];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = groups.get(i).getGroup();
+    }
+    return names;
+  }
+
+  public void writeJson(OutputStream out) throws IOException {
+    JsonGenerator json = jsonFactory.createJsonGenerator(out, JsonEncoding.UTF8);
+    json.writeStartObject();
+    writeLatency(json, "heartbeatLatency", getHeartbeatLatency());
+    json.writeNumberField("nodeManagerQueueDepth", getNodeManagerQueueDepth());
+    json.writeObjectFieldStart("groups");
+    for (ContainerGroupMetrics group : groups) {
+      json.writeObjectFieldStart(group.getGroup());
+      json.writeNumberField("requested", group.getRequested());
+      json.writeNumberField("allocated", group.getAllocated());
+      json.writeNumberField("launching", group.getLaunching());
+      json.writeNumberField("running", group.getRunning());
+      json.writeNumberField("completed", group.getCompleted());
+      json.writeNumberField("failed", group.getFailed());
+      json.writeNumberField("aborted", group.getAborted());
+      writeLatency(json, "allocationLatency", group.getAllocationLatency());
+      writeLatency(json, "launchLatency", group.getLaunchLatency());
+      writeLatency(json, "runtime", group.getRuntime());
+      json.writeEndObject();
+    }
+    json.writeEndObject();
+    json.writeEndObject();
+    json.flush();
+  }
+
+  private static void writeLatency(JsonGenerator json, String name, LatencySnapshot latency)
+      throws IOException {
+    json.writeObjectFieldStart(name);
+    json.writeNumberField("count", latency.getCount());
+    json.writeNumberField("mean", latency.getMean());
+    json.writeNumberField("median", latency.getMedian());
+    json.writeNumberField("p90", latency.getP90());
+    json.writeNumberField("p99", latency.getP99());
+    json.writeNumberField("max", latency.getMax());
+    json.writeEndObject();
+  }
+
+  public synchronized void unregister() {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    for (ObjectName name : registered) {
+      try {
+        server.unregisterMBean(name);
+      } catch (JMException e) {
+        LOG.debug("Could not unregister " + name, e);
+      }
+    }
+    registered.clear();
+  }
+
+  // The metrics are only for monitoring, so the master runs on without them if need be.
+  private synchronized void register(Object bean, String properties) {
+    try {
+      ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+      ManagementFactory.getPlatformMBeanServer().registerMBean(bean, name);
+      registered.add(name);
+    } catch (JMException e) {
+      LOG.warn("Could not register metrics for " + properties, e);
+    }
+  }
+}
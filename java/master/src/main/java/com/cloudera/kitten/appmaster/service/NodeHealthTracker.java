@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Keeps score of the container failures on each node, and decides which nodes the
+ * application master should ask the resource manager not to give it containers on.
+ *
+ * <p>A node is blacklisted once it has had too many failures, unless that would blacklist
+ * too much of the cluster, in which case the failures are more likely to be the fault of the
+ * application. Nodes that the resource manager reports as unusable are blacklisted right away
+ * and taken off the blacklist again when they come back, unless they have failed too often.
+ */
+public class NodeHealthTracker {
+
+  /** The number of container failures on a node after which no more are requested there. */
+  public static final String MAX_NODE_FAILURES = "kitten.node.max.failures";
+  public static final int DEFAULT_MAX_NODE_FAILURES = 3;
+
+  /** The largest fraction of the cluster that can be blacklisted because of failures. */
+  public static final String MAX_BLACKLIST_FRACTION = "kitten.node.blacklist.max.fraction";
+  public static final float DEFAULT_MAX_BLACKLIST_FRACTION = 0.33f;
+
+  private final int maxFailures;
+  private final float maxFraction;
+  private final Map<String, Integer> failures = Maps.newHashMap();
+  // Blacklisted because of their failures.
+  private final Set<String> failed = Sets.newHashSet();
+  // Blacklisted because the resource manager reported them as unusable.
+  private final Set<String> unusable = Sets.newHashSet();
+
+  public NodeHealthTracker(Configuration conf) {
+    this(conf.getInt(MAX_NODE_FAILURES, DEFAULT_MAX_NODE_FAILURES),
+        conf.getFloat(MAX_BLACKLIST_FRACTION, DEFAULT_MAX_BLACKLIST_FRACTION));
+  }
+
+  public NodeHealthTracker(int maxFailures, float maxFraction) {
+    this.maxFailures = maxFailures;
+    this.maxFraction = maxFraction;
+  }
+
+  /**
+   * Records a container failure on the given host. Returns true if the host should be added
+   * to the blacklist now.
+   */
+  public synchronized boolean containerFailed(String host, int clusterNodes) {
+    Integer count = failures.get(host);
+    count = count == null ? 1 : count + 1;
+    failures.put(host, count);
+    if (count < maxFailures || failed.contains(host) ||
+        failed.size() + 1 > maxFraction * clusterNodes) {
+      return false;
+    }
+    failed.add(host);
+    return !unusable.contains(host);
+  }
+
+  /**
+   * Records that the given host cannot run containers. Returns true if it should be added to
+   * the blacklist now.
+   */
+  public synchronized boolean nodeUnusable(String host) {
+    return unusable.add(host) && !failed.contains(host);
+  }
+
+  /**
+   * Records that the given host can run containers again. Returns true if it should be
+   * removed from the blacklist now.
+   */
+  public synchronized boolean nodeUsable(String host) {
+    return unusable.remove(host) && !failed.contains(host);
+  }
+
+  public synchronized boolean isBlacklisted(String host) {
+    return failed.contains(host) || unusable.contains(host);
+  }
+
+  /**
+   * Returns a copy of the number of failures on each host that has had any.
+   */
+  public synchronized Map<String, Integer> getFailures() {
+    return Maps.newHashMap(failures);
+  }
+
+  /**
+   * Returns a copy of the hosts that are blacklisted, for either reason.
+   */
+  public synchronized Set<String> getBlacklisted() {
+    return Sets.union(failed, unusable).immutableCopy();
+  }
+
+  public synchronized int getFailures(String host) {
+    Integer count = failures.get(host);
+    return count == null ? 0 : count;
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.codehaus.jackson.JsonGenerator;
+
+import com.google.common.collect.Lists;
+
+/**
+ * The most recent container and task failures of the job, numbered in the order they
+ * happened, for the tracking server to show and to stream to its subscribers.
+ */
+public class RecentFailures {
+
+  /** The number of failures to keep. */
+  public static final String MAX_RECENT_FAILURES = "kitten.master.recent.failures";
+  public static final int DEFAULT_MAX_RECENT_FAILURES = 50;
+
+  // Diagnostics can hold whole stack traces, so only the start of them is kept.
+  private static final int MAX_DIAGNOSTICS_LENGTH = 1024;
+
+  public static class Failure {
+    private final long seq;
+    private final long time;
+    private final String group;
+    private final String containerId;
+    private final String host;
+    private final int exitStatus;
+    private final String diagnostics;
+
+    private Failure(long seq, String group, String containerId, String host, int exitStatus,
+        String diagnostics) {
+      this.seq = seq;
+      this.time = System.currentTimeMillis();
+      this.group = group;
+      this.containerId = containerId;
+      this.host = host;
+      this.exitStatus = exitStatus;
+      this.diagnostics = diagnostics;
+    }
+
+    public long getSeq() {
+      return seq;
+    }
+
+    @Override
+    public String toString() {
+      return "container " + containerId + " of group " + group + " on " + host +
+          ", with exit status " + exitStatus + ": " + diagnostics;
+    }
+
+    public void writeJson(JsonGenerator json) throws IOException {
+      json.writeStartObject();
+      json.writeNumberField("seq", seq);
+      json.writeNumberField("time", time);
+      json.writeStringField("group", group);
+      json.writeStringField("container", containerId);
+      json.writeStringField("host", host);
+      json.writeNumberField("exitStatus", exitStatus);
+      json.writeStringField("diagnostics", diagnostics);
+      json.writeEndObject();
+    }
+  }
+
+  private final int capacity;
+  private final LinkedList<Failure> failures = Lists.newLinkedList();
+  private long lastSeq = 0L;
+
+  public RecentFailures(int capacity) {
+    this.capacity = capacity;
+  }
+
+  public synchronized void record(String group, String containerId, String host,
+      int exitStatus, String diagnostics) {
+    if (diagnostics != null && diagnostics.length() > MAX_DIAGNOSTICS_LENGTH) {
+      diagnostics = diagnostics.substring(0, MAX_DIAGNOSTICS_LENGTH);
+    }
+    failures.addLast(new Failure(++lastSeq, group, containerId, host, exitStatus, diagnostics));
+    if (failures.size() > capacity) {
+      failures.removeFirst();
+    }
+  }
+
+  /**
+   * Returns the sequence number of the most recent failure, or 0 if there have been none.
+   */
+  public synchronized long getLastSeq() {
+    return lastSeq;
+  }
+
+  /**
+   * Returns the failures that are still kept and came after the given sequence number,
+   * oldest first.
+   */
+  public synchronized List<Failure> since(long seq) {
+    List<Failure> recent = Lists.newArrayList();
+    for (Failure f : failures) {
+      if (f.getSeq() > seq) {
+        recent.add(f);
+      }
+    }
+    return recent;
+  }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.ipc.ProtocolSignature;
+import org.apache.hadoop.yarn.util.ConverterUtils;
+
+import com.cloudera.kitten.task.Task;
+import com.cloudera.kitten.task.TaskProtocol;
+
+/**
+ * Serves the tasks of task-queue groups to the agents in their containers, and records the
+ * outcome of each task that an agent reports.
+ */
+class TaskHandler implements TaskProtocol {
+
+  private static final Log LOG = LogFactory.getLog(TaskHandler.class);
+
+  private final ApplicationMasterServiceImpl master;
+  private final RecentFailures recentFailures;
+
+  public TaskHandler(ApplicationMasterServiceImpl master, RecentFailures recentFailures) {
+    this.master = master;
+    this.recentFailures = recentFailures;
+  }
+
+  @Override
+  public Task nextTask(String containerId, int lastTaskId, int lastExitStatus)
+      throws IOException {
+    ApplicationMasterServiceImpl.checkRpcToken();
+    ContainerGroup group = master.getOwner(ConverterUtils.toContainerId(containerId));
+    TaskQueue tasks = group == null ? null : group.getTasks();
+    if (tasks == null) {
+      LOG.warn("Task request from unknown container id = " + containerId);
+      return null;
+    }
+    if (lastTaskId != NO_TASK) {
+      switch (tasks.finish(containerId, lastTaskId, lastExitStatus)) {
+      case SUCCEEDED:
+        master.getJournal().taskSucceeded(group.getGroup(), lastTaskId);
+        break;
+      case FAILED:
+        ContainerStates.Entry entry =
+            group.getStates().get(ConverterUtils.toContainerId(containerId));
+        recentFailures.record(group.getGroup(), containerId,
+            entry == null ? null : entry.getContainer().getNodeId().getHost(),
+            lastExitStatus, "Task " + lastTaskId + " failed");
+        break;
+      default:
+        // A report on a task that the container is not running does not count.
+      }
+    }
+    return master.isRunning() ? tasks.take(containerId) : null;
+  }
+
+  @Override
+  public long getProtocolVersion(String protocol, long clientVersion) {
+    return versionID;
+  }
+
+  @Override
+  public ProtocolSignature getProtocolSignature(String protocol, long clientVersion,
+      int clientMethodsHash) throws IOException {
+    return ProtocolSignature.getProtocolSignature(this, protocol, clientVersion,
+        clientMethodsHash);
+  }
+}
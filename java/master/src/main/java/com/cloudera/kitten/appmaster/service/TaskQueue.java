@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.cloudera.kitten.task.Task;
+import com.cloudera.kitten.task.TaskSource;
+import com.google.common.collect.Maps;
+
+/**
+ * Hands the tasks of a container group out to the agents in its containers, one at a time,
+ * and keeps track of the task that each container is running so that it can be handed to
+ * another container if the one running it is lost.
+ */
+public class TaskQueue {
+
+  private static final Log LOG = LogFactory.getLog(TaskQueue.class);
+
+  /** What became of a container's report on the task it ran. */
+  public enum Result {
+    SUCCEEDED,
+    FAILED,
+    /** The container was not running that task, so the report was ignored. */
+    REJECTED
+  }
+
+  private final String group;
+  private final TaskSource source;
+  // The tasks of lost containers, which are handed out before any new ones.
+  private final Queue<Task> requeued = new ConcurrentLinkedQueue<Task>();
+  private final ConcurrentMap<String, Task> running = Maps.newConcurrentMap();
+  private final AtomicInteger succeeded = new AtomicInteger();
+  private final AtomicInteger failed = new AtomicInteger();
+  private volatile boolean exhausted = false;
+  private volatile RuntimeException error;
+  // The ids of tasks that an earlier attempt of the master already ran.
+  private volatile Set<Integer> done = Collections.emptySet();
+
+  public TaskQueue(String group, TaskSource source) {
+    this.group = group;
+    this.source = source;
+  }
+
+  /**
+   * Skips the tasks with the given ids when they come up, because they have already run.
+   */
+  public void skip(Set<Integer> taskIds) {
+    this.done = taskIds;
+  }
+
+  /**
+   * Records the exit status of the task that the given container was running.
+   */
+  public Result finish(String containerId, int taskId, int exitStatus) {
+    Task task = running.get(containerId);
+    if (task == null || task.getId() != taskId) {
+      LOG.warn("Container " + containerId + " reported on task " + taskId +
+          ", which it is not running");
+      return Result.REJECTED;
+    }
+    running.remove(containerId);
+    if (exitStatus == 0) {
+      succeeded.incrementAndGet();
+      return Result.SUCCEEDED;
+    }
+    LOG.warn(task + " of group " + group + " failed with exit status " + exitStatus +
+        " in container " + containerId);
+    failed.incrementAndGet();
+    return Result.FAILED;
+  }
+
+  /**
+   * Returns the next task for the given container to run, or null if there are none left
+   * or the task source failed, in which case {@link #getError()} returns why.
+   */
+  public Task take(String containerId) {
+    Task task = requeued.poll();
+    if (task == null && !exhausted) {
+      try {
+        task = source.next();
+        while (task != null && done.contains(task.getId())) {
+          task = source.next();
+        }
+      } catch (RuntimeException e) {
+        LOG.error("Error getting the next task for group " + group, e);
+        error = e;
+        task = null;
+      }
+      if (task == null) {
+        exhausted = true;
+      }
+    }
+    if (task != null) {
+      running.put(containerId, task);
+    }
+    return task;
+  }
+
+  /**
+   * Puts the task that the given container was running, if any, back in the queue.
+   */
+  public void containerLost(String containerId) {
+    Task task = running.remove(containerId);
+    if (task != null) {
+      LOG.info("Requeueing " + task + " of group " + group + " from container " + containerId);
+      requeued.add(task);
+    }
+  }
+
+  /**
+   * Whether there are tasks from lost containers that still need to run.
+   */
+  public boolean hasRequeued() {
+    return !requeued.isEmpty();
+  }
+
+  /**
+   * Returns the number of tasks that have not been handed out yet, or -1 if that is not known.
+   */
+  public int getQueued() {
+    int remaining = exhausted ? 0 : source.remaining();
+    return remaining < 0 ? -1 : remaining + requeued.size();
+  }
+
+  public int getSucceeded() {
+    return succeeded.get();
+  }
+
+  public int getFailed() {
+    return failed.get();
+  }
+
+  /**
+   * Returns the error that the task source threw, if any. The remaining tasks are never
+   * handed out, so the job cannot succeed.
+   */
+  public RuntimeException getError() {
+    return error;
+  }
+
+  public void logStatus() {
+    LOG.info(String.format("Tasks for container group %s: %d succeeded, %d failed, %d not run",
+        group, succeeded.get(), failed.get(), requeued.size() + running.size()));
+  }
+}
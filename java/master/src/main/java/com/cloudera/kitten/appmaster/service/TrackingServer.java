@@ -0,0 +1,409 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The HTTP server at the application master's tracking URL. It serves the state of the job
+ * as JSON at {@code /state}, its metrics at {@code /metrics}, and a stream of server-sent
+ * events at {@code /events}. It uses the HTTP server that comes with the JDK, so the master
+ * does not need a servlet container on its classpath.
+ *
+ * <p>The event stream does not hold a thread for each subscriber. A single thread checks the
+ * job once an interval and queues a {@code summary} event for every subscriber when the
+ * summary has changed, and a {@code failure} event for each new failure. Writer threads send
+ * the queued events, so a subscriber that reads slowly does not hold up the others, and one
+ * whose queue fills up is dropped.
+ *
+ * <p>The container events that the master still keeps are at {@code /eventlog}, or only
+ * those after a given sequence number at {@code /eventlog?since=<seq>}.
+ */
+public class TrackingServer {
+
+  private static final Log LOG = LogFactory.getLog(TrackingServer.class);
+
+  /** The port to serve on; by default, any free port. */
+  public static final String HTTP_PORT = "kitten.master.http.port";
+  public static final int DEFAULT_HTTP_PORT = 0;
+
+  /** The number of threads that handle requests. */
+  public static final String HTTP_THREADS = "kitten.master.http.threads";
+  public static final int DEFAULT_HTTP_THREADS = 2;
+
+  /** How often the event stream is updated, in milliseconds. */
+  public static final String EVENTS_INTERVAL = "kitten.master.http.events.interval.ms";
+  public static final int DEFAULT_EVENTS_INTERVAL = 1000;
+
+  /** The number of events that may wait for a subscriber before it is dropped. */
+  public static final String EVENTS_QUEUE = "kitten.master.http.events.queue";
+  public static final int DEFAULT_EVENTS_QUEUE = 64;
+
+  private static final String JSON = "application/json; charset=utf-8";
+  private static final String EVENT_STREAM = "text/event-stream; charset=utf-8";
+  // Send a comment to idle subscribers about this often, so closed connections are noticed.
+  private static final long KEEPALIVE_MILLIS = 15000L;
+
+  /**
+   * The state of the job that the server shows.
+   */
+  public interface JobState {
+    /** Writes the whole state of the job as a JSON object. */
+    void writeState(JsonGenerator json) throws IOException;
+
+    /** Writes a short summary of the job, for the event stream, as a JSON object. */
+    void writeSummary(JsonGenerator json) throws IOException;
+  }
+
+  private final JsonFactory jsonFactory = new JsonFactory();
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final ScheduledExecutorService publisher;
+  private final ExecutorService writers;
+  private final int eventsInterval;
+  private final int eventsQueue;
+  private final JobState state;
+  private final RecentFailures failures;
+  private final EventLog eventLog;
+  private final List<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+  // Only used by the publisher thread.
+  private String lastSummary;
+  private long lastFailure;
+  private long lastSent;
+
+  public TrackingServer(Configuration conf, final MasterMetrics metrics, JobState state,
+      RecentFailures failures, EventLog eventLog) throws IOException {
+    this.state = state;
+    this.failures = failures;
+    this.eventLog = eventLog;
+    this.eventsInterval = conf.getInt(EVENTS_INTERVAL, DEFAULT_EVENTS_INTERVAL);
+    this.eventsQueue = conf.getInt(EVENTS_QUEUE, DEFAULT_EVENTS_QUEUE);
+    this.server = HttpServer.create(
+        new InetSocketAddress(conf.getInt(HTTP_PORT, DEFAULT_HTTP_PORT)), 0);
+    this.executor = Executors.newFixedThreadPool(conf.getInt(HTTP_THREADS, DEFAULT_HTTP_THREADS),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("tracking-server-%d").build());
+    this.publisher = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("tracking-events").build());
+    this.writers = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("tracking-writer-%d").build());
+    server.setExecutor(executor);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        if (!"/".equals(exchange.getRequestURI().getPath())) {
+          sendEmpty(exchange, 404);
+          return;
+        }
+        exchange.getResponseHeaders().set("Location", "state");
+        sendEmpty(exchange, 302);
+      }
+    });
+    server.createContext("/state", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        sendJson(exchange, new JsonWriter() {
+          @Override
+          public void write(JsonGenerator json) throws IOException {
+            TrackingServer.this.state.writeState(json);
+          }
+        });
+      }
+    });
+    server.createContext("/metrics", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", JSON);
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        try {
+          metrics.writeJson(out);
+        } finally {
+          out.close();
+        }
+      }
+    });
+    server.createContext("/eventlog", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        final long since;
+        try {
+          since = getSince(exchange.getRequestURI().getRawQuery());
+        } catch (NumberFormatException e) {
+          sendEmpty(exchange, 400);
+          return;
+        }
+        sendJson(exchange, new JsonWriter() {
+          @Override
+          public void write(JsonGenerator json) throws IOException {
+            json.writeStartObject();
+            json.writeNumberField("lastSeq", TrackingServer.this.eventLog.getLastSeq());
+            json.writeArrayFieldStart("events");
+            for (EventLog.Event e : TrackingServer.this.eventLog.since(since)) {
+              e.writeJson(json);
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+          }
+        });
+      }
+    });
+    server.createContext("/events", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", EVENT_STREAM);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        // The exchange stays open after the handler returns; the writers write to it.
+        Subscriber subscriber = new Subscriber(exchange.getResponseBody(), eventsQueue, writers);
+        subscriber.offer(event("summary", null, summary()));
+        subscribers.add(subscriber);
+      }
+    });
+  }
+
+  private interface JsonWriter {
+    void write(JsonGenerator json) throws IOException;
+  }
+
+  public void start() {
+    server.start();
+    publisher.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          publish();
+        } catch (Exception e) {
+          LOG.warn("Error publishing tracking events", e);
+        }
+      }
+    }, eventsInterval, eventsInterval, TimeUnit.MILLISECONDS);
+    LOG.info("Serving HTTP at port " + getPort());
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  public void stop() {
+    publisher.shutdownNow();
+    for (Subscriber subscriber : subscribers) {
+      subscriber.close();
+    }
+    subscribers.clear();
+    // Let the writers close the streams, which may block; they are daemon threads.
+    writers.shutdown();
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void publish() throws IOException {
+    List<RecentFailures.Failure> newFailures = failures.since(lastFailure);
+    if (!newFailures.isEmpty()) {
+      lastFailure = newFailures.get(newFailures.size() - 1).getSeq();
+    }
+    if (subscribers.isEmpty()) {
+      lastSummary = null;
+      return;
+    }
+    String summary = summary();
+    if (!summary.equals(lastSummary)) {
+      lastSummary = summary;
+      send(event("summary", null, summary));
+    }
+    for (final RecentFailures.Failure f : newFailures) {
+      send(event("failure", String.valueOf(f.getSeq()), toJson(new JsonWriter() {
+        @Override
+        public void write(JsonGenerator json) throws IOException {
+          f.writeJson(json);
+        }
+      })));
+    }
+    if (System.currentTimeMillis() - lastSent > KEEPALIVE_MILLIS) {
+      send(": keepalive\n\n".getBytes(Charsets.UTF_8));
+    }
+  }
+
+  // Queues the event for every subscriber, and drops the ones that have gone away or fallen
+  // too far behind.
+  private void send(byte[] event) {
+    lastSent = System.currentTimeMillis();
+    for (Subscriber subscriber : subscribers) {
+      if (!subscriber.offer(event)) {
+        LOG.debug("Dropping event subscriber");
+        subscribers.remove(subscriber);
+        subscriber.close();
+      }
+    }
+  }
+
+  /**
+   * A subscriber to the event stream. Its events wait in a bounded queue until a writer gets
+   * to them; at most one writer works on a subscriber at a time.
+   */
+  static class Subscriber implements Runnable {
+    private final OutputStream out;
+    private final BlockingQueue<byte[]> queue;
+    private final Executor writers;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean closed;
+
+    Subscriber(OutputStream out, int capacity, Executor writers) {
+      this.out = out;
+      this.queue = new ArrayBlockingQueue<byte[]>(capacity);
+      this.writers = writers;
+    }
+
+    /**
+     * Queues the given event. Returns false if the subscriber has gone away or its queue is
+     * full, in which case it should be closed.
+     */
+    boolean offer(byte[] event) {
+      if (closed || !queue.offer(event)) {
+        return false;
+      }
+      schedule();
+      return true;
+    }
+
+    /** Stops writing to the subscriber and closes its stream on a writer thread. */
+    void close() {
+      closed = true;
+      queue.clear();
+      writers.execute(new Runnable() {
+        @Override
+        public void run() {
+          closeQuietly(out);
+        }
+      });
+    }
+
+    private void schedule() {
+      if (scheduled.compareAndSet(false, true)) {
+        writers.execute(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        byte[] event;
+        while (!closed && (event = queue.poll()) != null) {
+          out.write(event);
+        }
+        out.flush();
+      } catch (IOException e) {
+        LOG.debug("Event subscriber has gone away", e);
+        closed = true;
+      } finally {
+        scheduled.set(false);
+      }
+      // Pick up the events that were queued after the last poll.
+      if (!closed && !queue.isEmpty()) {
+        schedule();
+      }
+    }
+  }
+
+  private String summary() throws IOException {
+    return toJson(new JsonWriter() {
+      @Override
+      public void write(JsonGenerator json) throws IOException {
+        state.writeSummary(json);
+      }
+    });
+  }
+
+  private static byte[] event(String type, String id, String data) {
+    StringBuilder sb = new StringBuilder();
+    if (id != null) {
+      sb.append("id: ").append(id).append('\n');
+    }
+    sb.append("event: ").append(type).append('\n');
+    sb.append("data: ").append(data).append("\n\n");
+    return sb.toString().getBytes(Charsets.UTF_8);
+  }
+
+  private String toJson(JsonWriter writer) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JsonGenerator json = jsonFactory.createJsonGenerator(out, JsonEncoding.UTF8);
+    writer.write(json);
+    json.flush();
+    return out.toString("UTF-8");
+  }
+
+  private void sendJson(HttpExchange exchange, JsonWriter writer) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", JSON);
+    exchange.sendResponseHeaders(200, 0);
+    OutputStream out = exchange.getResponseBody();
+    try {
+      JsonGenerator json = jsonFactory.createJsonGenerator(out, JsonEncoding.UTF8);
+      writer.write(json);
+      json.flush();
+    } finally {
+      out.close();
+    }
+  }
+
+  // Returns the value of the since parameter in the given query, or 0 if it has none.
+  private static long getSince(String query) {
+    if (query != null) {
+      for (String param : query.split("&")) {
+        if (param.startsWith("since=")) {
+          return Long.parseLong(param.substring("since=".length()));
+        }
+      }
+    }
+    return 0L;
+  }
+
+  private static void sendEmpty(HttpExchange exchange, int status) throws IOException {
+    exchange.sendResponseHeaders(status, -1);
+    exchange.close();
+  }
+
+  private static void closeQuietly(OutputStream out) {
+    try {
+      out.close();
+    } catch (IOException e) {
+      // Already gone.
+    }
+  }
+}
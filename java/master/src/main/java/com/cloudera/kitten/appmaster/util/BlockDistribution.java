@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.util;
+
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * The number of bytes of a set of HDFS files that are held by each datanode, host, and rack
+ * in the cluster.
+ */
+public class BlockDistribution {
+
+  private final Map<String, Long> bytesByDatanode;
+  private final Map<String, Long> bytesByHost;
+  private final Map<String, Long> bytesByRack;
+
+  public BlockDistribution(Map<String, Long> bytesByDatanode, Map<String, Long> bytesByHost,
+      Map<String, Long> bytesByRack) {
+    this.bytesByDatanode = ImmutableMap.copyOf(bytesByDatanode);
+    this.bytesByHost = ImmutableMap.copyOf(bytesByHost);
+    this.bytesByRack = ImmutableMap.copyOf(bytesByRack);
+  }
+
+  /**
+   * Returns the bytes held by each datanode, keyed by its transfer address (host:port).
+   */
+  public Map<String, Long> getBytesByDatanode() {
+    return bytesByDatanode;
+  }
+
+  /**
+   * Returns the bytes held by each datanode, keyed by its hostname.
+   */
+  public Map<String, Long> getBytesByHost() {
+    return bytesByHost;
+  }
+
+  /**
+   * Returns the bytes held on each rack, keyed by its network location.
+   */
+  public Map<String, Long> getBytesByRack() {
+    return bytesByRack;
+  }
+}
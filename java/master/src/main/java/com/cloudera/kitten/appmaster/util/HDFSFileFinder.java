@@ -15,8 +15,15 @@
 package com.cloudera.kitten.appmaster.util;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.InterruptedIOException;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -25,40 +32,326 @@ import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+/**
+ * Computes how many bytes of the files matching an HDFS glob are held by each datanode,
+ * host and rack.
+ *
+ * <p>Block locations are fetched on a bounded pool of threads. Directories that contain many
+ * of the matching files are read with a single {@code listLocatedStatus} call, which returns
+ * the block locations along with the listing; the remaining files are looked up one at a time.
+ * If {@link #CACHE_ENABLED} is set, the locations of each file are remembered by path and
+ * modification time, so repeated lookups of unchanged files skip the NameNode entirely.
+ */
 public class HDFSFileFinder extends Configured implements Tool {
-  
+
   private static Log LOG = LogFactory.getLog(HDFSFileFinder.class);
-  
+
+  // The number of threads used to fetch block locations.
+  public static final String THREADS = "kitten.hdfs.finder.threads";
+  public static final int DEFAULT_THREADS = 8;
+
+  // Directories with at least this many matching files are listed instead of queried per file.
+  public static final String LIST_THRESHOLD = "kitten.hdfs.finder.list.threshold";
+  public static final int DEFAULT_LIST_THRESHOLD = 16;
+
+  // Whether to cache block locations across calls, and how many files to cache.
+  public static final String CACHE_ENABLED = "kitten.hdfs.finder.cache.enabled";
+  public static final String CACHE_SIZE = "kitten.hdfs.finder.cache.size";
+  public static final long DEFAULT_CACHE_SIZE = 100000L;
+
+  // The number of individually-queried files handled by each task.
+  private static final int FILES_PER_TASK = 32;
+
+  private static final NameIndex NAMES = new NameIndex();
+
+  private static Cache<FileKey, FileBlocks> cache;
+
   public Map<String,Long> getNumBytesOfGlobHeldByDatanodes(Path p) throws IOException {
     return getNumBytesOfGlobHeldByDatanodes(p, getConf());
   }
-  
+
   public static Map<String,Long> getNumBytesOfGlobHeldByDatanodes(Path p, Configuration conf) throws IOException {
+    return getBlockDistribution(p, conf).getBytesByDatanode();
+  }
+
+  /**
+   * Like {@link #getNumBytesOfGlobHeldByDatanodes(Path, Configuration)}, but keyed by the
+   * hostname of each datanode, which is the form YARN uses for node-local container requests.
+   */
+  public static Map<String,Long> getNumBytesOfGlobHeldByHosts(Path p, Configuration conf) throws IOException {
+    return getBlockDistribution(p, conf).getBytesByHost();
+  }
+
+  public static BlockDistribution getBlockDistribution(Path p, Configuration conf) throws IOException {
     FileSystem fs = p.getFileSystem(conf);
-    
-    HashMap<String,Long> bytesHeld = Maps.newHashMap();
-    for (FileStatus f : fs.globStatus(p)) {
-      BlockLocation[] bls = fs.getFileBlockLocations(p, 0, f.getLen());
-      if (bls.length > 0) {
-        for (BlockLocation bl : bls) {
-          long l = bl.getLength();
-          for (String name : bl.getNames()) {
-            if (bytesHeld.containsKey(name))
-              bytesHeld.put(name, bytesHeld.get(name) + l);
-            else
-              bytesHeld.put(name, l);
+    Cache<FileKey, FileBlocks> cache = getCache(conf);
+
+    Totals totals = new Totals();
+    Map<Path, List<FileStatus>> uncached = Maps.newLinkedHashMap();
+    FileStatus[] matches = fs.globStatus(p);
+    if (matches != null) {
+      for (FileStatus f : matches) {
+        if (f.isDirectory()) {
+          continue;
+        }
+        FileBlocks blocks = cache == null ? null : cache.getIfPresent(new FileKey(f));
+        if (blocks != null) {
+          blocks.addTo(totals);
+        } else {
+          Path parent = f.getPath().getParent();
+          List<FileStatus> files = uncached.get(parent);
+          if (files == null) {
+            files = Lists.newArrayList();
+            uncached.put(parent, files);
           }
+          files.add(f);
         }
       }
     }
-    
-    return bytesHeld;
+
+    int listThreshold = conf.getInt(LIST_THRESHOLD, DEFAULT_LIST_THRESHOLD);
+    List<Callable<Totals>> tasks = Lists.newArrayList();
+    List<FileStatus> singles = Lists.newArrayList();
+    for (Map.Entry<Path, List<FileStatus>> e : uncached.entrySet()) {
+      if (e.getValue().size() >= listThreshold) {
+        tasks.add(new ListTask(fs, e.getKey(), e.getValue(), cache));
+      } else {
+        singles.addAll(e.getValue());
+      }
+    }
+    for (List<FileStatus> files : Lists.partition(singles, FILES_PER_TASK)) {
+      tasks.add(new FilesTask(fs, files, cache));
+    }
+    for (Totals t : run(tasks, conf.getInt(THREADS, DEFAULT_THREADS))) {
+      totals.addAll(t);
+    }
+
+    return new BlockDistribution(totals.datanodes.toMap(NAMES), totals.hosts.toMap(NAMES),
+        totals.racks.toMap(NAMES));
+  }
+
+  private static List<Totals> run(List<Callable<Totals>> tasks, int threads) throws IOException {
+    List<Totals> results = Lists.newArrayListWithCapacity(tasks.size());
+    if (tasks.size() == 1) {
+      try {
+        results.add(tasks.get(0).call());
+      } catch (IOException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IOException(e);
+      }
+      return results;
+    } else if (tasks.isEmpty()) {
+      return results;
+    }
+    ExecutorService exec = Executors.newFixedThreadPool(Math.min(threads, tasks.size()),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("hdfs-file-finder-%d").build());
+    try {
+      for (Future<Totals> f : exec.invokeAll(tasks)) {
+        results.add(f.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted fetching block locations");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      exec.shutdownNow();
+    }
+    return results;
+  }
+
+  private static synchronized Cache<FileKey, FileBlocks> getCache(Configuration conf) {
+    if (!conf.getBoolean(CACHE_ENABLED, false)) {
+      return null;
+    }
+    if (cache == null) {
+      cache = CacheBuilder.newBuilder()
+          .maximumSize(conf.getLong(CACHE_SIZE, DEFAULT_CACHE_SIZE))
+          .build();
+    }
+    return cache;
+  }
+
+  /**
+   * Fetches the block locations of a list of files, one file at a time.
+   */
+  private static class FilesTask implements Callable<Totals> {
+    private final FileSystem fs;
+    private final List<FileStatus> files;
+    private final Cache<FileKey, FileBlocks> cache;
+
+    public FilesTask(FileSystem fs, List<FileStatus> files, Cache<FileKey, FileBlocks> cache) {
+      this.fs = fs;
+      this.files = files;
+      this.cache = cache;
+    }
+
+    @Override
+    public Totals call() throws IOException {
+      Totals totals = new Totals();
+      for (FileStatus f : files) {
+        BlockLocation[] bls = fs.getFileBlockLocations(f, 0, f.getLen());
+        FileBlocks.of(bls).addTo(totals, cache, f);
+      }
+      return totals;
+    }
+  }
+
+  /**
+   * Fetches the block locations of the given files in a directory with a single listing.
+   */
+  private static class ListTask implements Callable<Totals> {
+    private final FileSystem fs;
+    private final Path dir;
+    private final Set<String> names;
+    private final Cache<FileKey, FileBlocks> cache;
+
+    public ListTask(FileSystem fs, Path dir, List<FileStatus> files,
+        Cache<FileKey, FileBlocks> cache) {
+      this.fs = fs;
+      this.dir = dir;
+      this.names = Sets.newHashSetWithExpectedSize(files.size());
+      for (FileStatus f : files) {
+        names.add(f.getPath().getName());
+      }
+      this.cache = cache;
+    }
+
+    @Override
+    public Totals call() throws IOException {
+      Totals totals = new Totals();
+      RemoteIterator<LocatedFileStatus> iter = fs.listLocatedStatus(dir);
+      while (iter.hasNext()) {
+        LocatedFileStatus f = iter.next();
+        if (names.contains(f.getPath().getName())) {
+          FileBlocks.of(f.getBlockLocations()).addTo(totals, cache, f);
+        }
+      }
+      return totals;
+    }
+  }
+
+  /**
+   * The running byte totals for a set of files.
+   */
+  private static class Totals {
+    public final LongCounter datanodes = new LongCounter();
+    public final LongCounter hosts = new LongCounter();
+    public final LongCounter racks = new LongCounter();
+
+    public void addAll(Totals other) {
+      datanodes.addAll(other.datanodes);
+      hosts.addAll(other.hosts);
+      racks.addAll(other.racks);
+    }
+  }
+
+  /**
+   * A compact copy of the block locations of a single file: one entry per replica, with
+   * names replaced by their {@link NameIndex} ids (-1 when unknown).
+   */
+  private static class FileBlocks {
+    private final int[] datanodes;
+    private final int[] hosts;
+    private final int[] racks;
+    private final long[] lengths;
+
+    public static FileBlocks of(BlockLocation[] bls) throws IOException {
+      int replicas = 0;
+      for (BlockLocation bl : bls) {
+        replicas += bl.getNames().length;
+      }
+      FileBlocks fb = new FileBlocks(replicas);
+      int i = 0;
+      for (BlockLocation bl : bls) {
+        String[] names = bl.getNames();
+        String[] hosts = bl.getHosts();
+        String[] paths = bl.getTopologyPaths();
+        for (int j = 0; j < names.length; j++, i++) {
+          fb.datanodes[i] = NAMES.idOf(names[j]);
+          fb.hosts[i] = j < hosts.length ? NAMES.idOf(hosts[j]) : -1;
+          fb.racks[i] = j < paths.length ? rackOf(paths[j]) : -1;
+          fb.lengths[i] = bl.getLength();
+        }
+      }
+      return fb;
+    }
+
+    // A topology path looks like /rack/host:port.
+    private static int rackOf(String topologyPath) {
+      int slash = topologyPath.lastIndexOf('/');
+      return slash > 0 ? NAMES.idOf(topologyPath.substring(0, slash)) : -1;
+    }
+
+    private FileBlocks(int replicas) {
+      this.datanodes = new int[replicas];
+      this.hosts = new int[replicas];
+      this.racks = new int[replicas];
+      this.lengths = new long[replicas];
+    }
+
+    public void addTo(Totals totals) {
+      for (int i = 0; i < lengths.length; i++) {
+        totals.datanodes.add(datanodes[i], lengths[i]);
+        if (hosts[i] >= 0) {
+          totals.hosts.add(hosts[i], lengths[i]);
+        }
+        if (racks[i] >= 0) {
+          totals.racks.add(racks[i], lengths[i]);
+        }
+      }
+    }
+
+    public void addTo(Totals totals, Cache<FileKey, FileBlocks> cache, FileStatus f) {
+      addTo(totals);
+      if (cache != null) {
+        cache.put(new FileKey(f), this);
+      }
+    }
+  }
+
+  private static class FileKey {
+    private final Path path;
+    private final long modificationTime;
+    private final long length;
+
+    public FileKey(FileStatus f) {
+      this.path = f.getPath();
+      this.modificationTime = f.getModificationTime();
+      this.length = f.getLen();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof FileKey)) {
+        return false;
+      }
+      FileKey k = (FileKey) other;
+      return path.equals(k.path) && modificationTime == k.modificationTime && length == k.length;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(path, modificationTime, length);
+    }
   }
 
   @Override
@@ -66,9 +359,11 @@ public class HDFSFileFinder extends Configured implements Tool {
     Configuration conf = getConf();
     for (String a : args) {
       Path p = new Path(a);
-      Map<String, Long> bytesHeld = getNumBytesOfGlobHeldByDatanodes(p, conf);
-      for (String node : bytesHeld.keySet())
-        LOG.info(node + " : " + bytesHeld.get(node) + "b");
+      BlockDistribution dist = getBlockDistribution(p, conf);
+      for (Map.Entry<String, Long> e : dist.getBytesByHost().entrySet())
+        LOG.info(e.getKey() + " : " + e.getValue() + "b");
+      for (Map.Entry<String, Long> e : dist.getBytesByRack().entrySet())
+        LOG.info(e.getKey() + " : " + e.getValue() + "b");
     }
     return 0;
   }
@@ -76,4 +371,4 @@ public class HDFSFileFinder extends Configured implements Tool {
   public static void main(String[] args) throws Exception {
     ToolRunner.run(new Configuration(), new HDFSFileFinder(), args);
   }
-}
\ No newline at end of file
+}
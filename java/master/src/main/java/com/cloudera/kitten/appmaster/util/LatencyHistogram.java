@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent histogram of non-negative values, such as latencies in milliseconds, with
+ * log-linear buckets in the style of HdrHistogram: each power of two is split into 32 equal
+ * buckets, so any value is reported to within about 3%. Recording a value is a few atomic
+ * increments and never allocates, so it can be done on the callback threads.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // Values of 2^40 and more, about 35 years in milliseconds, go in the last bucket.
+  private static final int MAX_BITS = 40;
+  private static final int BUCKETS = SUB_BUCKETS * (MAX_BITS - SUB_BUCKET_BITS + 1);
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    counts.incrementAndGet(bucket(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long current = max.get();
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get();
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public double getMean() {
+    long n = count.get();
+    return n == 0 ? 0.0 : ((double) sum.get()) / n;
+  }
+
+  /**
+   * Returns the largest value in the bucket that holds the given percentile of the recorded
+   * values, or 0 if there are none.
+   */
+  public long getPercentile(double percentile) {
+    long n = count.get();
+    if (n == 0) {
+      return 0L;
+    }
+    long target = Math.max(1L, (long) Math.ceil(n * percentile / 100.0));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= target) {
+        return Math.min(highestValue(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  public LatencySnapshot snapshot() {
+    return new LatencySnapshot(getCount(), getMean(), getPercentile(50), getPercentile(90),
+        getPercentile(99), getMax());
+  }
+
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int bits = 64 - Long.numberOfLeadingZeros(value);
+    if (bits > MAX_BITS) {
+      return BUCKETS - 1;
+    }
+    // The top six bits of the value, from 32 to 63, pick the bucket within its power of two.
+    int shift = bits - SUB_BUCKET_BITS - 1;
+    return SUB_BUCKETS * shift + (int) (value >>> shift);
+  }
+
+  static long highestValue(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long sub = SUB_BUCKETS + bucket % SUB_BUCKETS;
+    return ((sub + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.util;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The summary of a {@link LatencyHistogram} at one point in time.
+ */
+public class LatencySnapshot {
+
+  private final long count;
+  private final double mean;
+  private final long median;
+  private final long p90;
+  private final long p99;
+  private final long max;
+
+  @ConstructorProperties({ "count", "mean", "median", "p90", "p99", "max" })
+  public LatencySnapshot(long count, double mean, long median, long p90, long p99, long max) {
+    this.count = count;
+    this.mean = mean;
+    this.median = median;
+    this.p90 = p90;
+    this.p99 = p99;
+    this.max = max;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public double getMean() {
+    return mean;
+  }
+
+  public long getMedian() {
+    return median;
+  }
+
+  public long getP90() {
+    return p90;
+  }
+
+  public long getP99() {
+    return p99;
+  }
+
+  public long getMax() {
+    return max;
+  }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.util;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Primitive long totals indexed by the ids of a {@link NameIndex}, for summing up byte counts
+ * without hashing a name or boxing a {@code Long} on every update. Not thread-safe; use one
+ * per thread and {@link #addAll(LongCounter)} them together at the end.
+ */
+class LongCounter {
+
+  private long[] values = new long[16];
+  private boolean[] present = new boolean[16];
+
+  public void add(int id, long delta) {
+    if (id >= values.length) {
+      int length = Math.max(values.length * 2, id + 1);
+      values = Arrays.copyOf(values, length);
+      present = Arrays.copyOf(present, length);
+    }
+    values[id] += delta;
+    present[id] = true;
+  }
+
+  public long get(int id) {
+    return id < values.length ? values[id] : 0L;
+  }
+
+  public void addAll(LongCounter other) {
+    for (int i = 0; i < other.values.length; i++) {
+      if (other.present[i]) {
+        add(i, other.values[i]);
+      }
+    }
+  }
+
+  public Map<String, Long> toMap(NameIndex index) {
+    Map<String, Long> map = Maps.newHashMap();
+    for (int i = 0; i < values.length; i++) {
+      if (present[i]) {
+        map.put(index.nameOf(i), values[i]);
+      }
+    }
+    return map;
+  }
+}
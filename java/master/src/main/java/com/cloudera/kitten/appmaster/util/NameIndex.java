@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.util;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Assigns each distinct datanode, host or rack name a small, dense integer id, so that byte
+ * totals can be kept in primitive arrays indexed by id. Ids are never reused or removed.
+ */
+class NameIndex {
+
+  private final ConcurrentMap<String, Integer> ids = Maps.newConcurrentMap();
+  private final List<String> names = Lists.newArrayList();
+
+  public int idOf(String name) {
+    Integer id = ids.get(name);
+    if (id != null) {
+      return id;
+    }
+    synchronized (names) {
+      id = ids.get(name);
+      if (id == null) {
+        id = names.size();
+        names.add(name);
+        ids.put(name, id);
+      }
+      return id;
+    }
+  }
+
+  public String nameOf(int id) {
+    synchronized (names) {
+      return names.get(id);
+    }
+  }
+}
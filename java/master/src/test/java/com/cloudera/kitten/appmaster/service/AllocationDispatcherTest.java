@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Set;
+
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.Priority;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.util.Records;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.Sets;
+
+public class AllocationDispatcherTest {
+
+  private Set<String> full;
+  private AllocationDispatcher<String> dispatcher;
+
+  @Before
+  public void setUp() {
+    full = Sets.newHashSet();
+    dispatcher = new AllocationDispatcher<String>(new Predicate<String>() {
+      @Override
+      public boolean apply(String target) {
+        return !full.contains(target);
+      }
+    });
+    dispatcher.register(priority(0), resource(512, 1), "small");
+    dispatcher.register(priority(1), resource(1024, 2), "large");
+  }
+
+  @Test
+  public void testExactMatch() {
+    assertEquals("small", dispatcher.route(container(0, 512, 1)));
+    assertEquals("large", dispatcher.route(container(1, 1024, 2)));
+  }
+
+  @Test
+  public void testRoundedUpCapability() {
+    assertEquals("small", dispatcher.route(container(0, 1024, 1)));
+    assertEquals("small", dispatcher.route(container(0, 1024, 1)));
+  }
+
+  @Test
+  public void testNoMatch() {
+    assertNull(dispatcher.route(container(2, 512, 1)));
+    assertNull(dispatcher.route(container(1, 512, 2)));
+    full.add("small");
+    assertNull(dispatcher.route(container(0, 512, 1)));
+  }
+
+  @Test
+  public void testSharedKey() {
+    dispatcher.register(priority(0), resource(512, 1), "other");
+    assertEquals("small", dispatcher.route(container(0, 512, 1)));
+    full.add("small");
+    assertEquals("other", dispatcher.route(container(0, 512, 1)));
+  }
+
+  @Test
+  public void testFullExactMatchFallsBack() {
+    // The RM rounds the small group's requests up to the capability of a medium group at the
+    // same priority, so once the medium group is full they still go to the small one.
+    dispatcher.register(priority(0), resource(1024, 1), "medium");
+    assertEquals("medium", dispatcher.route(container(0, 1024, 1)));
+    full.add("medium");
+    assertEquals("small", dispatcher.route(container(0, 1024, 1)));
+    full.add("small");
+    assertNull(dispatcher.route(container(0, 1024, 1)));
+  }
+
+  private static Priority priority(int p) {
+    Priority priority = Records.newRecord(Priority.class);
+    priority.setPriority(p);
+    return priority;
+  }
+
+  private static Resource resource(int memory, int cores) {
+    Resource rsrc = Records.newRecord(Resource.class);
+    rsrc.setMemory(memory);
+    rsrc.setVirtualCores(cores);
+    return rsrc;
+  }
+
+  private static Container container(int p, int memory, int cores) {
+    Container c = Records.newRecord(Container.class);
+    c.setPriority(priority(p));
+    c.setResource(resource(memory, cores));
+    return c;
+  }
+}
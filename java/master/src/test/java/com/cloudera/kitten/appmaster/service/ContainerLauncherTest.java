@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.protocolrecords.StartContainersRequest;
+import org.apache.hadoop.yarn.api.protocolrecords.StartContainersResponse;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.ContainerLaunchContext;
+import org.apache.hadoop.yarn.api.records.ContainerStatus;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.apache.hadoop.yarn.api.records.SerializedException;
+import org.apache.hadoop.yarn.client.api.async.NMClientAsync;
+import org.apache.hadoop.yarn.exceptions.YarnException;
+import org.apache.hadoop.yarn.util.Records;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+public class ContainerLauncherTest {
+
+  private static final ApplicationAttemptId ATTEMPT = ApplicationAttemptId.newInstance(
+      ApplicationId.newInstance(0L, 1), 1);
+
+  private static Container container(int id, String host) {
+    Container c = Records.newRecord(Container.class);
+    c.setId(ContainerId.newInstance(ATTEMPT, id));
+    c.setNodeId(NodeId.newInstance(host, 1234));
+    return c;
+  }
+
+  // Starts every container except for those with the given ids, and remembers each call.
+  private static class FakeLauncher extends ContainerLauncher {
+    private final Set<Integer> failing;
+    private final List<String> calls = Collections.synchronizedList(Lists.<String>newArrayList());
+
+    public FakeLauncher(Configuration conf, Set<Integer> failing) {
+      super(conf);
+      this.failing = failing;
+    }
+
+    @Override
+    protected StartContainersResponse startContainers(NodeId nodeId, ContainerId containerId,
+        StartContainersRequest request) {
+      calls.add(nodeId.getHost() + ":" + request.getStartContainerRequests().size());
+      List<ContainerId> started = Lists.newArrayList();
+      Map<ContainerId, SerializedException> failed = Maps.newHashMap();
+      for (int id = containerId.getId(), i = 0; i < request.getStartContainerRequests().size();
+          i++, id++) {
+        if (failing.contains(id)) {
+          failed.put(ContainerId.newInstance(ATTEMPT, id),
+              SerializedException.newInstance(new YarnException("no room")));
+        } else {
+          started.add(ContainerId.newInstance(ATTEMPT, id));
+        }
+      }
+      return StartContainersResponse.newInstance(Collections.<String, ByteBuffer>emptyMap(),
+          started, failed);
+    }
+  }
+
+  private static class Handler implements NMClientAsync.CallbackHandler {
+    private final CountDownLatch done;
+    private final Set<ContainerId> started =
+        Collections.synchronizedSet(Sets.<ContainerId>newHashSet());
+    private final Set<ContainerId> failed =
+        Collections.synchronizedSet(Sets.<ContainerId>newHashSet());
+    private final Set<ContainerId> stopped =
+        Collections.synchronizedSet(Sets.<ContainerId>newHashSet());
+    private final Set<ContainerId> stopFailed =
+        Collections.synchronizedSet(Sets.<ContainerId>newHashSet());
+
+    public Handler(int n) {
+      this.done = new CountDownLatch(n);
+    }
+
+    @Override
+    public void onContainerStarted(ContainerId containerId, Map<String, ByteBuffer> response) {
+      started.add(containerId);
+      done.countDown();
+    }
+
+    @Override
+    public void onStartContainerError(ContainerId containerId, Throwable t) {
+      failed.add(containerId);
+      done.countDown();
+    }
+
+    @Override
+    public void onContainerStatusReceived(ContainerId containerId, ContainerStatus status) {}
+
+    @Override
+    public void onContainerStopped(ContainerId containerId) {
+      // Only after the container was started or failed to.
+      assertTrue(started.contains(containerId) || failed.contains(containerId));
+      stopped.add(containerId);
+      done.countDown();
+    }
+
+    @Override
+    public void onGetContainerStatusError(ContainerId containerId, Throwable t) {}
+
+    @Override
+    public void onStopContainerError(ContainerId containerId, Throwable t) {
+      stopFailed.add(containerId);
+      done.countDown();
+    }
+  }
+
+  @Test
+  public void testBatchesByNode() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(ContainerLauncher.LAUNCH_WINDOW, 200);
+    FakeLauncher launcher = new FakeLauncher(conf, ImmutableSet.of(3));
+    Handler handler = new Handler(7);
+    ContainerLaunchContext clc = Records.newRecord(ContainerLaunchContext.class);
+    for (int id = 1; id <= 5; id++) {
+      launcher.startContainerAsync(container(id, "a"), clc, handler);
+    }
+    for (int id = 6; id <= 7; id++) {
+      launcher.startContainerAsync(container(id, "b"), clc, handler);
+    }
+    assertTrue(handler.done.await(10, TimeUnit.SECONDS));
+    launcher.stop();
+
+    // One call for each node, and the failure of one container does not fail the others.
+    assertEquals(ImmutableSet.of("a:5", "b:2"), ImmutableSet.copyOf(launcher.calls));
+    assertEquals(ImmutableSet.of(ContainerId.newInstance(ATTEMPT, 3)), handler.failed);
+    assertEquals(6, handler.started.size());
+  }
+
+  @Test
+  public void testBatchSize() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(ContainerLauncher.LAUNCH_WINDOW, 200);
+    conf.setInt(ContainerLauncher.LAUNCH_BATCH_SIZE, 2);
+    FakeLauncher launcher = new FakeLauncher(conf, ImmutableSet.<Integer>of());
+    Handler handler = new Handler(5);
+    ContainerLaunchContext clc = Records.newRecord(ContainerLaunchContext.class);
+    for (int id = 1; id <= 5; id++) {
+      launcher.startContainerAsync(container(id, "a"), clc, handler);
+    }
+    assertTrue(handler.done.await(10, TimeUnit.SECONDS));
+    launcher.stop();
+    assertEquals(Lists.newArrayList("a:1", "a:2", "a:2"), sorted(launcher.calls));
+    assertEquals(5, handler.started.size());
+  }
+
+  @Test
+  public void testStopWhileFailingToStart() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(ContainerLauncher.LAUNCH_WINDOW, 200);
+    FakeLauncher launcher = new FakeLauncher(conf, ImmutableSet.of(1));
+    Handler handler = new Handler(2);
+    ContainerLaunchContext clc = Records.newRecord(ContainerLaunchContext.class);
+    Container c = container(1, "a");
+    launcher.startContainerAsync(c, clc, handler);
+    // The stop waits for the start, which fails; the handler still hears about both.
+    launcher.stopContainerAsync(c.getId(), c.getNodeId(), handler);
+    assertTrue(handler.done.await(10, TimeUnit.SECONDS));
+    launcher.stop();
+    assertEquals(ImmutableSet.of(c.getId()), handler.failed);
+    assertEquals(ImmutableSet.of(c.getId()), handler.stopped);
+    assertTrue(handler.started.isEmpty());
+  }
+
+  @Test
+  public void testCallsAfterStop() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(ContainerLauncher.LAUNCH_WINDOW, 60000);
+    FakeLauncher launcher = new FakeLauncher(conf, ImmutableSet.<Integer>of());
+    Handler handler = new Handler(3);
+    ContainerLaunchContext clc = Records.newRecord(ContainerLaunchContext.class);
+    Container waiting = container(1, "a");
+    launcher.startContainerAsync(waiting, clc, handler);
+    launcher.stop();
+
+    // The container that was waiting for its batch and the calls made after the stop all
+    // go to the handler as errors, rather than being thrown or dropped.
+    Container late = container(2, "b");
+    launcher.startContainerAsync(late, clc, handler);
+    launcher.stopContainerAsync(late.getId(), late.getNodeId(), handler);
+    assertTrue(handler.done.await(10, TimeUnit.SECONDS));
+    assertEquals(ImmutableSet.of(waiting.getId(), late.getId()), handler.failed);
+    assertEquals(ImmutableSet.of(late.getId()), handler.stopFailed);
+    assertTrue(launcher.calls.isEmpty());
+  }
+
+  private static List<String> sorted(List<String> calls) {
+    List<String> copy = Lists.newArrayList(calls);
+    Collections.sort(copy);
+    return copy;
+  }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.apache.hadoop.yarn.util.Records;
+import org.junit.Test;
+
+import com.cloudera.kitten.appmaster.service.ContainerStates.Entry;
+import com.cloudera.kitten.appmaster.service.ContainerStates.State;
+import com.google.common.collect.Lists;
+
+public class ContainerStatesTest {
+
+  private static Container container(int id) {
+    ApplicationAttemptId attempt = ApplicationAttemptId.newInstance(
+        ApplicationId.newInstance(0L, 1), 1);
+    Container c = Records.newRecord(Container.class);
+    c.setId(ContainerId.newInstance(attempt, id));
+    c.setNodeId(NodeId.newInstance("host", 1234));
+    return c;
+  }
+
+  @Test
+  public void testLifecycle() {
+    ContainerStates states = new ContainerStates();
+    assertTrue(states.isIdle());
+    states.request(2);
+    assertEquals(2, states.get(State.REQUESTED));
+    assertFalse(states.isIdle());
+
+    Entry entry = states.allocate(container(1), 0);
+    assertEquals(1, states.get(State.REQUESTED));
+    assertEquals(1, states.getLive());
+    assertSame(entry, states.get(entry.getContainer().getId()));
+    assertTrue(entry.transition(State.ALLOCATED, State.LAUNCHING));
+    assertFalse(entry.transition(State.ALLOCATED, State.LAUNCHING));
+    assertTrue(entry.transition(State.LAUNCHING, State.RUNNING));
+    assertEquals(1, states.get(State.RUNNING));
+
+    assertTrue(states.cancel());
+    assertFalse(states.cancel());
+
+    assertSame(entry, states.remove(entry.getContainer().getId()));
+    assertNull(states.remove(entry.getContainer().getId()));
+    assertTrue(entry.finish(State.COMPLETED));
+    // Only the first one counts, and the others leave no trace.
+    assertFalse(entry.finish(State.FAILED));
+    assertTrue(entry.getTime(State.COMPLETED) > 0);
+    assertEquals(0, entry.getTime(State.FAILED));
+    assertEquals(1, states.getDone());
+    assertEquals(0, states.get(State.FAILED));
+    assertEquals(0, states.getLive());
+    assertTrue(states.isIdle());
+  }
+
+  @Test
+  public void testReplacementKeepsGroupBusy() {
+    ContainerStates states = new ContainerStates();
+    states.request(1);
+    Entry entry = states.allocate(container(1), 0);
+    states.request(1);
+    entry.finish(State.ABORTED);
+    assertFalse(states.isIdle());
+    assertEquals(0, states.getDone());
+    assertEquals(1, states.get(State.ABORTED));
+  }
+
+  @Test
+  public void testConcurrentFinish() throws Exception {
+    final ContainerStates states = new ContainerStates();
+    int n = 1000;
+    states.request(n);
+    final List<Entry> entries = Lists.newArrayList();
+    for (int i = 0; i < n; i++) {
+      Entry entry = states.allocate(container(i), i);
+      entry.transition(State.ALLOCATED, State.LAUNCHING);
+      entries.add(entry);
+    }
+    // Threads race to start, fail, and complete every container.
+    final State[] targets = { State.RUNNING, State.FAILED, State.COMPLETED, State.ABORTED };
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicInteger finished = new AtomicInteger();
+    List<Thread> threads = Lists.newArrayList();
+    for (final State target : targets) {
+      Thread t = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (Entry entry : entries) {
+            if (target == State.RUNNING) {
+              entry.transition(State.LAUNCHING, State.RUNNING);
+            } else if (entry.finish(target)) {
+              finished.incrementAndGet();
+            }
+          }
+        }
+      });
+      t.start();
+      threads.add(t);
+    }
+    start.countDown();
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertEquals(n, finished.get());
+    // Only the final state that each container entered has a time.
+    for (Entry entry : entries) {
+      for (State s : targets) {
+        if (s.isDone()) {
+          assertEquals(entry.getState() == s, entry.getTime(s) > 0);
+        }
+      }
+    }
+    assertEquals(0, states.getLive());
+    assertEquals(n, states.get(State.FAILED) + states.get(State.COMPLETED) +
+        states.get(State.ABORTED));
+    assertTrue(states.isIdle());
+  }
+}
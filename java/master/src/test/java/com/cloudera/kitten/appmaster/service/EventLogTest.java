@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class EventLogTest {
+
+  private static final ApplicationAttemptId ATTEMPT = ApplicationAttemptId.newInstance(
+      ApplicationId.newInstance(0L, 1), 1);
+  private static final NodeId NODE = NodeId.newInstance("host1", 1234);
+
+  private static void record(EventLog log, int n) {
+    for (int i = 1; i <= n; i++) {
+      log.record(EventLog.Type.ALLOCATED, "workers", ContainerId.newInstance(ATTEMPT, i), NODE,
+          i - 1);
+    }
+  }
+
+  @Test
+  public void testRing() {
+    EventLog log = new EventLog(4, 100, null);
+    assertTrue(log.since(0).isEmpty());
+    record(log, 6);
+    assertEquals(6, log.getLastSeq());
+
+    // Only the last four are kept.
+    List<EventLog.Event> events = log.since(0);
+    assertEquals(4, events.size());
+    assertEquals(3, events.get(0).getSeq());
+    assertEquals(6, events.get(3).getSeq());
+    assertEquals(1, log.since(5).size());
+    assertTrue(log.since(6).isEmpty());
+  }
+
+  @Test
+  public void testFile() throws Exception {
+    File file = new File(Files.createTempDir(), "events.json");
+    EventLog log = new EventLog(16, 100, file);
+    log.start();
+    record(log, 3);
+    log.record(EventLog.Type.FAILED, "workers", ContainerId.newInstance(ATTEMPT, 2), NODE, 1);
+    log.stop();
+
+    List<String> lines = Files.readLines(file, Charsets.UTF_8);
+    assertEquals(4, lines.size());
+    assertTrue(lines.get(1).startsWith("{"));
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode first = mapper.readTree(lines.get(0));
+    assertEquals(1, first.get("seq").getIntValue());
+    assertEquals("allocated", first.get("type").getTextValue());
+    assertEquals(0, first.get("index").getIntValue());
+    assertEquals("host1:1234", first.get("node").getTextValue());
+    JsonNode last = mapper.readTree(lines.get(3));
+    assertEquals("failed", last.get("type").getTextValue());
+    assertEquals(1, last.get("exitStatus").getIntValue());
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.apache.hadoop.yarn.util.Records;
+import org.junit.Test;
+
+import com.cloudera.kitten.appmaster.service.ContainerStates.Entry;
+import com.cloudera.kitten.appmaster.service.ContainerStates.State;
+import com.google.common.collect.ImmutableList;
+
+public class HeldContainersTest {
+
+  private final ContainerStates states = new ContainerStates();
+
+  private Entry allocate(int id, String host) {
+    Container c = Records.newRecord(Container.class);
+    c.setId(ContainerId.newInstance(ApplicationAttemptId.newInstance(
+        ApplicationId.newInstance(0L, 1), 1), id));
+    c.setNodeId(NodeId.newInstance(host, 1234));
+    return states.allocate(c, id);
+  }
+
+  @Test
+  public void testNoneStartBeforeTheLast() {
+    HeldContainers held = new HeldContainers(1000L);
+    states.request(3);
+    Entry a = allocate(1, "host1");
+    held.hold(a, 0L);
+    assertTrue(held.takeIfAllocated(states.get(State.REQUESTED)).isEmpty());
+    Entry b = allocate(2, "host2");
+    held.hold(b, 10L);
+    assertTrue(held.takeIfAllocated(states.get(State.REQUESTED)).isEmpty());
+    assertEquals(2, held.size());
+
+    Entry c = allocate(3, "host1");
+    held.hold(c, 20L);
+    assertEquals(ImmutableList.of(a, b, c), held.takeIfAllocated(states.get(State.REQUESTED)));
+    assertTrue(held.isEmpty());
+  }
+
+  @Test
+  public void testExpire() {
+    HeldContainers held = new HeldContainers(1000L);
+    states.request(3);
+    Entry a = allocate(1, "host1");
+    held.hold(a, 5000L);
+    Entry b = allocate(2, "host2");
+    held.hold(b, 5500L);
+    // The timeout counts from the first container that was held.
+    assertTrue(held.expire(5999L).isEmpty());
+    assertEquals(ImmutableList.of(a, b), held.expire(6000L));
+    assertTrue(held.isEmpty());
+    assertTrue(held.expire(7000L).isEmpty());
+
+    // Holding starts over with the next container.
+    Entry c = allocate(3, "host1");
+    held.hold(c, 8000L);
+    assertTrue(held.expire(8999L).isEmpty());
+    assertEquals(ImmutableList.of(c), held.expire(9000L));
+  }
+
+  @Test
+  public void testShrinkWhileHeld() {
+    HeldContainers held = new HeldContainers(1000L);
+    states.request(3);
+    Entry a = allocate(1, "host1");
+    held.hold(a, 0L);
+    Entry b = allocate(2, "host2");
+    held.hold(b, 0L);
+
+    // Shrinking the group to one cancels the outstanding request and gives back the last
+    // container held, and the one that is left makes a whole group.
+    assertTrue(states.cancel());
+    assertSame(b, held.removeLast());
+    assertEquals(ImmutableList.of(a), held.takeIfAllocated(states.get(State.REQUESTED)));
+    assertNull(held.removeLast());
+  }
+
+  @Test
+  public void testRemoveOn() {
+    HeldContainers held = new HeldContainers(1000L);
+    states.request(3);
+    Entry a = allocate(1, "host1");
+    held.hold(a, 0L);
+    Entry b = allocate(2, "host2");
+    held.hold(b, 0L);
+    Entry c = allocate(3, "host1");
+    held.hold(c, 0L);
+    assertEquals(ImmutableList.of(a, c), held.removeOn(NodeId.newInstance("host1", 1234)));
+    assertEquals(1, held.size());
+    assertSame(b, held.removeLast());
+  }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
+import org.apache.hadoop.net.DNSToSwitchMapping;
+import org.apache.hadoop.net.StaticMapping;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.apache.hadoop.yarn.util.RackResolver;
+import org.apache.hadoop.yarn.util.Records;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cloudera.kitten.appmaster.util.BlockDistribution;
+import com.google.common.collect.ImmutableMap;
+
+public class LocalityPreferenceTest {
+
+  private static final Configuration conf = new Configuration();
+
+  @BeforeClass
+  public static void setUp() {
+    conf.setClass(CommonConfigurationKeysPublic.NET_TOPOLOGY_NODE_SWITCH_MAPPING_IMPL_KEY,
+        StaticMapping.class, DNSToSwitchMapping.class);
+    StaticMapping.addNodeToRack("a", "/r1");
+    StaticMapping.addNodeToRack("b", "/r1");
+    StaticMapping.addNodeToRack("c", "/r2");
+    StaticMapping.addNodeToRack("d", "/r2");
+    StaticMapping.addNodeToRack("e", "/r3");
+    RackResolver.init(conf);
+  }
+
+  // b holds the most bytes, then c, then a; d and e hold none of the input.
+  private static LocalityPreference preference() {
+    BlockDistribution blocks = new BlockDistribution(
+        ImmutableMap.of("a:50010", 10L, "b:50010", 300L, "c:50010", 20L),
+        ImmutableMap.of("a", 10L, "b", 300L, "c", 20L),
+        ImmutableMap.of("/r1", 310L, "/r2", 20L));
+    return LocalityPreference.forBlocks(blocks, conf);
+  }
+
+  @Test
+  public void testHostsRankedByBytesHeld() {
+    LocalityPreference locality = preference();
+    assertArrayEquals(new String[] { "b" }, locality.getNodes(0));
+    assertArrayEquals(new String[] { "c" }, locality.getNodes(1));
+    assertArrayEquals(new String[] { "a" }, locality.getNodes(2));
+  }
+
+  @Test
+  public void testRoundRobinAcrossRequests() {
+    LocalityPreference locality = preference();
+    assertArrayEquals(locality.getNodes(0), locality.getNodes(3));
+    assertArrayEquals(locality.getNodes(1), locality.getNodes(4));
+    assertArrayEquals(new String[] { "/r1" }, locality.getRacks(0));
+    assertArrayEquals(new String[] { "/r2" }, locality.getRacks(1));
+    assertArrayEquals(new String[] { "/r1" }, locality.getRacks(2));
+    assertArrayEquals(new String[] { "/r1" }, locality.getRacks(3));
+  }
+
+  @Test
+  public void testClassify() {
+    LocalityPreference locality = preference();
+    assertEquals(LocalityPreference.Level.NODE_LOCAL, locality.classify(container("a")));
+    assertEquals(LocalityPreference.Level.NODE_LOCAL, locality.classify(container("c")));
+    assertEquals(LocalityPreference.Level.RACK_LOCAL, locality.classify(container("d")));
+    assertEquals(LocalityPreference.Level.OFF_SWITCH, locality.classify(container("e")));
+    assertEquals("/r2", locality.resolveRack("d"));
+  }
+
+  @Test
+  public void testEmpty() {
+    LocalityPreference locality = LocalityPreference.forBlocks(new BlockDistribution(
+        ImmutableMap.<String, Long>of(), ImmutableMap.<String, Long>of(),
+        ImmutableMap.<String, Long>of()), conf);
+    assertTrue(locality.isEmpty());
+    assertNull(locality.getNodes(0));
+    assertNull(locality.getRacks(0));
+    assertEquals(LocalityPreference.Level.OFF_SWITCH,
+        LocalityPreference.NONE.classify(container("a")));
+  }
+
+  private static Container container(String host) {
+    Container c = Records.newRecord(Container.class);
+    c.setNodeId(NodeId.newInstance(host, 8041));
+    return c;
+  }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+public class MasterJournalTest {
+
+  private static final ApplicationId APP = ApplicationId.newInstance(0L, 1);
+
+  private File dir;
+  private Configuration conf;
+
+  @Before
+  public void setUp() {
+    dir = Files.createTempDir();
+    conf = new Configuration();
+    conf.set(MasterJournal.JOURNAL_DIR, dir.toURI().toString());
+  }
+
+  private MasterJournal open(int attempt) throws Exception {
+    return new MasterJournal(conf, ApplicationAttemptId.newInstance(APP, attempt));
+  }
+
+  @Test
+  public void testRecovery() throws Exception {
+    MasterJournal first = open(1);
+    assertTrue(first.getRecovered("workers").getCompleted().isEmpty());
+    assertEquals(-1, first.getRecovered("workers").getDesired());
+    first.containerCompleted("workers", 0);
+    first.containerCompleted("workers", 2);
+    first.containerFailed("workers");
+    first.taskSucceeded("tasks", 7);
+    first.resized("workers", 5);
+    first.close(false);
+
+    MasterJournal second = open(2);
+    MasterJournal.GroupState workers = second.getRecovered("workers");
+    assertEquals(ImmutableSet.of(0, 2), workers.getCompleted());
+    assertEquals(1, workers.getFailed());
+    assertEquals(5, workers.getDesired());
+    assertEquals(ImmutableSet.of(7), second.getRecovered("tasks").getTasks());
+    second.containerCompleted("workers", 1);
+    second.close(false);
+
+    // The third attempt sees the work of both earlier attempts.
+    MasterJournal third = open(3);
+    assertEquals(ImmutableSet.of(0, 1, 2), third.getRecovered("workers").getCompleted());
+    assertEquals(ImmutableSet.of(7), third.getRecovered("tasks").getTasks());
+    third.close(true);
+    assertFalse(new File(new File(dir, APP.toString()), "journal.1").exists());
+    assertFalse(new File(new File(dir, APP.toString()), "journal.3").exists());
+  }
+
+  @Test
+  public void testTruncatedRecord() throws Exception {
+    MasterJournal first = open(1);
+    first.containerCompleted("workers", 0);
+    first.containerCompleted("workers", 1);
+    first.close(false);
+
+    // Cut the last record off partway through, as a crash would.
+    File journal = new File(new File(dir, APP.toString()), "journal.1");
+    new File(journal.getParentFile(), ".journal.1.crc").delete();
+    RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+    raf.setLength(raf.length() - 2);
+    raf.close();
+
+    assertEquals(ImmutableSet.of(0), open(2).getRecovered("workers").getCompleted());
+  }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.util.Records;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+import com.cloudera.kitten.appmaster.service.ContainerStates.Entry;
+import com.cloudera.kitten.appmaster.service.ContainerStates.State;
+
+public class MasterMetricsTest {
+
+  @Test
+  public void testMetrics() throws Exception {
+    MasterMetrics metrics = new MasterMetrics();
+    try {
+      ContainerStates states = new ContainerStates();
+      ContainerGroupMetrics group = metrics.addGroup("workers", states);
+      states.request(2);
+      Container c = Records.newRecord(Container.class);
+      c.setId(ContainerId.newInstance(
+          ApplicationAttemptId.newInstance(ApplicationId.newInstance(0L, 1), 1), 1));
+      Entry entry = states.allocate(c, 0);
+      group.allocated(entry);
+      entry.transition(State.ALLOCATED, State.LAUNCHING);
+      entry.transition(State.LAUNCHING, State.RUNNING);
+      group.started(entry);
+      metrics.heartbeat(12);
+      metrics.nodeManagerRequested();
+
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("Kitten:type=ContainerGroup,name=\"workers\"");
+      assertEquals(1, server.getAttribute(name, "Requested"));
+      assertEquals(1, server.getAttribute(name, "Running"));
+      CompositeData latency = (CompositeData) server.getAttribute(name, "AllocationLatency");
+      assertEquals(1L, latency.get("count"));
+      latency = (CompositeData) server.getAttribute(
+          new ObjectName("Kitten:type=ApplicationMaster"), "HeartbeatLatency");
+      assertEquals(12L, latency.get("max"));
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      metrics.writeJson(out);
+      JsonNode json = new ObjectMapper().readTree(out.toString("UTF-8"));
+      assertEquals(1, json.get("nodeManagerQueueDepth").getIntValue());
+      JsonNode workers = json.get("groups").get("workers");
+      assertEquals(1, workers.get("requested").getIntValue());
+      assertEquals(1, workers.get("running").getIntValue());
+      assertEquals(1, workers.get("launchLatency").get("count").getIntValue());
+    } finally {
+      metrics.unregister();
+    }
+    assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(
+        new ObjectName("Kitten:type=ApplicationMaster")));
+  }
+}
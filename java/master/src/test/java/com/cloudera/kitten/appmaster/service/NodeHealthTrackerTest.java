@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class NodeHealthTrackerTest {
+
+  @Test
+  public void testFailures() {
+    NodeHealthTracker health = new NodeHealthTracker(2, 0.5f);
+    assertFalse(health.containerFailed("a", 10));
+    assertTrue(health.containerFailed("a", 10));
+    assertTrue(health.isBlacklisted("a"));
+    // Only added once.
+    assertFalse(health.containerFailed("a", 10));
+    assertEquals(3, health.getFailures("a"));
+    assertFalse(health.isBlacklisted("b"));
+  }
+
+  @Test
+  public void testMaxFraction() {
+    NodeHealthTracker health = new NodeHealthTracker(1, 0.5f);
+    assertTrue(health.containerFailed("a", 4));
+    assertTrue(health.containerFailed("b", 4));
+    // Blacklisting a third node would leave less than half of the cluster.
+    assertFalse(health.containerFailed("c", 4));
+    assertFalse(health.isBlacklisted("c"));
+    // Nor is a single node cluster ever blacklisted.
+    assertFalse(new NodeHealthTracker(1, 0.5f).containerFailed("a", 1));
+  }
+
+  @Test
+  public void testUnusable() {
+    NodeHealthTracker health = new NodeHealthTracker(1, 1.0f);
+    assertTrue(health.nodeUnusable("a"));
+    assertFalse(health.nodeUnusable("a"));
+    assertTrue(health.isBlacklisted("a"));
+    assertTrue(health.nodeUsable("a"));
+    assertFalse(health.isBlacklisted("a"));
+
+    // A node that failed too often stays on the blacklist when it comes back.
+    assertTrue(health.containerFailed("b", 10));
+    assertFalse(health.nodeUnusable("b"));
+    assertFalse(health.nodeUsable("b"));
+    assertTrue(health.isBlacklisted("b"));
+  }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import com.cloudera.kitten.task.Task;
+import com.cloudera.kitten.task.TaskSource;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class TaskQueueTest {
+
+  private static TaskQueue queue(int n) {
+    ImmutableList.Builder<Task> tasks = ImmutableList.builder();
+    for (int i = 0; i < n; i++) {
+      tasks.add(new Task(i, "task " + i, ImmutableMap.<String, String>of()));
+    }
+    final Iterator<Task> iter = tasks.build().iterator();
+    return new TaskQueue("test", new TaskSource() {
+      @Override
+      public synchronized Task next() {
+        return iter.hasNext() ? iter.next() : null;
+      }
+
+      @Override
+      public int remaining() {
+        return -1;
+      }
+    });
+  }
+
+  @Test
+  public void testTakeAndFinish() {
+    TaskQueue q = queue(2);
+    Task a = q.take("c1");
+    Task b = q.take("c2");
+    assertEquals(0, a.getId());
+    assertEquals(1, b.getId());
+    assertNull(q.take("c3"));
+
+    assertEquals(TaskQueue.Result.SUCCEEDED, q.finish("c1", a.getId(), 0));
+    assertEquals(TaskQueue.Result.FAILED, q.finish("c2", b.getId(), 1));
+    assertEquals(1, q.getSucceeded());
+    assertEquals(1, q.getFailed());
+  }
+
+  @Test
+  public void testReportOnOtherTaskRejected() {
+    TaskQueue q = queue(2);
+    Task a = q.take("c1");
+    Task b = q.take("c2");
+    // Neither a task the container is not running, nor one that is already done, counts.
+    assertEquals(TaskQueue.Result.REJECTED, q.finish("c1", b.getId(), 0));
+    assertEquals(TaskQueue.Result.REJECTED, q.finish("c3", a.getId(), 0));
+    assertEquals(TaskQueue.Result.SUCCEEDED, q.finish("c1", a.getId(), 0));
+    assertEquals(TaskQueue.Result.REJECTED, q.finish("c1", a.getId(), 0));
+    assertEquals(1, q.getSucceeded());
+    assertEquals(0, q.getFailed());
+  }
+
+  @Test
+  public void testSourceError() {
+    TaskQueue q = new TaskQueue("test", new TaskSource() {
+      private int calls = 0;
+
+      @Override
+      public Task next() {
+        if (calls++ == 0) {
+          return new Task(0, "task 0", ImmutableMap.<String, String>of());
+        }
+        throw new IllegalStateException("generator failed");
+      }
+
+      @Override
+      public int remaining() {
+        return -1;
+      }
+    });
+    assertNull(q.getError());
+    assertEquals(0, q.take("c1").getId());
+    assertNull(q.take("c2"));
+    assertEquals("generator failed", q.getError().getMessage());
+    assertNull(q.take("c3"));
+  }
+
+  @Test
+  public void testContainerLost() {
+    TaskQueue q = queue(1);
+    Task a = q.take("c1");
+    assertNull(q.take("c2"));
+
+    // The task of a lost container goes to the next container that asks for one.
+    q.containerLost("c1");
+    assertTrue(q.hasRequeued());
+    assertEquals(a.getId(), q.take("c2").getId());
+    assertFalse(q.hasRequeued());
+
+    // A late report from the lost container does not count.
+    assertEquals(TaskQueue.Result.REJECTED, q.finish("c1", a.getId(), 1));
+    assertEquals(0, q.getFailed());
+    assertEquals(TaskQueue.Result.SUCCEEDED, q.finish("c2", a.getId(), 0));
+    assertEquals(1, q.getSucceeded());
+  }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class TrackingServerTest {
+
+  private MasterMetrics metrics;
+  private RecentFailures failures;
+  private EventLog eventLog;
+  private TrackingServer server;
+  private volatile int progress = 0;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(TrackingServer.EVENTS_INTERVAL, 50);
+    metrics = new MasterMetrics();
+    failures = new RecentFailures(10);
+    eventLog = new EventLog(10, 1, null);
+    server = new TrackingServer(conf, metrics, new TrackingServer.JobState() {
+      @Override
+      public void writeSummary(JsonGenerator json) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("progress", progress);
+        json.writeEndObject();
+      }
+
+      @Override
+      public void writeState(JsonGenerator json) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("state", "RUNNING");
+        json.writeEndObject();
+      }
+    }, failures, eventLog);
+    server.start();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop();
+    metrics.unregister();
+  }
+
+  private URL url(String path) throws IOException {
+    return new URL("http://localhost:" + server.getPort() + path);
+  }
+
+  @Test
+  public void testState() throws Exception {
+    HttpURLConnection conn = (HttpURLConnection) url("/state").openConnection();
+    JsonNode state = new ObjectMapper().readTree(conn.getInputStream());
+    assertEquals("RUNNING", state.get("state").getTextValue());
+
+    conn = (HttpURLConnection) url("/metrics").openConnection();
+    assertTrue(new ObjectMapper().readTree(conn.getInputStream()).has("groups"));
+
+    conn = (HttpURLConnection) url("/nothing").openConnection();
+    assertEquals(404, conn.getResponseCode());
+  }
+
+  @Test
+  public void testEventLog() throws Exception {
+    ContainerId containerId = ContainerId.newInstance(
+        ApplicationAttemptId.newInstance(ApplicationId.newInstance(0L, 1), 1), 2);
+    eventLog.record(EventLog.Type.ALLOCATED, "workers", containerId,
+        NodeId.newInstance("host1", 1234), 0);
+    eventLog.record(EventLog.Type.STARTED, "workers", containerId,
+        NodeId.newInstance("host1", 1234));
+
+    HttpURLConnection conn = (HttpURLConnection) url("/eventlog?since=1").openConnection();
+    JsonNode log = new ObjectMapper().readTree(conn.getInputStream());
+    assertEquals(2, log.get("lastSeq").getIntValue());
+    assertEquals(1, log.get("events").size());
+    JsonNode event = log.get("events").get(0);
+    assertEquals("started", event.get("type").getTextValue());
+    assertEquals(containerId.toString(), event.get("container").getTextValue());
+    assertEquals("host1:1234", event.get("node").getTextValue());
+
+    conn = (HttpURLConnection) url("/eventlog?since=x").openConnection();
+    assertEquals(400, conn.getResponseCode());
+  }
+
+  @Test
+  public void testEvents() throws Exception {
+    HttpURLConnection conn = (HttpURLConnection) url("/events").openConnection();
+    BufferedReader in = new BufferedReader(
+        new InputStreamReader(conn.getInputStream(), Charsets.UTF_8));
+    assertEquals("event: summary", in.readLine());
+    assertEquals("data: {\"progress\":0}", in.readLine());
+    assertEquals("", in.readLine());
+
+    progress = 1;
+    failures.record("workers", "container_1", "host1", 1, "oops");
+    assertEquals("event: summary", in.readLine());
+    assertEquals("data: {\"progress\":1}", in.readLine());
+    assertEquals("", in.readLine());
+    assertEquals("id: 1", in.readLine());
+    assertEquals("event: failure", in.readLine());
+    JsonNode failure = new ObjectMapper().readTree(in.readLine().substring("data: ".length()));
+    assertEquals("container_1", failure.get("container").getTextValue());
+    assertEquals("oops", failure.get("diagnostics").getTextValue());
+    conn.disconnect();
+  }
+
+  @Test
+  public void testSlowSubscriberDropped() throws Exception {
+    final CountDownLatch writing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch closed = new CountDownLatch(1);
+    // Blocks in the first write until it is released, like a client that stopped reading.
+    OutputStream out = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        writing.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+        }
+      }
+
+      @Override
+      public void close() {
+        closed.countDown();
+      }
+    };
+    ExecutorService writers = Executors.newCachedThreadPool();
+    try {
+      TrackingServer.Subscriber subscriber = new TrackingServer.Subscriber(out, 2, writers);
+      byte[] event = "data: {}\n\n".getBytes(Charsets.UTF_8);
+      assertTrue(subscriber.offer(event));
+      assertTrue(writing.await(10, TimeUnit.SECONDS));
+      // The writer is stuck, so the events queue up without blocking the caller until the
+      // queue is full.
+      assertTrue(subscriber.offer(event));
+      assertTrue(subscriber.offer(event));
+      assertFalse(subscriber.offer(event));
+
+      subscriber.close();
+      assertTrue(closed.await(10, TimeUnit.SECONDS));
+      assertFalse(subscriber.offer(event));
+    } finally {
+      release.countDown();
+      writers.shutdownNow();
+    }
+  }
+}
@@ -1,16 +1,24 @@
 package com.cloudera.kitten.appmaster.util;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.junit.AfterClass;
@@ -72,5 +80,73 @@ public class HDFSFileFinderTest {
     
     assertTrue(replicationFactor <= bytesHeld.keySet().size());
     
+    // the same data, keyed by hostname
+    Map<String, Long> hostBytesHeld = HDFSFileFinder.getNumBytesOfGlobHeldByHosts(dst, conf);
+    assertTrue(hostBytesHeld.size() >= 1);
+    for (Long held : hostBytesHeld.values())
+      assertTrue(held > 0);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testManyFiles() throws Exception {
+    int numFiles = 20;
+    for (int i = 0; i < numFiles; i++) {
+      FSDataOutputStream os = fs.create(new Path("many/part-" + i));
+      os.write(new byte[100]);
+      os.close();
+    }
+    Path glob = new Path("many/part-*");
+
+    // listed in one call per directory
+    Configuration listConf = new Configuration(conf);
+    listConf.setInt(HDFSFileFinder.LIST_THRESHOLD, 1);
+    BlockDistribution listed = HDFSFileFinder.getBlockDistribution(glob, listConf);
+
+    // queried one file at a time
+    Configuration singleConf = new Configuration(conf);
+    singleConf.setInt(HDFSFileFinder.LIST_THRESHOLD, Integer.MAX_VALUE);
+    BlockDistribution single = HDFSFileFinder.getBlockDistribution(glob, singleConf);
+
+    assertEquals(listed.getBytesByHost(), single.getBytesByHost());
+    assertEquals(listed.getBytesByRack(), single.getBytesByRack());
+    long total = 0;
+    for (Long held : single.getBytesByDatanode().values())
+      total += held;
+    assertEquals(numFiles * 100L * replicationFactor, total);
+    assertEquals(1, single.getBytesByRack().size());
+
+    // served from the cache the second time around, without asking the namenode again
+    Configuration cacheConf = new Configuration(conf);
+    cacheConf.setBoolean(HDFSFileFinder.CACHE_ENABLED, true);
+    cacheConf.setInt(HDFSFileFinder.LIST_THRESHOLD, 1);
+    cacheConf.setClass("fs.hdfs.impl", CountingFileSystem.class, FileSystem.class);
+    cacheConf.setBoolean("fs.hdfs.impl.disable.cache", true);
+    CountingFileSystem.LOOKUPS.set(0);
+    assertEquals(single.getBytesByDatanode(),
+        HDFSFileFinder.getBlockDistribution(glob, cacheConf).getBytesByDatanode());
+    assertEquals(1, CountingFileSystem.LOOKUPS.get());
+    assertEquals(single.getBytesByDatanode(),
+        HDFSFileFinder.getBlockDistribution(glob, cacheConf).getBytesByDatanode());
+    assertEquals(1, CountingFileSystem.LOOKUPS.get());
+  }
+
+  /**
+   * Counts the calls that fetch block locations from the namenode.
+   */
+  public static class CountingFileSystem extends DistributedFileSystem {
+    static final AtomicInteger LOOKUPS = new AtomicInteger();
+
+    @Override
+    public RemoteIterator<LocatedFileStatus> listLocatedStatus(Path p) throws IOException {
+      LOOKUPS.incrementAndGet();
+      return super.listLocatedStatus(p);
+    }
+
+    @Override
+    public BlockLocation[] getFileBlockLocations(FileStatus file, long start, long len)
+        throws IOException {
+      LOOKUPS.incrementAndGet();
+      return super.getFileBlockLocations(file, start, len);
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2012, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.cloudera.kitten.appmaster.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testBuckets() {
+    long previous = -1;
+    for (long v = 0; v < 100000; v++) {
+      int bucket = LatencyHistogram.bucket(v);
+      assertTrue(v <= LatencyHistogram.highestValue(bucket));
+      // Within about 3% of the value.
+      assertTrue(LatencyHistogram.highestValue(bucket) - v <= v / 32);
+      if (bucket != previous) {
+        // Contiguous, and each one starts just after the last one ends.
+        assertEquals(previous + 1, bucket);
+        if (bucket > 0) {
+          assertEquals(v - 1, LatencyHistogram.highestValue(bucket - 1));
+        }
+        previous = bucket;
+      }
+    }
+    assertEquals(LatencyHistogram.bucket(Long.MAX_VALUE),
+        LatencyHistogram.bucket(1L << 50));
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0L, histogram.getPercentile(99));
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    }
+    assertEquals(1000L, histogram.getCount());
+    assertEquals(1000L, histogram.getMax());
+    assertEquals(500.5, histogram.getMean(), 0.001);
+    assertNear(500, histogram.getPercentile(50));
+    assertNear(990, histogram.getPercentile(99));
+    assertEquals(1000L, histogram.getPercentile(100));
+    LatencySnapshot snapshot = histogram.snapshot();
+    assertNear(900, snapshot.getP90());
+  }
+
+  private static void assertNear(long expected, long actual) {
+    assertTrue(actual + " is not near " + expected,
+        actual >= expected && actual <= expected + expected / 32);
+  }
+}